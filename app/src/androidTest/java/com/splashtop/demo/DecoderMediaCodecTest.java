@@ -9,10 +9,12 @@ import static org.mockito.Mockito.verify;
 
 import android.app.Instrumentation;
 import android.content.Context;
+import android.graphics.SurfaceTexture;
 import android.os.SystemClock;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.TextureView;
 
 import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -28,6 +30,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class DecoderMediaCodecTest {
@@ -173,6 +182,100 @@ public class DecoderMediaCodecTest {
         decodeToSurfaceView(input, DecoderOutput.ALLOW_ALL);
     }
 
+    @Test
+    public void testTextureViewPaced() throws Exception {
+        DecoderInputAssets.sPolicyFactory = new DecoderInputAssets.IndexPolicyFactory() {
+            @Override
+            public NalPolicy create() {
+                NalPolicy policy = super.create(); // Load assets index
+                policy = new NalPolicyFixedRate(policy, 60); // Overwrite pts with fixed interval, start from 0
+                return policy;
+            }
+        };
+
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        DecoderInput input = new DecoderInputFrameLimit(new DecoderInputAssets(ctx), 120); // limit 120 frame, about 2s
+
+        // Render time of each frame by pts, the SurfaceTexture timestamp is the pts when released without render time
+        final Map<Long, Long> renderTimes = new HashMap<>();
+        final CountDownLatch end = new CountDownLatch(1);
+        DecoderOutput output = new DecoderOutput() {
+            @Override
+            public void onFormat(Decoder decoder, Decoder.VideoFormat format) {
+            }
+            @Override
+            public boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
+                synchronized (renderTimes) {
+                    renderTimes.put(info.pts, info.renderTimeNs);
+                }
+                return true;
+            }
+            @Override
+            public void onEnd(Decoder decoder) {
+                end.countDown();
+            }
+        };
+
+        // Frames latched by TextureView before the render time
+        final int[] updates = new int[1];
+        final int[] early = new int[1];
+        final SurfaceTexture[] texture = new SurfaceTexture[1];
+        final CountDownLatch available = new CountDownLatch(1);
+        final Instrumentation ins = InstrumentationRegistry.getInstrumentation();
+        ins.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TextureView view = new TextureView(mActivity);
+                view.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+                    @Override
+                    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                        texture[0] = surface;
+                        available.countDown();
+                    }
+                    @Override
+                    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+                    }
+                    @Override
+                    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                        return true;
+                    }
+                    @Override
+                    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+                        long nowNs = System.nanoTime();
+                        Long renderNs;
+                        synchronized (renderTimes) {
+                            renderNs = renderTimes.get(surface.getTimestamp() / 1000);
+                        }
+                        updates[0]++;
+                        if (renderNs != null && nowNs < renderNs) {
+                            early[0]++;
+                        }
+                    }
+                });
+                mActivity.setContentView(view);
+            }
+        });
+        assertTrue(available.await(5, TimeUnit.SECONDS));
+
+        Surface surface = new Surface(texture[0]);
+        Decoder decoder = new DecoderMediaCodec(ctx)
+                .setTimedRender(false)
+                .setInput(input)
+                .setOutput(output);
+        decoder.attachSurface(surface);
+        long startNs = System.nanoTime();
+        decoder.start();
+        assertTrue(end.await(15, TimeUnit.SECONDS));
+        long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+        decoder.stop();
+        ins.waitForIdleSync();
+
+        sLogger.info("updates:{} early:{} elapsed:{}ms", updates[0], early[0], elapsedMs);
+        assertTrue(updates[0] > 0);
+        assertEquals(0, early[0]);
+        assertTrue(elapsedMs >= 1900); // 119 frame intervals at 60fps
+    }
+
     private void decodeToSurfaceView(DecoderInput input, DecoderOutput output) {
         final Instrumentation ins = InstrumentationRegistry.getInstrumentation();
         final Context ctx = ins.getContext();
@@ -0,0 +1,170 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+
+// Read bits MSB first, with the Exp-Golomb codes used by H264 headers
+// No copy of the data, reset() reads the raw bytes, resetNal() reads the RBSP of a nal in place
+// The emulation prevention bytes skipped as loaded, only the bytes of the read fields touched, not the whole nal
+// Reuse the reader for another range, no allocation at all
+public class BitReader {
+
+    private ByteBuffer mData;
+    private int mPos = 0;       // Offset of next byte to load
+    private int mEnd = 0;
+    private int mCache = 0;     // Loaded byte
+    private int mCacheBits = 0; // Bits of the loaded byte not consumed yet
+    private boolean mRbsp = false;
+    private int mZeros = 0;     // Zero bytes loaded in a row, for the emulation prevention
+    private int mLoaded = 0;    // Bytes loaded, the emulation prevention bytes not counted
+
+    public BitReader reset(ByteBuffer data, int offset, int length) {
+        mData = data;
+        mPos = offset;
+        mEnd = offset + length;
+        mCache = 0;
+        mCacheBits = 0;
+        mRbsp = false;
+        mZeros = 0;
+        mLoaded = 0;
+        return this;
+    }
+
+    /**
+     * Read the RBSP of a nal, the nal header byte skipped
+     * Emulation prevention bytes removed, read until the nal end or next CSD
+     *
+     * @param offset the nal header, or the leading CSD if any
+     */
+    public BitReader resetNal(ByteBuffer nal, int offset, int length) throws NalParser.InvalidStreamException {
+        int end = offset + length;
+        int pos = skipStartCode(nal, offset, end) + 1;
+        if (pos > end) {
+            throw new NalParser.InvalidStreamException("Empty nal");
+        }
+        reset(nal, pos, end - pos);
+        mRbsp = true;
+        return this;
+    }
+
+    // Skip the leading CSD if any, return the offset of nal header
+    static int skipStartCode(ByteBuffer nal, int offset, int end) {
+        int pos = offset;
+        while (pos < end && nal.get(pos) == 0x00) {
+            pos++;
+        }
+        if (pos > offset && pos < end && nal.get(pos) == 0x01) {
+            pos++;
+        }
+        return pos;
+    }
+
+    public int readBit() throws NalParser.InvalidStreamException {
+        if (mCacheBits == 0) {
+            load();
+        }
+        mCacheBits--;
+        return (mCache >> mCacheBits) & 0x01;
+    }
+
+    public boolean readFlag() throws NalParser.InvalidStreamException {
+        return readBit() != 0;
+    }
+
+    /**
+     * Read unsigned bits, u(n) in the spec
+     *
+     * @param n up to 32, the value of 32 bits returned as is in int
+     */
+    public int readBits(int n) throws NalParser.InvalidStreamException {
+        int value = 0;
+        while (n > 0) {
+            if (mCacheBits == 0) {
+                load();
+            }
+            int take = Math.min(n, mCacheBits);
+            mCacheBits -= take;
+            value = (value << take) | ((mCache >> mCacheBits) & ((1 << take) - 1));
+            n -= take;
+        }
+        return value;
+    }
+
+    public void skipBits(int n) throws NalParser.InvalidStreamException {
+        while (n > 32) {
+            readBits(32);
+            n -= 32;
+        }
+        readBits(n);
+    }
+
+    /**
+     * Read unsigned Exp-Golomb code, ue(v) in the spec
+     */
+    public int readUE() throws NalParser.InvalidStreamException {
+        int zeros = 0;
+        while (readBit() == 0) {
+            if (++zeros > 31) {
+                throw new NalParser.InvalidStreamException("Invalid Exp-Golomb code");
+            }
+        }
+        if (zeros == 0) {
+            return 0;
+        }
+        return (int) ((1L << zeros) - 1 + (readBits(zeros) & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Read signed Exp-Golomb code, se(v) in the spec
+     */
+    public int readSE() throws NalParser.InvalidStreamException {
+        long k = readUE() & 0xFFFFFFFFL;
+        return (int) (((k & 0x01) != 0) ? (k + 1) / 2 : -(k / 2));
+    }
+
+    /**
+     * Bits left to the end of range, for resetNal() the emulation prevention bytes and the zeros before
+     * next CSD not known until loaded, counted as well
+     */
+    public int bitsLeft() {
+        return (mEnd - mPos) * 8 + mCacheBits;
+    }
+
+    // Bits read since reset, of the RBSP for resetNal()
+    public int bitsRead() {
+        return mLoaded * 8 - mCacheBits;
+    }
+
+    private void load() throws NalParser.InvalidStreamException {
+        if (mPos >= mEnd) {
+            throw new NalParser.InvalidStreamException("Read over the end");
+        }
+        mCache = mData.get(mPos++) & 0xFF;
+        mCacheBits = 8;
+        if (mRbsp) {
+            loadRbsp();
+        }
+        mLoaded++;
+    }
+
+    // Skip 0x03 after two zeros, stop at the zeros of next CSD, 0x000000 or 0x000001 never inside a nal
+    private void loadRbsp() throws NalParser.InvalidStreamException {
+        if (mZeros >= 2 && mCache == 0x03) {
+            mZeros = 0;
+            if (mPos >= mEnd) {
+                throw new NalParser.InvalidStreamException("Read over the end");
+            }
+            mCache = mData.get(mPos++) & 0xFF;
+        }
+        if (mCache != 0x00) {
+            mZeros = 0;
+            return;
+        }
+        if (mPos + 1 < mEnd && mData.get(mPos) == 0x00 && (mData.get(mPos + 1) & 0xFF) <= 0x01) {
+            mEnd = mPos - 1; // Next CSD
+            mPos = mEnd;
+            mCacheBits = 0;
+            throw new NalParser.InvalidStreamException("Read over the end");
+        }
+        mZeros++;
+    }
+}
@@ -0,0 +1,142 @@
+package com.splashtop.demo;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+// Size-classed byte array pool shared by parsers across sessions
+// Sizes rounded up to power of two, a released array is kept in its class until the retained cap reached
+// Classes not accessed for the idle timeout are trimmed on next pool access, or by trim()
+public class BufferPool {
+
+    private static final int MIN_CLASS = 12; // 4KB
+    private static final int MAX_CLASS = 30; // 1GB, larger arrays not pooled
+    private static final long RETAIN_MAX = 32 * 1024 * 1024;
+    private static final long IDLE_MS = 10 * 1000;
+
+    private static final BufferPool sDefault = new BufferPool(RETAIN_MAX, IDLE_MS);
+
+    private final ArrayDeque<byte[]>[] mFree;
+    private final long[] mAccessTime; // Last acquire or release of each class, nanosecond
+    private final long mRetainMax;
+    private final long mIdleNs;
+    private long mRetained = 0;
+    private long mTrimTime;
+
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+
+    public static BufferPool getDefault() {
+        return sDefault;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long retainMax, long idleMs) {
+        mFree = new ArrayDeque[MAX_CLASS + 1];
+        mAccessTime = new long[MAX_CLASS + 1];
+        mRetainMax = retainMax;
+        mIdleNs = TimeUnit.MILLISECONDS.toNanos(idleMs);
+        mTrimTime = System.nanoTime();
+    }
+
+    /**
+     * Get an array at least the size, the length rounded up to the size class
+     */
+    public synchronized byte[] acquire(int size) {
+        int c = sizeClass(size);
+        if (c > MAX_CLASS) {
+            mMissCount++;
+            return new byte[size];
+        }
+        long now = System.nanoTime();
+        trimIdle(now);
+        mAccessTime[c] = now;
+        ArrayDeque<byte[]> free = mFree[c];
+        byte[] data = (free != null) ? free.pollLast() : null;
+        if (data != null) {
+            mHitCount++;
+            mRetained -= data.length;
+            return data;
+        }
+        mMissCount++;
+        return new byte[1 << c];
+    }
+
+    /**
+     * Return the array to pool, the caller should not touch it anymore
+     * Arrays not acquired from pool are accepted if the length matches a size class
+     */
+    public synchronized void release(byte[] data) {
+        if (data == null || Integer.bitCount(data.length) != 1) {
+            return;
+        }
+        int c = 31 - Integer.numberOfLeadingZeros(data.length);
+        if (c < MIN_CLASS || c > MAX_CLASS) {
+            return;
+        }
+        long now = System.nanoTime();
+        trimIdle(now);
+        mAccessTime[c] = now;
+        if (mRetained + data.length > mRetainMax) {
+            return; // Over the cap, leave it to GC
+        }
+        if (mFree[c] == null) {
+            mFree[c] = new ArrayDeque<>();
+        }
+        mFree[c].addLast(data);
+        mRetained += data.length;
+    }
+
+    // Drop the classes idle longer than the timeout
+    public synchronized void trim() {
+        long now = System.nanoTime();
+        mTrimTime = now - mIdleNs;
+        trimIdle(now);
+    }
+
+    // Drop all retained arrays, e.g. on memory pressure
+    public synchronized void clear() {
+        for (ArrayDeque<byte[]> free : mFree) {
+            if (free != null) {
+                free.clear();
+            }
+        }
+        mRetained = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    // Bytes kept by the pool for reuse
+    public synchronized long getRetainedBytes() {
+        return mRetained;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "<hit:" + mHitCount + " miss:" + mMissCount + " retained:" + mRetained + ">";
+    }
+
+    // Check at most once per idle timeout
+    private void trimIdle(long now) {
+        if (now - mTrimTime < mIdleNs) {
+            return;
+        }
+        mTrimTime = now;
+        for (int c = MIN_CLASS; c <= MAX_CLASS; c++) {
+            ArrayDeque<byte[]> free = mFree[c];
+            if (free != null && !free.isEmpty() && now - mAccessTime[c] >= mIdleNs) {
+                mRetained -= (long) free.size() << c;
+                free.clear();
+            }
+        }
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+}
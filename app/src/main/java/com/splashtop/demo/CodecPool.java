@@ -0,0 +1,338 @@
+package com.splashtop.demo;
+
+import android.media.MediaCodec;
+import android.os.Build;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Pool of idle decoders across the sessions, a restarted session configures a warm codec instead of creating one
+// Keyed by mime and the max resolution configured, the codec returned by stop to the unconfigured state
+// Limited by the idle codecs in total and per key, the oldest released first, the idle ones released after a while
+public class CodecPool<T> {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    public interface Factory<T> {
+        T create(Key key) throws IOException;
+
+        /**
+         * Back to the state to configure again, e.g. by stop() or reset()
+         *
+         * @return false if the codec can not be reused
+         */
+        boolean recycle(T codec);
+
+        void release(T codec);
+    }
+
+    // The max resolution rounded up to the common sizes, so the sessions of near sizes share the codecs
+    // The codec name by CodecSelector, null to create by mime
+    // Clamped to the max size of the codec selected, the stream size itself if the codec can not cover it
+    public static final class Key {
+        private static final int[][] SIZES = {
+                {1280, 720}, {1920, 1088}, {2560, 1600}, {3840, 2160}
+        };
+
+        public final String mime;
+        public final int maxWidth;
+        public final int maxHeight;
+        public final String name;
+
+        private Key(String mime, int maxWidth, int maxHeight, String name) {
+            this.mime = mime;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.name = name;
+        }
+
+        public static Key of(String mime, int width, int height) {
+            return of(mime, width, height, (String) null);
+        }
+
+        public static Key of(String mime, int width, int height, String name) {
+            int w = Math.max(width, height);
+            int h = Math.min(width, height);
+            for (int[] size : SIZES) {
+                if (w <= size[0] && h <= size[1]) {
+                    w = size[0];
+                    h = size[1];
+                    break;
+                }
+            }
+            w = (w + 15) & ~15;
+            h = (h + 15) & ~15;
+            return (width >= height) ? new Key(mime, w, h, name) : new Key(mime, h, w, name);
+        }
+
+        public static Key of(String mime, int width, int height, CodecSelector.Info info) {
+            if (info == null) {
+                return of(mime, width, height, (String) null);
+            }
+            String name = (info.name == null || info.name.isEmpty()) ? null : info.name;
+            Key key = of(mime, width, height, name);
+            if (info.isSizeSupported(key.maxWidth, key.maxHeight)) {
+                return key;
+            }
+            // Long and short sides clamped to the codec max, never below the stream size
+            int w = Math.max(width, height);
+            int h = Math.min(width, height);
+            int clampW = Math.max(w, Math.min(Math.max(key.maxWidth, key.maxHeight), Math.max(info.maxWidth, info.maxHeight)));
+            int clampH = Math.max(h, Math.min(Math.min(key.maxWidth, key.maxHeight), Math.min(info.maxWidth, info.maxHeight)));
+            if (!info.isSizeSupported(clampW, clampH)) {
+                clampW = w;
+                clampH = h;
+            }
+            return (width >= height) ? new Key(mime, clampW, clampH, name) : new Key(mime, clampH, clampW, name);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return mime.equals(k.mime) && maxWidth == k.maxWidth && maxHeight == k.maxHeight
+                    && (name == null ? k.name == null : name.equals(k.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mime.hashCode() * 31 + maxWidth) * 31 + maxHeight) * 31 + (name == null ? 0 : name.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return "<" + mime + " " + maxWidth + "x" + maxHeight + (name == null ? "" : " " + name) + ">";
+        }
+    }
+
+    private static class Entry<T> {
+        final Key key;
+        final T codec;
+        final long idleSinceMs;
+
+        Entry(Key key, T codec, long idleSinceMs) {
+            this.key = key;
+            this.codec = codec;
+            this.idleSinceMs = idleSinceMs;
+        }
+    }
+
+    private static CodecPool<MediaCodec> sDefault;
+
+    private final Factory<T> mFactory;
+    private final LinkedList<Entry<T>> mIdle = new LinkedList<>(); // Oldest first
+    private int mMaxIdle = 4;
+    private int mMaxIdlePerKey = 2;
+    private long mIdleTimeoutMs = 30000;
+    private long mHitCount;
+    private long mMissCount;
+
+    private ScheduledExecutorService mEvictor;
+    private boolean mEvictScheduled;
+
+    public CodecPool(Factory<T> factory) {
+        mFactory = factory;
+    }
+
+    // The decoders in process, MediaCodec created by name or type
+    public static synchronized CodecPool<MediaCodec> getDefault() {
+        if (sDefault == null) {
+            sDefault = new CodecPool<>(new MediaCodecFactory());
+        }
+        return sDefault;
+    }
+
+    public synchronized CodecPool<T> setMaxIdle(int total, int perKey) {
+        mMaxIdle = total;
+        mMaxIdlePerKey = perKey;
+        trim(now());
+        return this;
+    }
+
+    public synchronized CodecPool<T> setIdleTimeout(long timeoutMs) {
+        mIdleTimeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * An idle codec of the key, the latest recycled, or a new one created if none
+     * The codec is unconfigured, the caller configures it with its own surface
+     */
+    public T acquire(Key key) throws IOException {
+        synchronized (this) {
+            evictIdle(now());
+            Iterator<Entry<T>> it = mIdle.descendingIterator();
+            while (it.hasNext()) {
+                Entry<T> entry = it.next();
+                if (entry.key.equals(key)) {
+                    it.remove();
+                    mHitCount++;
+                    sLogger.debug("Reuse codec {} idle:{}", key, mIdle.size());
+                    return entry.codec;
+                }
+            }
+            mMissCount++;
+        }
+        // Created out of lock, may take hundreds of milliseconds
+        return mFactory.create(key);
+    }
+
+    // Codec done by session, kept for the next acquire of the same key if reusable
+    public void recycle(Key key, T codec) {
+        if (!mFactory.recycle(codec)) {
+            sLogger.warn("Codec {} not reusable, release", key);
+            mFactory.release(codec);
+            return;
+        }
+        synchronized (this) {
+            mIdle.addLast(new Entry<>(key, codec, now()));
+            trim(now());
+            scheduleEvict();
+        }
+    }
+
+    // Release all the idle codecs, e.g. on low memory
+    public void clear() {
+        LinkedList<Entry<T>> idle;
+        synchronized (this) {
+            idle = new LinkedList<>(mIdle);
+            mIdle.clear();
+        }
+        for (Entry<T> entry : idle) {
+            mFactory.release(entry.codec);
+        }
+    }
+
+    // Release the codecs idle longer than the timeout
+    synchronized void evictIdle(long nowMs) {
+        Iterator<Entry<T>> it = mIdle.iterator();
+        while (it.hasNext()) {
+            Entry<T> entry = it.next();
+            if (nowMs - entry.idleSinceMs >= mIdleTimeoutMs) {
+                it.remove();
+                sLogger.debug("Evict idle codec {}", entry.key);
+                mFactory.release(entry.codec);
+            }
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "<hit:" + mHitCount + " miss:" + mMissCount + " idle:" + mIdle.size() + ">";
+    }
+
+    private void trim(long nowMs) {
+        evictIdle(nowMs);
+        while (mIdle.size() > mMaxIdle) {
+            mFactory.release(mIdle.removeFirst().codec);
+        }
+        // The latest of a key kept
+        Iterator<Entry<T>> it = mIdle.descendingIterator();
+        LinkedList<Key> seen = new LinkedList<>();
+        while (it.hasNext()) {
+            Entry<T> entry = it.next();
+            int count = 0;
+            for (Key key : seen) {
+                if (key.equals(entry.key)) {
+                    count++;
+                }
+            }
+            if (count >= mMaxIdlePerKey) {
+                it.remove();
+                mFactory.release(entry.codec);
+            } else {
+                seen.add(entry.key);
+            }
+        }
+    }
+
+    private void scheduleEvict() {
+        if (mEvictScheduled) {
+            return;
+        }
+        if (mEvictor == null) {
+            mEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CodecPool");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mEvictScheduled = true;
+        mEvictor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CodecPool.this) {
+                    mEvictScheduled = false;
+                    evictIdle(now());
+                    if (!mIdle.isEmpty()) {
+                        scheduleEvict();
+                    }
+                }
+            }
+        }, mIdleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static class MediaCodecFactory implements Factory<MediaCodec> {
+        @Override
+        public MediaCodec create(Key key) throws IOException {
+            return (key.name != null) ? MediaCodec.createByCodecName(key.name) : MediaCodec.createDecoderByType(key.mime);
+        }
+
+        @Override
+        public boolean recycle(MediaCodec codec) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException ex) {
+                // Error state or already stopped
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                    return false;
+                }
+                try {
+                    codec.reset();
+                } catch (IllegalStateException e) {
+                    return false;
+                }
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // Back to synchronous mode, the listener not to reach the previous session
+                codec.setCallback(null);
+                codec.setOnFrameRenderedListener(null, null);
+            }
+            return true;
+        }
+
+        @Override
+        public void release(MediaCodec codec) {
+            codec.release();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.splashtop.demo;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+// Rank the decoders for a stream by the capabilities probed once per process, no MediaCodecList scan per session
+// The capabilities cached in a file keyed by the build fingerprint, so probed again only after a system update
+// Ranked by hardware acceleration, low latency feature, then the frame rate supported at the stream size
+public class CodecSelector {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    private static final String CACHE_FILE = "decoders.txt";
+    private static final String CACHE_VERSION = "v1";
+
+    // Sizes to probe the max frame rate at, landscape
+    static final int[][] SIZES = {
+            {1280, 720}, {1920, 1080}, {3840, 2160}
+    };
+
+    public static class Info {
+        public String name;
+        public String mime;
+        public boolean hardware;
+        public boolean lowLatency;    // FEATURE_LowLatency (API 30)
+        public boolean adaptive;      // FEATURE_AdaptivePlayback (API 19)
+        public int maxWidth;          // 0 if unknown (before API 21)
+        public int maxHeight;
+        public int maxFrameRate;
+        public final int[] frameRates = new int[SIZES.length]; // Max at SIZES, 0 if size not supported
+
+        boolean isSizeSupported(int width, int height) {
+            if (maxWidth <= 0 || maxHeight <= 0) {
+                return true;
+            }
+            return (width <= maxWidth && height <= maxHeight) || (height <= maxWidth && width <= maxHeight);
+        }
+
+        // Max frame rate at the size, by the smallest probed size covering it
+        // 0 if unknown, larger than all the probed sizes or not supported at the probed size
+        // The max frame rate is at the smallest size, never reported for a larger one
+        int getFrameRate(int width, int height) {
+            int w = Math.max(width, height);
+            int h = Math.min(width, height);
+            for (int i = 0; i < SIZES.length; i++) {
+                if (w <= SIZES[i][0] && h <= SIZES[i][1]) {
+                    return frameRates[i];
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append("<").append(name);
+            b.append(" mime:").append(mime);
+            b.append(" hw:").append(hardware);
+            b.append(" lowLatency:").append(lowLatency);
+            b.append(" adaptive:").append(adaptive);
+            b.append(" max:").append(maxWidth).append("x").append(maxHeight).append("@").append(maxFrameRate);
+            for (int i = 0; i < SIZES.length; i++) {
+                b.append(" ").append(SIZES[i][1]).append("P@").append(frameRates[i]);
+            }
+            b.append(">");
+            return b.toString();
+        }
+    }
+
+    private static CodecSelector sDefault;
+
+    private final List<Info> mInfos;
+
+    CodecSelector(List<Info> infos) {
+        mInfos = infos;
+    }
+
+    // Probed on the first call, the caller thread blocked for the probe if not cached, avoid the UI thread
+    public static synchronized CodecSelector get(Context ctx) {
+        if (sDefault == null) {
+            File cache = new File(ctx.getCacheDir(), CACHE_FILE);
+            List<Info> infos = load(cache, Build.FINGERPRINT);
+            if (infos == null) {
+                long start = System.nanoTime();
+                infos = probe();
+                sLogger.info("Probed {} decoders in {}ms", infos.size(), (System.nanoTime() - start) / 1000000);
+                save(cache, Build.FINGERPRINT, infos);
+            }
+            sDefault = new CodecSelector(infos);
+        }
+        return sDefault;
+    }
+
+    /**
+     * The decoders supporting the mime and size, best first
+     *
+     * @param frameRate required frame rate, 0 if unknown
+     */
+    public List<Info> rank(String mime, int width, int height, final float frameRate) {
+        List<Info> list = new ArrayList<>();
+        for (Info info : mInfos) {
+            if (info.mime.equalsIgnoreCase(mime) && info.isSizeSupported(width, height)) {
+                list.add(info);
+            }
+        }
+        final int w = width;
+        final int h = height;
+        // Stable, the platform order kept for the equal ones
+        Collections.sort(list, new Comparator<Info>() {
+            @Override
+            public int compare(Info a, Info b) {
+                if (a.hardware != b.hardware) {
+                    return a.hardware ? -1 : 1;
+                }
+                if (a.lowLatency != b.lowLatency) {
+                    return a.lowLatency ? -1 : 1;
+                }
+                int rateA = a.getFrameRate(w, h);
+                int rateB = b.getFrameRate(w, h);
+                boolean enoughA = rateA <= 0 || rateA >= frameRate;
+                boolean enoughB = rateB <= 0 || rateB >= frameRate;
+                if (enoughA != enoughB) {
+                    return enoughA ? -1 : 1;
+                }
+                return rateB - rateA;
+            }
+        });
+        return list;
+    }
+
+    // Best decoder name to MediaCodec.createByCodecName(), null to create by type
+    public String select(String mime, int width, int height, float frameRate) {
+        Info info = find(mime, width, height, frameRate);
+        return (info != null) ? info.name : null;
+    }
+
+    public Info find(String mime, int width, int height, float frameRate) {
+        List<Info> list = rank(mime, width, height, frameRate);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    public List<Info> getInfos() {
+        return Collections.unmodifiableList(mInfos);
+    }
+
+    // Cache of the fingerprint, null if missing, stale or broken
+    static List<Info> load(File file, String fingerprint) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                return read(in, fingerprint);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            sLogger.warn("Failed to read decoder cache - {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    static void save(File file, String fingerprint, List<Info> infos) {
+        try {
+            Writer out = new FileWriter(file);
+            try {
+                write(out, fingerprint, infos);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            sLogger.warn("Failed to write decoder cache - {}", ex.getMessage());
+        }
+    }
+
+    // Header of version and fingerprint, then a tab separated line per decoder and mime
+    static List<Info> read(BufferedReader in, String fingerprint) throws IOException {
+        String header = in.readLine();
+        if (header == null || !header.equals(CACHE_VERSION + "\t" + fingerprint)) {
+            return null;
+        }
+        List<Info> infos = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] fields = line.split("\t");
+            if (fields.length != 8 + SIZES.length) {
+                return null;
+            }
+            try {
+                Info info = new Info();
+                info.name = fields[0];
+                info.mime = fields[1];
+                info.hardware = "1".equals(fields[2]);
+                info.lowLatency = "1".equals(fields[3]);
+                info.adaptive = "1".equals(fields[4]);
+                info.maxWidth = Integer.parseInt(fields[5]);
+                info.maxHeight = Integer.parseInt(fields[6]);
+                info.maxFrameRate = Integer.parseInt(fields[7]);
+                for (int i = 0; i < SIZES.length; i++) {
+                    info.frameRates[i] = Integer.parseInt(fields[8 + i]);
+                }
+                infos.add(info);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return infos;
+    }
+
+    static void write(Writer out, String fingerprint, List<Info> infos) throws IOException {
+        out.write(CACHE_VERSION + "\t" + fingerprint + "\n");
+        for (Info info : infos) {
+            StringBuilder b = new StringBuilder();
+            b.append(info.name).append('\t');
+            b.append(info.mime).append('\t');
+            b.append(info.hardware ? 1 : 0).append('\t');
+            b.append(info.lowLatency ? 1 : 0).append('\t');
+            b.append(info.adaptive ? 1 : 0).append('\t');
+            b.append(info.maxWidth).append('\t');
+            b.append(info.maxHeight).append('\t');
+            b.append(info.maxFrameRate);
+            for (int rate : info.frameRates) {
+                b.append('\t').append(rate);
+            }
+            b.append('\n');
+            out.write(b.toString());
+        }
+    }
+
+    // Same as MediaCodecList::isSoftwareCodec() of platform, for the devices before API 29
+    static boolean isSoftware(String name) {
+        String n = name.toLowerCase(Locale.US);
+        return n.startsWith("omx.google.") || n.startsWith("c2.android.")
+                || (!n.startsWith("omx.") && !n.startsWith("c2."));
+    }
+
+    private static List<Info> probe() {
+        MediaCodecInfo[] codecs;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            codecs = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        } else {
+            codecs = new MediaCodecInfo[MediaCodecList.getCodecCount()];
+            for (int i = 0; i < codecs.length; i++) {
+                codecs[i] = MediaCodecList.getCodecInfoAt(i);
+            }
+        }
+        List<Info> infos = new ArrayList<>();
+        for (MediaCodecInfo codec : codecs) {
+            if (codec.isEncoder()) {
+                continue;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && codec.isAlias()) {
+                continue;
+            }
+            for (String type : codec.getSupportedTypes()) {
+                if (!type.toLowerCase(Locale.US).startsWith("video/")) {
+                    continue;
+                }
+                try {
+                    if (isRestricted(codec, type)) {
+                        sLogger.debug("Skip decoder {} {} for secure or tunneled playback only", codec.getName(), type);
+                        continue;
+                    }
+                    infos.add(probe(codec, type));
+                } catch (Throwable tr) { // Some device not implement
+                    sLogger.warn("Failed to get capability of {} {} - {}", codec.getName(), type, tr.getMessage());
+                }
+            }
+        }
+        return infos;
+    }
+
+    // The secure and tunneled decoders not to configure with a plain surface, e.g. the ".secure" variants
+    private static boolean isRestricted(MediaCodecInfo codec, String type) {
+        if (codec.getName().toLowerCase(Locale.US).endsWith(".secure")) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        MediaCodecInfo.CodecCapabilities caps = codec.getCapabilitiesForType(type);
+        return caps.isFeatureRequired(MediaCodecInfo.CodecCapabilities.FEATURE_SecurePlayback)
+                || caps.isFeatureRequired(MediaCodecInfo.CodecCapabilities.FEATURE_TunneledPlayback);
+    }
+
+    private static Info probe(MediaCodecInfo codec, String type) {
+        MediaCodecInfo.CodecCapabilities caps = codec.getCapabilitiesForType(type);
+        Info info = new Info();
+        info.name = codec.getName();
+        info.mime = type;
+        info.hardware = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) ?
+                codec.isHardwareAccelerated() : !isSoftware(info.name);
+        info.lowLatency = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                && caps.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency);
+        info.adaptive = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && caps.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_AdaptivePlayback);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MediaCodecInfo.VideoCapabilities video = caps.getVideoCapabilities();
+            info.maxWidth = video.getSupportedWidths().getUpper();
+            info.maxHeight = video.getSupportedHeights().getUpper();
+            info.maxFrameRate = video.getSupportedFrameRates().getUpper();
+            for (int i = 0; i < SIZES.length; i++) {
+                if (video.isSizeSupported(SIZES[i][0], SIZES[i][1])) {
+                    info.frameRates[i] = video.getSupportedFrameRatesFor(SIZES[i][0], SIZES[i][1]).getUpper().intValue();
+                }
+            }
+        }
+        sLogger.debug("Decoder {}", info);
+        return info;
+    }
+}
@@ -5,6 +5,8 @@ import android.view.Surface;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public abstract class Decoder {
@@ -15,6 +17,17 @@ public abstract class Decoder {
     private DecoderOutput mOutput;
     private VideoFormat   mFormat;
 
+    // Capture time of the queued frames by pts, the codec output only carries the pts
+    private static final int CAPTURE_SLOTS = 64;
+    private final long[] mCapturePts = new long[CAPTURE_SLOTS];
+    private final long[] mCaptureTimes = new long[CAPTURE_SLOTS];
+    private int mCaptureNext = 0;
+
+    private volatile long mLatestInputPts = -1;
+    private volatile boolean mTimedRender = true;
+
+    private final PresentationScheduler mScheduler = new PresentationScheduler();
+
     public Decoder setInput(DecoderInput input) {
         sLogger.trace("input:{}", input);
         mInput = input;
@@ -35,7 +48,40 @@ public abstract class Decoder {
     }
 
     protected VideoBufferInfo readInputBuffer(ByteBuffer buffer) {
-        return (mInput != null) ? mInput.readBuffer(this, buffer) : null;
+        if (buffer != null) {
+            buffer.clear(); // Codec input buffer may keep the position of last use, e.g. getInputBuffers() before API 21
+        }
+        VideoBufferInfo info = (mInput != null) ? mInput.readBuffer(this, buffer) : null;
+        if (info != null && info.flags != VideoBufferInfo.FLAG_CONFIG && info.flags != VideoBufferInfo.FLAG_EOS) {
+            mLatestInputPts = info.pts;
+        }
+        if (info != null && info.captureTimeUs > 0) {
+            synchronized (mCapturePts) {
+                mCapturePts[mCaptureNext] = info.pts;
+                mCaptureTimes[mCaptureNext] = info.captureTimeUs;
+                mCaptureNext = (mCaptureNext + 1) % CAPTURE_SLOTS;
+            }
+        }
+        return info;
+    }
+
+    // Seek the input on the input thread, -1 if the input not seekable or failed
+    protected long seekInput(long ptsUs) {
+        if (mInput instanceof DecoderInput.Seekable) {
+            return ((DecoderInput.Seekable) mInput).seek(ptsUs);
+        }
+        return -1;
+    }
+
+    // Input finished, release the resource held by input, e.g. the prefetch thread
+    protected void closeInput() {
+        if (mInput instanceof Closeable) {
+            try {
+                ((Closeable) mInput).close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close input - {}", ex.getMessage());
+            }
+        }
     }
 
     protected void writeOutputFormat(VideoFormat format) {
@@ -46,6 +92,16 @@ public abstract class Decoder {
     }
 
     protected boolean writeOutputBuffer(VideoBufferInfo info, ByteBuffer buffer) {
+        info.captureTimeUs = -1;
+        synchronized (mCapturePts) {
+            for (int i = 0; i < CAPTURE_SLOTS; i++) {
+                if (mCapturePts[i] == info.pts && mCaptureTimes[i] > 0) {
+                    info.captureTimeUs = mCaptureTimes[i];
+                    mCaptureTimes[i] = 0;
+                    break;
+                }
+            }
+        }
         return (mOutput != null) && mOutput.onBuffer(this, info, buffer);
     }
 
@@ -55,24 +111,72 @@ public abstract class Decoder {
         }
     }
 
+    // The surface consumer presents by the render timestamp, e.g. SurfaceView
+    // False for the SurfaceTexture of TextureView, it latches at once, the output waits until due before release
+    public Decoder setTimedRender(boolean timed) {
+        mTimedRender = timed;
+        return this;
+    }
+
+    public boolean isTimedRender() {
+        return mTimedRender;
+    }
+
+    // Render time of the output by pts, and the measured present jitter
+    public PresentationScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    // Frames queued to the codec but not output yet, a load signal for the input side
+    public int getPendingFrames() {
+        return 0;
+    }
+
+    // Pts of the latest frame read from input to queue to the codec, -1 if none
+    public long getLatestInputPts() {
+        return mLatestInputPts;
+    }
+
+    /**
+     * Request to continue from the keyframe at or before the pts, handled by the decoder asynchronously
+     *
+     * @return false if the decoder or input can not seek
+     */
+    public boolean seek(long ptsUs) {
+        return false;
+    }
+
     public abstract void attachSurface(Surface surface);
     public abstract void detachSurface(Surface surface);
 
     public abstract void start();
     public abstract void stop();
 
+    public static final String MIME_AVC  = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+
     public static class VideoFormat {
+        public String mime = MIME_AVC; // Codec selected by the input stream
         public int width;
         public int height;
         public int rotate;
+        public int profile;            // profile_idc of SPS, 0 if unknown
+        public int level;              // level_idc of SPS, 0 if unknown
+        public float frameRate;        // By VUI timing, 0 if unknown
+        public int reorderFrames = -1; // max_num_reorder_frames, -1 if unknown
         @Override
         public String toString() {
             StringBuilder b = new StringBuilder();
             b.append("<0x");
             b.append(Integer.toHexString(hashCode()));
+            b.append(" mime:" + mime);
             b.append(" width:" + width);
             b.append(" height:" + height);
             b.append(" rotate:" + rotate);
+            b.append(" profile:" + profile);
+            b.append(" level:" + level);
+            b.append(" fps:" + frameRate);
+            b.append(" reorder:" + reorderFrames);
             b.append(">");
             return b.toString();
         }
@@ -87,6 +191,8 @@ public abstract class Decoder {
         public int size;
         public long pts;
         public int flags;
+        public long captureTimeUs = -1; // Sender capture time by SEI, microseconds since epoch, -1 if unknown
+        public long renderTimeNs = -1;  // Target present time by System.nanoTime() on output, -1 if unknown
         @Override
         public String toString() {
             StringBuilder b = new StringBuilder();
@@ -96,6 +202,8 @@ public abstract class Decoder {
             b.append(" size:" + size);
             b.append(" pts:" + pts);
             b.append(" flags:" + flags);
+            b.append(" capture:" + captureTimeUs);
+            b.append(" render:" + renderTimeNs);
             b.append(">");
             return b.toString();
         }
@@ -3,6 +3,8 @@ package com.splashtop.demo;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public interface DecoderInput {
@@ -17,11 +19,23 @@ public interface DecoderInput {
     /**
      * Read video frame
      *
-     * @return info
+     * @param buffer written from its position up to its limit, e.g. a view shared by frames, not cleared by input
+     * @return info, may be reused by the input, valid until next readBuffer(), the offset is the position written from
      */
     Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer);
 
-    class Wrapper implements DecoderInput {
+    // Input with random access, called on the thread reading buffers
+    interface Seekable {
+
+        /**
+         * Seek to the keyframe at or before the pts, next readBuffer() starts from its parameter sets
+         *
+         * @return pts of the keyframe, -1 if failed
+         */
+        long seek(long ptsUs);
+    }
+
+    class Wrapper implements DecoderInput, Seekable, Closeable {
 
         private final DecoderInput mInput;
 
@@ -46,5 +60,24 @@ public interface DecoderInput {
             }
             return null;
         }
+
+        // Forward to the wrapped input if seekable
+        @CallSuper
+        @Override
+        public long seek(long ptsUs) {
+            if (mInput instanceof Seekable) {
+                return ((Seekable) mInput).seek(ptsUs);
+            }
+            return -1;
+        }
+
+        // Forward to the wrapped input if closeable
+        @CallSuper
+        @Override
+        public void close() throws IOException {
+            if (mInput instanceof Closeable) {
+                ((Closeable) mInput).close();
+            }
+        }
     }
 }
@@ -1,17 +1,21 @@
 package com.splashtop.demo;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 
 import androidx.annotation.NonNull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
-public class DecoderInputAssets implements DecoderInput {
+public class DecoderInputAssets implements DecoderInput, DecoderInput.Seekable, Closeable {
 
     private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
 
@@ -24,11 +28,37 @@ public class DecoderInputAssets implements DecoderInput {
         public NalPolicy create() {
             return new NalPolicyIndex(mStream);
         }
+        // Customized policy may depend on per nal callback, keep scanning
+        public NalParser createParser(DecoderInputAssets assets, String data, String index) throws IOException {
+            return assets.openParser(data, input(assets.mContext.getAssets().open(index)).create());
+        }
+    }
+    // Default policy, the index gives the size of each access unit, read by index without scanning
+    public static class IndexedParserFactory extends IndexPolicyFactory {
+        @Override
+        public NalParser createParser(DecoderInputAssets assets, String data, String index) throws IOException {
+            NalIndex indexV2 = assets.openIndexV2(index + NalIndex.SUFFIX);
+            return (indexV2 != null) ?
+                    new NalParserIndexed(assets.mContext.getAssets().open(data), indexV2) :
+                    new NalParserIndexed(assets.mContext.getAssets().open(data), assets.mContext.getAssets().open(index));
+        }
     }
-    public static IndexPolicyFactory sPolicyFactory = new IndexPolicyFactory();
+    public static IndexPolicyFactory sPolicyFactory = new IndexedParserFactory();
+
+    private static final int SPS_SEARCH_MAX = 16; // Nals searched for SPS from the stream start
 
     private final Context mContext;
     private NalParser mParser;
+    private AssetFileDescriptor mParserFd;      // Asset mapped by the parser, closed with the parser
+    private FileInputStream mParserStream;      // Channel of the asset mapped by the parser
+
+    // Reused for each frame, the returned info is valid until next readBuffer()
+    private final NalParser.NalHeader mHeader = new NalParser.NalHeader();
+    private final Decoder.VideoBufferInfo mInfo = new Decoder.VideoBufferInfo();
+    private final NalSps mSps = new NalSps();
+    private final NalSei mSei = new NalSei().registerTimestamp(NalSei.UUID_CAPTURE_TIME);
+    private boolean mHasSps = false;
+    private boolean mWaitKeyframe = false; // An access unit skipped, drop the pictures until next keyframe
 
     public DecoderInputAssets(Context ctx) {
         sLogger.trace("");
@@ -42,53 +72,233 @@ public class DecoderInputAssets implements DecoderInput {
         fmt.width  = 720;
         fmt.height = 1280;
         fmt.rotate = 0;
+
+        closeParser();
+        try {
+            String data = (String) BuildConfig.class.getField("H264_DATA").get(BuildConfig.class);
+            NalParser.Codec codec = NalParser.guessCodec(data);
+            fmt.mime = (codec == NalParser.Codec.HEVC) ? Decoder.MIME_HEVC : Decoder.MIME_AVC;
+            if (codec != NalParser.Codec.H264 || !readStreamFormat(data, fmt)) {
+                // SPS parsed for H264 only
+                readFlavorFormat(fmt);
+            }
+            sLogger.debug("fmt:{}", fmt);
+
+            String indexName = (String) BuildConfig.class.getField("H264_INDEX").get(BuildConfig.class);
+            mParser = sPolicyFactory.createParser(this, data, indexName);
+            mParser.setCodec(codec);
+        } catch (Exception ex) {
+            sLogger.warn("Failed to open ");
+        }
+        return fmt;
+    }
+
+    @Override
+    public void close() {
+        closeParser();
+    }
+
+    // Only the parser by index seeks, a customized policy may depend on the stream order
+    @Override
+    public long seek(long ptsUs) {
+        if (!(mParser instanceof NalParserIndexed)) {
+            sLogger.warn("Seek not supported by {}", mParser);
+            return -1;
+        }
+        try {
+            mWaitKeyframe = false;
+            return ((NalParserIndexed) mParser).seek(ptsUs);
+        } catch (IOException ex) {
+            sLogger.warn("Failed to seek to {} - {}", ptsUs, ex.getMessage());
+        }
+        return -1;
+    }
+
+    // Configure the codec by the first SPS in stream, the flavor size is only a fallback
+    private boolean readStreamFormat(String name, Decoder.VideoFormat fmt) {
+        NalParser parser = null;
+        try {
+            parser = new NalParser(mContext.getAssets().open(name));
+            for (int i = 0; i < SPS_SEARCH_MAX; i++) {
+                ByteBuffer view = parser.parseView(mHeader);
+                if (view == null) {
+                    break;
+                }
+                try {
+                    if (mHeader.type == NalParser.NalType.NAL_SPS) {
+                        mSps.parse(view, view.position(), view.remaining()).toFormat(fmt);
+                        mHasSps = true;
+                        sLogger.debug("sps:{}", mSps);
+                        return true;
+                    }
+                } finally {
+                    parser.release(view);
+                }
+            }
+            sLogger.warn("No SPS found in <{}>", name);
+        } catch (IOException ex) {
+            sLogger.warn("Failed to read SPS - {}", ex.getMessage());
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException ex) {
+                    sLogger.warn("Failed to close parser - {}", ex.getMessage());
+                }
+            }
+        }
+        return false;
+    }
+
+    private void readFlavorFormat(Decoder.VideoFormat fmt) {
         try {
             fmt.width  = (Integer) BuildConfig.class.getField("H264_WIDTH").get(BuildConfig.class);
             fmt.height = (Integer) BuildConfig.class.getField("H264_HEIGHT").get(BuildConfig.class);
         } catch (Exception ex) {
             sLogger.warn("Failed to load width and height - {}", ex.getMessage());
         }
-        sLogger.debug("fmt:{}", fmt);
+    }
+
+    // Return the parser buffer to pool, the buffer can be reused by other sessions
+    private void closeParser() {
+        if (mParser != null) {
+            try {
+                mParser.close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close parser - {}", ex.getMessage());
+            }
+            mParser = null;
+        }
+        mWaitKeyframe = false;
+        closeQuietly(mParserStream);
+        closeQuietly(mParserFd);
+        mParserStream = null;
+        mParserFd = null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close {} - {}", closeable, ex.getMessage());
+            }
+        }
+    }
 
+    // Index v2 converted by NalIndexConverter if shipped, mapped if stored uncompressed, null if not found
+    // The mapping stays valid after the descriptor closed, nothing kept open for the index
+    private NalIndex openIndexV2(String name) {
         try {
-            InputStream data  = mContext.getAssets().open((String) BuildConfig.class.getField("H264_DATA").get(BuildConfig.class));
-            InputStream index = mContext.getAssets().open((String) BuildConfig.class.getField("H264_INDEX").get(BuildConfig.class));
-            mParser = new NalParser(data, sPolicyFactory.input(index).create());
-        } catch (Exception ex) {
-            sLogger.warn("Failed to open ");
+            AssetFileDescriptor fd = mContext.getAssets().openFd(name);
+            FileInputStream in = null;
+            try {
+                in = fd.createInputStream();
+                return NalIndex.map(in.getChannel(), fd.getStartOffset(), fd.getLength());
+            } finally {
+                closeQuietly(in);
+                closeQuietly(fd);
+            }
+        } catch (IOException ex) {
+            sLogger.trace("Failed to map index <{}> - {}", name, ex.getMessage());
         }
-        return fmt;
+        InputStream in = null;
+        try {
+            in = mContext.getAssets().open(name);
+            return NalIndex.read(in);
+        } catch (IOException ex) {
+            sLogger.debug("No index v2 <{}> - {}", name, ex.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    sLogger.warn("Failed to close index - {}", ex.getMessage());
+                }
+            }
+        }
+        return null;
     }
 
+    // Map the asset directly if stored uncompressed in APK, otherwise fallback to stream
+    // The descriptor and its stream kept open while the window slides, closed by closeParser()
+    private NalParser openParser(String name, NalPolicy policy) throws IOException {
+        try {
+            mParserFd = mContext.getAssets().openFd(name);
+            mParserStream = mParserFd.createInputStream();
+            sLogger.debug("Map asset <{}> offset:{} length:{}", name, mParserFd.getStartOffset(), mParserFd.getLength());
+            return new NalParserMapped(mParserStream.getChannel(), mParserFd.getStartOffset(), mParserFd.getLength(), policy);
+        } catch (IOException ex) {
+            closeQuietly(mParserStream);
+            closeQuietly(mParserFd);
+            mParserStream = null;
+            mParserFd = null;
+            sLogger.debug("Failed to map asset <{}> - {}", name, ex.getMessage());
+        }
+        return new NalParser(mContext.getAssets().open(name), policy);
+    }
+
+    // An access unit larger than the input buffer is skipped, not taken as the end of stream, the pictures
+    // referring to it are dropped until the next keyframe
     @Override
     public Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer) {
-        NalParser.NalHeader header = new NalParser.NalHeader();
-        try {
-            ByteBuffer data = mParser.parse(header);
-            if (data != null) {
-                Decoder.VideoBufferInfo info = new Decoder.VideoBufferInfo();
-                info.offset = 0;
-                info.size   = header.size;
+        NalParser.NalHeader header = mHeader;
+        while (true) {
+            try {
+                int start = buffer.position();
+                int size = mParser.parseInto(buffer, header);
+                if (size < 0) {
+                    return null;
+                }
+                Decoder.VideoBufferInfo info = mInfo;
+                info.offset = start;
+                info.size   = size;
                 info.pts    = header.pts;
                 info.flags  = Decoder.VideoBufferInfo.FLAG_FRAME;
+                info.captureTimeUs = (mParser.getCodec() == NalParser.Codec.H264) ? readCaptureTime(buffer, start, size) : -1;
                 switch (header.type) {
                 case NAL_SEI: // SEI usually combined with IDR frame
                 case NAL_IDR_SLICE:
+                case NAL_IRAP_SLICE:
                     info.flags = Decoder.VideoBufferInfo.FLAG_KEYFRAME;
                     break;
+                case NAL_VPS:
                 case NAL_SPS:
                 case NAL_PPS:
                     info.flags = Decoder.VideoBufferInfo.FLAG_CONFIG;
                     break;
                 }
-
-                buffer.rewind();
-                buffer.put(data);
+                if (mWaitKeyframe) {
+                    if (info.flags == Decoder.VideoBufferInfo.FLAG_FRAME) {
+                        continue;
+                    }
+                    mWaitKeyframe = (info.flags != Decoder.VideoBufferInfo.FLAG_KEYFRAME);
+                }
                 return info;
+            } catch (BufferOverflowException ex) {
+                sLogger.warn("Input buffer too small, capacity:{} required:{}, skip the access unit pts:{}",
+                        buffer.capacity(), header.size, header.pts);
+                mParser.skipUndelivered();
+                mWaitKeyframe = true;
+            } catch (IOException ex) {
+                sLogger.info("Failed to read buffer - {}", ex.getMessage());
+                return null;
             }
-        } catch (IOException ex) {
-            sLogger.info("Failed to read buffer - {}", ex.getMessage());
         }
-        return null;
+    }
+
+    // Sender capture time in the SEI before the slices, only the leading nals of the unit scanned
+    private long readCaptureTime(ByteBuffer buffer, int offset, int size) {
+        int sei = mSei.find(buffer, offset, size);
+        if (sei < 0) {
+            return -1;
+        }
+        try {
+            mSei.parse(buffer, sei, offset + size - sei, mHasSps ? mSps : null);
+            return mSei.getTimestamp(NalSei.UUID_CAPTURE_TIME);
+        } catch (NalParser.InvalidStreamException ex) {
+            sLogger.debug("Failed to parse SEI - {}", ex.getMessage());
+        }
+        return -1;
     }
 }
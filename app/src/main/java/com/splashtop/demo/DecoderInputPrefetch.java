@@ -0,0 +1,227 @@
+package com.splashtop.demo;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Read ahead the wrapped input on its own thread, parse and I/O latency kept off the decoder feed path
+// Ready frames are kept in a bounded single-producer/single-consumer ring, limited by frames and bytes
+// The frame data packed back to back in one byte ring of the bytes limit and one codec input buffer, the input
+// reads straight into the ring, the memory bounded by the limit whatever the codec input capacity
+// The ring indices are published through volatile fields, no lock, the waiting side parks until signaled
+public class DecoderInputPrefetch extends DecoderInput.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    private static final int DEPTH_FRAMES = 8;
+    private static final int DEPTH_BYTES  = 4 * 1024 * 1024;
+    private static final long PARK_NS = TimeUnit.MILLISECONDS.toNanos(10); // Recheck quit flag
+
+    private int mDepthFrames = DEPTH_FRAMES;
+    private int mDepthBytes  = DEPTH_BYTES;
+
+    private byte[] mRing;
+    private ByteBuffer mView;                 // Over the ring, the room of each frame set by position and limit
+    private int mCapacity;                    // Room for a frame to read into, the codec input capacity
+    private Decoder.VideoBufferInfo[] mInfos; // Copied from the wrapped input, offset in the ring
+    private long[] mEnds;                     // Ring position after the frame, the room freed once consumed
+    private boolean[] mEos;                   // Slot marks the input end
+    private final Decoder.VideoBufferInfo mInfo = new Decoder.VideoBufferInfo(); // Returned by readBuffer()
+    private volatile long mHead = 0;    // Frames consumed, written by consumer only
+    private volatile long mTail = 0;    // Frames produced, written by producer only
+    private volatile long mFreed = 0;   // Ring position consumed, written by consumer only
+    private final AtomicLong mBytes = new AtomicLong();
+
+    private Thread mThread;
+    private volatile Thread mConsumer;
+    private volatile boolean mRequestQuit;
+
+    private volatile long mUnderrunCount = 0;
+
+    public DecoderInputPrefetch(DecoderInput input) {
+        super(input);
+    }
+
+    // Max frames and bytes read ahead, one frame is always allowed even larger than the bytes limit
+    public DecoderInputPrefetch setDepth(int frames, int bytes) {
+        if (mThread != null) {
+            throw new IllegalStateException("Depth can not change after prefetch started");
+        }
+        mDepthFrames = frames;
+        mDepthBytes  = bytes;
+        return this;
+    }
+
+    // Frames ready in queue
+    public int getQueueDepth() {
+        return (int) (mTail - mHead);
+    }
+
+    // Bytes ready in queue
+    public long getQueueBytes() {
+        return mBytes.get();
+    }
+
+    // Times readBuffer() found the queue empty and had to wait for the prefetch thread
+    public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    @Override
+    public Decoder.VideoFormat readFormat(@NonNull Decoder decoder) {
+        // Restart from a new format, drop everything read ahead
+        stopPrefetch();
+        return super.readFormat(decoder);
+    }
+
+    @Override
+    public Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer) {
+        if (mThread == null) {
+            // Any frame fits the codec input buffer fits the room to read into
+            startPrefetch(decoder, buffer.remaining());
+        }
+
+        long head = mHead;
+        if (head == mTail) {
+            mUnderrunCount++;
+            mConsumer = Thread.currentThread();
+            while (head == mTail && !mRequestQuit) {
+                LockSupport.parkNanos(this, PARK_NS);
+            }
+            if (head == mTail) {
+                return null;
+            }
+        }
+
+        int slot = (int) (head % mInfos.length);
+        if (mEos[slot]) {
+            return null; // Input end, keep it for later calls
+        }
+        Decoder.VideoBufferInfo src = mInfos[slot];
+        int start = buffer.position();
+        if (src.size > buffer.remaining()) {
+            sLogger.warn("Input buffer too small, capacity:{} required:{}", buffer.capacity(), src.size);
+            return null;
+        }
+        buffer.put(mRing, src.offset, src.size);
+        Decoder.VideoBufferInfo info = mInfo;
+        info.offset = start;
+        info.size   = src.size;
+        info.pts    = src.pts;
+        info.flags  = src.flags;
+        info.captureTimeUs = src.captureTimeUs;
+
+        mBytes.addAndGet(-info.size);
+        mFreed = mEnds[slot];
+        mHead = head + 1;
+        LockSupport.unpark(mThread);
+        return info;
+    }
+
+    // Drop everything read ahead, the prefetch restarts from the keyframe on next readBuffer()
+    @Override
+    public long seek(long ptsUs) {
+        stopPrefetch();
+        return super.seek(ptsUs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopPrefetch();
+        super.close();
+    }
+
+    private void startPrefetch(final Decoder decoder, int capacity) {
+        mCapacity = capacity;
+        // A frame to read at any position, the end skipped if shorter, still room after the skipped end
+        mRing = BufferPool.getDefault().acquire(Math.max(mDepthBytes, capacity) + capacity);
+        mView = ByteBuffer.wrap(mRing);
+        mInfos = new Decoder.VideoBufferInfo[mDepthFrames];
+        mEnds = new long[mDepthFrames];
+        mEos = new boolean[mDepthFrames];
+        for (int i = 0; i < mInfos.length; i++) {
+            mInfos[i] = new Decoder.VideoBufferInfo();
+        }
+        mHead = 0;
+        mTail = 0;
+        mFreed = 0;
+        mBytes.set(0);
+        mRequestQuit = false;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sLogger.debug("+ prefetch frames:{} bytes:{} ring:{}", mDepthFrames, mDepthBytes, mRing.length);
+                long tail = 0;
+                long written = 0; // Ring position produced
+                while (!mRequestQuit) {
+                    // Wait for room, the head only moves forward, the condition stays once met
+                    if (tail - mHead == mInfos.length || (tail != mHead && mBytes.get() >= mDepthBytes)) {
+                        LockSupport.parkNanos(this, PARK_NS);
+                        continue;
+                    }
+                    // Room of the codec input capacity in one piece, the end of ring skipped if shorter
+                    int pos = (int) (written % mRing.length);
+                    int skip = (mRing.length - pos < mCapacity) ? mRing.length - pos : 0;
+                    if (mRing.length - (written - mFreed) < skip + mCapacity) {
+                        LockSupport.parkNanos(this, PARK_NS);
+                        continue;
+                    }
+                    pos = (pos + skip) % mRing.length;
+
+                    int slot = (int) (tail % mInfos.length);
+                    // Same view for every frame, nothing allocated per frame
+                    ByteBuffer buffer = mView;
+                    buffer.clear();
+                    buffer.position(pos);
+                    buffer.limit(pos + mCapacity);
+                    Decoder.VideoBufferInfo info = DecoderInputPrefetch.super.readBuffer(decoder, buffer);
+                    if (info != null) {
+                        mInfos[slot].offset = info.offset;
+                        mInfos[slot].size  = info.size;
+                        mInfos[slot].pts   = info.pts;
+                        mInfos[slot].flags = info.flags;
+                        mInfos[slot].captureTimeUs = info.captureTimeUs;
+                        written += skip + (info.offset - pos) + info.size;
+                        mBytes.addAndGet(info.size);
+                    }
+                    mEnds[slot] = written;
+                    mEos[slot] = (info == null);
+                    mTail = ++tail; // Publish the slot
+                    LockSupport.unpark(mConsumer);
+                    if (info == null) {
+                        break;
+                    }
+                }
+                sLogger.debug("- prefetch underrun:{}", mUnderrunCount);
+            }
+        });
+        mThread.setName("CodecP");
+        mThread.start();
+    }
+
+    private void stopPrefetch() {
+        if (mThread == null) {
+            return;
+        }
+        mRequestQuit = true;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException ex) {
+            sLogger.warn("Failed to join prefetch thread\n", ex);
+        }
+        mThread = null;
+        mConsumer = null;
+        BufferPool.getDefault().release(mRing);
+        mRing = null;
+        mView = null;
+    }
+}
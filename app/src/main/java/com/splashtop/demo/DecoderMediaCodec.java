@@ -1,18 +1,12 @@
 package com.splashtop.demo;
 
-import static android.os.SystemClock.sleep;
-
 import android.content.Context;
 import android.media.MediaCodec;
 import android.media.MediaCodec.BufferInfo;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.os.SystemClock;
 import android.os.Trace;
-import android.text.TextUtils;
-import android.util.Range;
 import android.view.Surface;
 
 import org.slf4j.Logger;
@@ -26,9 +20,8 @@ public class DecoderMediaCodec extends Decoder {
 
     private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
 
-    private static final String MIME_VIDEO_AVC = "video/avc";
-
     private static final int DUMP_FRAME_COUNT = 5;
+    private static final long WAIT_SLICE_MS = 20;
 
     private static final boolean ENABLE_ROTATION = false;           // Let MediaCodec rotate the video internally instead rotate in view renderer manually
     private static final boolean ENABLE_DUMP_ALL_FRAMES = true;    // Print all frames log, default only print 9-frames to avoid too noisy
@@ -40,9 +33,16 @@ public class DecoderMediaCodec extends Decoder {
 
     private Surface mSurface;
     private MediaCodec mMediaCodec;
+    private CodecPool.Key mPoolKey;
+
+    private volatile int inputCount = 0;
+    private volatile int outputCount = 0;
 
-    private int inputCount = 0;
-    private int outputCount = 0;
+    // Seek by flushing the codec instead of recreating it, the output released only if no flush since dequeued
+    private volatile long mSeekPtsUs = -1;
+    private final Object mFlushLock = new Object();
+    private volatile int mFlushGeneration = 0;
+    private volatile int mFlushedFrames = 0; // Queued frames discarded by flush
 
 
     private final Context mContext;
@@ -50,30 +50,16 @@ public class DecoderMediaCodec extends Decoder {
     public DecoderMediaCodec(Context ctx) {
         sLogger.trace("");
         mContext = ctx;
-
-        //get all codec info
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-            String name = codecInfo.getName();
-            sLogger.debug("JRC Examinig " + (codecInfo.isEncoder() ? "encoder" : "decoder") + ": " + name);
-            for (String type : codecInfo.getSupportedTypes()) {
-                boolean ap = codecInfo.getCapabilitiesForType(type)
-                        .isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_AdaptivePlayback);
-                sLogger.debug("JRC supports adaptive playback: " + ap);
-
-                if(!codecInfo.isEncoder())
-                {
-                    boolean lowLat = codecInfo.getCapabilitiesForType(type).isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency);
-                    sLogger.debug("JRC supports FEATURE_LowLatency: " + lowLat);                        
-                }//else
-            }
-        }
+        // Decoders ranked by CodecSelector on start, no codec list scan here
     }
 
     @Override // Decoder
     public void start() {
         mRequestQuit = false;
+        inputCount = 0;
+        outputCount = 0;
+        mSeekPtsUs = -1;
+        mFlushedFrames = 0;
         mInputThread = new Thread(mInputRunnable);
         mInputThread.setName("CodecI");
         mInputThread.start();
@@ -97,6 +83,21 @@ public class DecoderMediaCodec extends Decoder {
         sLogger.debug("{} join input done", hashCode());
     }
 
+    @Override // Decoder
+    public int getPendingFrames() {
+        return inputCount - outputCount - mFlushedFrames;
+    }
+
+    @Override // Decoder
+    public boolean seek(long ptsUs) {
+        if (mInputThread == null) {
+            return false;
+        }
+        sLogger.debug("{} seek request pts:{}", hashCode(), ptsUs);
+        mSeekPtsUs = Math.max(ptsUs, 0);
+        return true;
+    }
+
     @Override // Decoder
     public void attachSurface(Surface surface) {
         sLogger.debug("{} surface:{}", hashCode(), surface);
@@ -122,122 +123,40 @@ public class DecoderMediaCodec extends Decoder {
             sLogger.debug("{} info:{}", DecoderMediaCodec.this.hashCode(), videoInfo);
             writeOutputFormat(videoInfo);
 
-            String codecName = null;
+            // Best decoder by the cached capabilities, probed once per process
+            CodecSelector.Info codecInfo = CodecSelector.get(mContext).find(videoInfo.mime, videoInfo.width, videoInfo.height, videoInfo.frameRate);
+            String codecName = (codecInfo != null) ? codecInfo.name : null;
             // codecName = "OMX.google.h264.decoder";
             // codecName = "c2.android.avc.decoder";
             //codecName = "OMX.qcom.video.decoder.avc.secure";
             //codecName = "c2.rk.hevc.decoder";
+            sLogger.info("{} Codec selected {}", DecoderMediaCodec.this.hashCode(), codecInfo);
+            // A warm codec from the pool if any, configured again below
+            mPoolKey = CodecPool.Key.of(videoInfo.mime, videoInfo.width, videoInfo.height, codecInfo);
+            long createStart = System.nanoTime();
             try {
-                mMediaCodec = TextUtils.isEmpty(codecName) ?
-                        MediaCodec.createDecoderByType(MIME_VIDEO_AVC) :
-                        MediaCodec.createByCodecName(codecName);
+                mMediaCodec = CodecPool.getDefault().acquire(mPoolKey);
             } catch (IOException ex) {
                 sLogger.error("Failed to create codec");
                 return;
             }
+            sLogger.info("{} Codec acquired in {}us", DecoderMediaCodec.this.hashCode(), (System.nanoTime() - createStart) / 1000);
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
                 sLogger.info("{} Codec name:<{}>", DecoderMediaCodec.this.hashCode(), mMediaCodec.getName());
             }
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                try {
-                    MediaCodecInfo codecInfo = mMediaCodec.getCodecInfo();
-                    MediaCodecInfo.CodecCapabilities codecCapabilities = codecInfo.getCapabilitiesForType(MIME_VIDEO_AVC);
-                    MediaCodecInfo.VideoCapabilities videoCapabilities = codecCapabilities.getVideoCapabilities();
-                    MediaCodecInfo.CodecProfileLevel[] codecProfileLevels = codecCapabilities.profileLevels;
-
-                    int width = videoCapabilities.getSupportedWidths().getUpper();
-                    int height = videoCapabilities.getSupportedHeightsFor(width).getUpper();
-                    sLogger.debug("{} Codec capabilities 720P@{} 1080P@{} 4K@{} MAX {}x{}@{}",
-                            DecoderMediaCodec.this.hashCode(),
-                            videoCapabilities.getSupportedFrameRatesFor(1280, 720).getUpper().intValue(),
-                            videoCapabilities.getSupportedFrameRatesFor(1920, 1080).getUpper().intValue(),
-                            videoCapabilities.getSupportedFrameRatesFor(3840, 2160).getUpper().intValue(),
-                            width, height,
-                            videoCapabilities.getSupportedFrameRatesFor(width, height).getUpper().intValue());
-
-                    Range<Integer> range = videoCapabilities.getSupportedFrameRates();
-                    int maxCodecLevel = 0;
-                    StringBuilder s = new StringBuilder();
-
-                    //TODO: not working  s.append(" isHardwareAccelerated=").append(codecInfo.isHardwareAccelerated());
-                    // bool MediaCodecList::isSoftwareCodec(const AString &componentName) {
-                    //     return componentName.startsWithIgnoreCase("OMX.google.")
-                    //             || componentName.startsWithIgnoreCase("c2.android.")
-                    //             || (!componentName.startsWithIgnoreCase("OMX.")
-                    //                     && !componentName.startsWithIgnoreCase("c2."));
-                    // }
-                    // https://android.googlesource.com/platform/cts/+/android11-release/tests/tests/media/src/android/media/cts/DecoderTest.java
-// format.setFeatureEnabled(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency,
-//                 true /* enable */);
-
-// format.removeFeature(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency);
-//         format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
-
-//                
-//                 private static boolean decoderSupportsKnownVendorLowLatencyOption(String decoderName) {
-//                     // It's only possible to probe vendor parameters on Android 12 and above.
-//                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-//                         MediaCodec testCodec = null;
-//                         try {
-//                             // Unfortunately we have to create an actual codec instance to get supported options.
-//                             testCodec = MediaCodec.createByCodecName(decoderName);
-            
-//                             // See if any of the vendor parameters match ones we know about
-//                             for (String supportedOption : testCodec.getSupportedVendorParameters()) {
-//                                 for (String knownLowLatencyOption : knownVendorLowLatencyOptions) {
-//                                     if (supportedOption.equalsIgnoreCase(knownLowLatencyOption)) {
-//                                         LimeLog.info(decoderName + " supports known low latency option: " + supportedOption);
-//                                         return true;
-//                                     }
-//                                 }
-//                             }
-//                         } catch (Exception e) {
-//                             // Tolerate buggy codecs
-//                             e.printStackTrace();
-//                         } finally {
-//                             if (testCodec != null) {
-//                                 testCodec.release();
-//                             }
-//                         }
-//                     }
-//                     return false;
-//                 }            
-
-
-                
-
-
-                    s.append(" name=<").append(codecInfo.getName()).append(">");
-                    s.append(" width=<").append(videoCapabilities.getSupportedWidths()).append(">");
-                    s.append(" heights=<").append(videoCapabilities.getSupportedHeights()).append(">");
-                    s.append(" frameRates=<[").append(range.getLower().intValue()).append(", ").append(range.getUpper().intValue()).append(">");
-                    s.append(" alignment=<").append(videoCapabilities.getWidthAlignment()).append("x").append(videoCapabilities.getHeightAlignment()).append(">");
-                    s.append(" bitrate=<").append(videoCapabilities.getBitrateRange()).append(">");
-                    if ((codecProfileLevels != null) && (codecProfileLevels.length != 0)) {
-                        s.append(" profileLevels=<");
-                        for (MediaCodecInfo.CodecProfileLevel profileLevel : codecProfileLevels) {
-                            s.append("[profile=")
-                                    .append(profileLevel.profile)
-                                    .append(" level=")
-                                    .append(profileLevel.level)
-                                    .append("] ");
-                            if (MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline == profileLevel.profile) {
-                                maxCodecLevel = Math.max(maxCodecLevel, profileLevel.level);
-                            }
-                        }
-                        s.append(">");
-                    }
-                    sLogger.debug("{} Codec info {}", DecoderMediaCodec.this.hashCode(), s);
-                } catch (Throwable tr) { // Some device not implement
-                    sLogger.warn("Failed to get codec capability\n", tr);
-                }
-            }
-
-            MediaFormat fmt = MediaFormat.createVideoFormat(MIME_VIDEO_AVC, videoInfo.width, videoInfo.height);
+            MediaFormat fmt = MediaFormat.createVideoFormat(videoInfo.mime, videoInfo.width, videoInfo.height);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
                 fmt.setInteger(MediaFormat.KEY_PUSH_BLANK_BUFFERS_ON_STOP, 1);
             }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // Buffers for the pool size within the codec max, the same codec reused by the sessions of smaller video
+                fmt.setInteger(MediaFormat.KEY_MAX_WIDTH, mPoolKey.maxWidth);
+                fmt.setInteger(MediaFormat.KEY_MAX_HEIGHT, mPoolKey.maxHeight);
+            }
+            if (codecInfo != null && codecInfo.lowLatency && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                fmt.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+            }
             if (ENABLE_ROTATION && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 fmt.setInteger(MediaFormat.KEY_ROTATION, videoInfo.rotate);
             }
@@ -262,6 +181,16 @@ public class DecoderMediaCodec extends Decoder {
 
             sLogger.info("{} config and start with surface:{}", DecoderMediaCodec.this.hashCode(), mSurface);
             mMediaCodec.configure(fmt, mSurface, null, 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mSurface != null) {
+                // Actual present time for the jitter, on the main looper as the codec thread has none
+                mMediaCodec.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
+                    @Override
+                    public void onFrameRendered(MediaCodec codec, long presentationTimeUs, long nanoTime) {
+                        getScheduler().onRendered(presentationTimeUs, nanoTime);
+                    }
+                }, null);
+            }
+            getScheduler().reset();
             mMediaCodec.start();
 
             mOutputThread = new Thread(mOutputRunnable);
@@ -273,6 +202,12 @@ public class DecoderMediaCodec extends Decoder {
             int count = 0;
             try {
                 while (true) {
+                    long seekPtsUs = mSeekPtsUs;
+                    if (seekPtsUs >= 0) {
+                        mSeekPtsUs = -1;
+                        seek(seekPtsUs);
+                    }
+
                     long t = traceBegin(DecoderMediaCodec.this.hashCode() + " dequeueInputBuffer");
                     int index = mMediaCodec.dequeueInputBuffer(-1);
                     Long thisDequeue = traceEnd(t);
@@ -331,11 +266,14 @@ public class DecoderMediaCodec extends Decoder {
                                  thisEnqueue / 1000000000.0));
                     
                     count++;
-                    inputCount = count;
+                    if (bufferInfo.flags != VideoBufferInfo.FLAG_CONFIG) {
+                        inputCount++; // Config has no output
+                    }
                 }
             } catch (Exception ex) {
                 sLogger.warn("Failed to input - {}", ex.getMessage());
             }
+            closeInput();
             sLogger.debug(String.format(Locale.US, "JRC %d INPUT  total:%d dequeue:%.6fs avg:%.6fs enqueue:%.6fs avg:%.6fs",
                     DecoderMediaCodec.this.hashCode(),
                     count,
@@ -350,12 +288,26 @@ public class DecoderMediaCodec extends Decoder {
             }
             sLogger.debug("{} join output done", DecoderMediaCodec.this.hashCode());
 
-            sLogger.info("{} stop and release", DecoderMediaCodec.this.hashCode());
-            mMediaCodec.stop();
-            mMediaCodec.release();
+            sLogger.info("{} stop and return to pool", DecoderMediaCodec.this.hashCode());
+            CodecPool.getDefault().recycle(mPoolKey, mMediaCodec);
             mMediaCodec = null;
             sLogger.info("{} -", DecoderMediaCodec.this.hashCode());
         }
+
+        // Input repositioned first, the codec keeps decoding if the input failed to seek
+        private void seek(long ptsUs) {
+            long keyPtsUs = seekInput(ptsUs);
+            if (keyPtsUs < 0) {
+                sLogger.warn("{} Failed to seek to {}", DecoderMediaCodec.this.hashCode(), ptsUs);
+                return;
+            }
+            synchronized (mFlushLock) {
+                mMediaCodec.flush();
+                mFlushGeneration++;
+                mFlushedFrames = inputCount - outputCount;
+            }
+            sLogger.info("{} seek to {} from keyframe {}", DecoderMediaCodec.this.hashCode(), ptsUs, keyPtsUs);
+        }
     };
 
     private final Runnable mOutputRunnable = new Runnable() {
@@ -365,19 +317,24 @@ public class DecoderMediaCodec extends Decoder {
             long totalDequeue = 0;
             long totalRelease = 0;
             int count = 0;
-            long startMs = SystemClock.uptimeMillis();
-            long renderTimestampNs = SystemClock.elapsedRealtimeNanos();
+            PresentationScheduler scheduler = getScheduler();
 
-            sLogger.info("JRC {} + start output video frame,startMs {}, renderTimestampNs: {}", 
-                         DecoderMediaCodec.this.hashCode(),startMs,renderTimestampNs);
+            sLogger.info("JRC {} + start output video frame", DecoderMediaCodec.this.hashCode());
+            int generation = mFlushGeneration;
             try {
                 while (!mRequestQuit) {
+                    int dequeueGeneration = mFlushGeneration;
                     long t = traceBegin(DecoderMediaCodec.this.hashCode() + " dequeueOutputBuffer");
                     int index = mMediaCodec.dequeueOutputBuffer(info, -1);
                     long thisDequeue = traceEnd(t);                    
                     totalDequeue += thisDequeue;
 
                     if (index >= 0) { // Index of an output buffer that has been successfully decoded
+                        if (dequeueGeneration != generation) {
+                            // First frame after seek, pace from its pts
+                            generation = dequeueGeneration;
+                            scheduler.reset();
+                        }
                         if (ENABLE_DUMP_ALL_FRAMES || count <= DUMP_FRAME_COUNT) {
                             sLogger.trace("JRC {} OUTPUT count:{} index:{} offset:{} size:{} pts:{} flags:{} uptimeMillis:{}",
                                     DecoderMediaCodec.this.hashCode(),
@@ -397,63 +354,47 @@ public class DecoderMediaCodec extends Decoder {
                         bufferInfo.size = info.size;
                         bufferInfo.pts = info.presentationTimeUs;
                         bufferInfo.flags = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) > 0 ? VideoBufferInfo.FLAG_EOS : VideoBufferInfo.FLAG_FRAME;
+                        // Released at once with the render time if the surface presents by it, otherwise waits until due
+                        boolean waitDue = Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP // No render timestamp
+                                || mSurface == null || !isTimedRender();
+                        long renderNs = scheduler.schedule(info.presentationTimeUs, System.nanoTime());
+                        bufferInfo.renderTimeNs = renderNs;
                         boolean allowDraw = writeOutputBuffer(bufferInfo, buffer);
+                        if (!allowDraw) {
+                            scheduler.drop(info.presentationTimeUs);
+                        }
                         if (ENABLE_DUMP_ALL_FRAMES || count <= DUMP_FRAME_COUNT) {
-                            sLogger.info("JRC dequeueOutputBuffer:  {} {} count:{} index:{} pts:{} size:{} uptimeMillis:{}, startMs {}",
+                            sLogger.info("JRC dequeueOutputBuffer:  {} {} count:{} index:{} pts:{} size:{} uptimeMillis:{}",
                                     DecoderMediaCodec.this.hashCode(),
                                     allowDraw ? "DRAW  " : "DROP  ",
                                     count, index,
                                     info.presentationTimeUs,info.size,
-                                    SystemClock.uptimeMillis(),
-                                    startMs);
+                                    SystemClock.uptimeMillis());
                         }
 
-                        //adding sleep for TexturView
-                        if(info.presentationTimeUs == 0)
-                        {
-                            //pass
+                        if (allowDraw && waitDue) {
+                            // In slices, a stop or seek not held by a far pts
+                            long waitMs;
+                            while ((waitMs = (renderNs - System.nanoTime() + 999999) / 1000000) > 0
+                                    && !mRequestQuit && dequeueGeneration == mFlushGeneration) {
+                                SystemClock.sleep(Math.min(waitMs, WAIT_SLICE_MS));
+                            }
                         }
-                        else
-                        {
-                             long ptdMs = ((long)info.presentationTimeUs / (long)1000) ;
-                             long currTimems = SystemClock.uptimeMillis();
-                             long timeSinceStart = (currTimems - startMs);
-                             long dff = ptdMs - timeSinceStart;
-
-                            //if(false)
-                            {
-                                //sLogger.warn("JRC skips sleep: ptdMs: {} currTimems:{} startMs: {} {} = {}", ptdMs, currTimems,startMs,timeSinceStart, dff);
-                                
-                                //recaculate renderTimestampNs
-                                // renderTimestampNs = renderTimestampNs + info.presentationTimeUs * 1000;
-                                // renderTimestampNs = currTimems*1000000 + (count * 16666) * 1000;
-                                renderTimestampNs = count * 16666 * 1000 + 10;
-                                sLogger.warn("JRC skips sleep: ptdMs: {} currTimems:{} startMs: {} {} = {}, renderTimestampNs: {}", 
-                                              ptdMs, 
-                                              currTimems,
-                                              startMs,
-                                              timeSinceStart, 
-                                              dff,
-                                              renderTimestampNs);
-                                
+                        t = traceBegin(DecoderMediaCodec.this.hashCode() + " releaseOutputBuffer");
+                        synchronized (mFlushLock) {
+                            if (dequeueGeneration != mFlushGeneration) {
+                                // Flushed by seek, the index is no longer valid
+                                traceEnd(t);
+                                continue;
                             }
-                            //else
-                            {
-                            while (info.presentationTimeUs / 1000 > SystemClock.uptimeMillis() - startMs) {
-                                try {
-                                    sleep(dff/4);
-                                    sLogger.warn("JRC sleep - {}ms",dff/4);
-                                } catch (Exception ex) {
-                                    sLogger.warn("Failed to sleep - {}", ex.getMessage());
-                                    break;
-                                }
+                            if (!allowDraw) {
+                                mMediaCodec.releaseOutputBuffer(index, false);
+                            } else if (!waitDue) {
+                                mMediaCodec.releaseOutputBuffer(index, renderNs);
+                            } else {
+                                mMediaCodec.releaseOutputBuffer(index, true);
                             }
                         }
-                        }
-                        t = traceBegin(DecoderMediaCodec.this.hashCode() + " releaseOutputBuffer");
-                        // mMediaCodec.releaseOutputBuffer(index, info.presentationTimeUs * 1000);
-                        // mMediaCodec.releaseOutputBuffer(index, renderTimestampNs);
-                        mMediaCodec.releaseOutputBuffer(index, true);
                         long thisRelease = traceEnd(t); 
 
                         sLogger.debug(String.format(Locale.US, "JRC %d [o %d,i %d,o-i %d] OUTPUT count:%d dequeue:%.6fs, release:%.6fs using pts",
@@ -518,6 +459,7 @@ public class DecoderMediaCodec extends Decoder {
                     count,
                     totalDequeue / 1000000000.0, totalDequeue / count / 1000000000.0,
                     totalRelease / 1000000000.0, totalRelease / count / 1000000000.0));
+            sLogger.info("{} present:{}", DecoderMediaCodec.this.hashCode(), scheduler);
 
             sLogger.info("{} -", DecoderMediaCodec.this.hashCode());
         }
@@ -0,0 +1,670 @@
+package com.splashtop.demo;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decoder by the MediaCodec asynchronous callbacks, no thread of its own
+// The codec callbacks of all sessions come on one shared looper, the input read on a shared executor,
+// so the sessions cost no blocked threads, the input and output contracts are the same as DecoderMediaCodec
+// An input buffer index is queued once available, one feed task per session reads the input while indices left
+// The output released as soon as available, rendered by the time from PresentationScheduler, paced by the compositor,
+// or released when due on a shared timer thread if the surface ignores the render time, e.g. TextureView, or none
+// The codec is reached through Codec, MediaCodec in app (API 23), a fake one in JVM tests
+public class DecoderMediaCodecAsync extends Decoder {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    private static final int FEED_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int MAX_INPUT_BUFFERS = 64;
+
+    // Codec operations in async mode, the callbacks delivered on a thread other than the caller
+    public interface Codec {
+
+        interface Callback {
+            void onInputBufferAvailable(int index);
+            void onOutputBufferAvailable(int index, VideoBufferInfo info); // FLAG_FRAME or FLAG_EOS
+            void onOutputFormatChanged(VideoFormat format);
+            void onFrameRendered(long ptsUs, long renderedNs); // System.nanoTime() when presented
+            void onError(Exception ex);
+        }
+
+        interface Factory {
+            Codec create(VideoFormat format) throws IOException;
+        }
+
+        String getName();
+        void setCallback(Callback callback);
+        void configure(VideoFormat format, Surface surface);
+        void start();
+        ByteBuffer getInputBuffer(int index);
+        void queueInputBuffer(int index, int offset, int size, long pts, int flags); // VideoBufferInfo flags
+        ByteBuffer getOutputBuffer(int index);
+        void releaseOutputBuffer(int index, boolean render, long renderTimestampNs);
+        void flush(); // Started again by start()
+        void stop();
+        void release(); // Stopped before, may be kept for reuse
+    }
+
+    private static HandlerThread sCallbackThread;
+    private static Handler sCallbackHandler;
+    private static ExecutorService sFeedExecutor;
+    private static ScheduledExecutorService sReleaseExecutor;
+
+    private final Codec.Factory mFactory;
+    private final Executor mExecutor;
+
+    private final Object mLock = new Object();
+    private Codec mCodec;                 // Guarded by mLock, null if not running
+    private Surface mSurface;
+    private boolean mBusy;                // A start or feed task owns the input
+    private int mOutputBusy;              // Output callbacks using the codec out of lock, waited by stop
+    private boolean mRequestQuit;
+    private boolean mInputEnd;
+    private boolean mOutputEnd;
+    private final int[] mFreeInputs = new int[MAX_INPUT_BUFFERS];
+    private int mFreeHead;
+    private int mFreeCount;
+    private int mGeneration;              // Stepped by flush, the input read and the output before are dropped
+    private boolean mFlushing;            // Codec flushed out of lock, the input indices until then dropped
+    private volatile long mSeekPtsUs = -1;
+    private int mPacedCount;              // Releases waiting on the timer
+    private Runnable mPacedEos;           // EOS handled after the releases waiting on the timer
+
+    private volatile int mInputCount;
+    private volatile int mOutputCount;
+    private volatile int mFlushedFrames;
+
+    public DecoderMediaCodecAsync(Context ctx) {
+        this(new MediaCodecFactory(ctx), getFeedExecutor());
+    }
+
+    // Codec and the executor reading input, e.g. a fake codec in tests
+    public DecoderMediaCodecAsync(Codec.Factory factory, Executor executor) {
+        sLogger.trace("");
+        mFactory = factory;
+        mExecutor = executor;
+    }
+
+    // MediaCodec.setCallback() with a handler requires API 23
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @Override // Decoder
+    public void start() {
+        synchronized (mLock) {
+            if (mBusy || mCodec != null) {
+                sLogger.warn("{} already started", hashCode());
+                return;
+            }
+            mRequestQuit = false;
+            mInputEnd = false;
+            mOutputEnd = false;
+            mFreeHead = 0;
+            mFreeCount = 0;
+            mSeekPtsUs = -1;
+            mPacedCount = 0;
+            mPacedEos = null;
+            mInputCount = 0;
+            mOutputCount = 0;
+            mFlushedFrames = 0;
+            mOutputBusy = 0;
+            mBusy = true;
+        }
+        getScheduler().reset();
+        mExecutor.execute(mStartTask);
+    }
+
+    @Override // Decoder
+    public void stop() {
+        Codec codec;
+        synchronized (mLock) {
+            mRequestQuit = true;
+            while (mBusy || mOutputBusy > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException ex) {
+                    sLogger.warn("Interrupted waiting input task or output callback");
+                    break;
+                }
+            }
+            codec = mCodec;
+            mCodec = null;
+        }
+        if (codec == null) {
+            return;
+        }
+        sLogger.info("{} stop and release codec", hashCode());
+        try {
+            codec.stop();
+        } catch (Exception ex) {
+            sLogger.warn("Failed to stop codec - {}", ex.getMessage());
+        }
+        codec.release();
+        closeInput();
+        writeOutputEndOnce();
+    }
+
+    @Override // Decoder
+    public int getPendingFrames() {
+        return mInputCount - mOutputCount - mFlushedFrames;
+    }
+
+    @Override // Decoder
+    public boolean seek(long ptsUs) {
+        synchronized (mLock) {
+            if (mCodec == null) {
+                return false;
+            }
+            sLogger.debug("{} seek request pts:{}", hashCode(), ptsUs);
+            mSeekPtsUs = Math.max(ptsUs, 0);
+            scheduleFeed();
+        }
+        return true;
+    }
+
+    @Override // Decoder
+    public void attachSurface(Surface surface) {
+        sLogger.debug("{} surface:{}", hashCode(), surface);
+        mSurface = surface;
+    }
+
+    @Override // Decoder
+    public void detachSurface(Surface surface) {
+        sLogger.debug("{} surface:{}", hashCode(), surface);
+        stop();
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+    }
+
+    private final Runnable mStartTask = new Runnable() {
+        @Override
+        public void run() {
+            VideoFormat format = readInputFormat();
+            sLogger.debug("{} info:{}", DecoderMediaCodecAsync.this.hashCode(), format);
+            writeOutputFormat(format);
+
+            Codec codec = null;
+            try {
+                codec = mFactory.create(format);
+                sLogger.info("{} Codec name:<{}> config and start with surface:{}",
+                        DecoderMediaCodecAsync.this.hashCode(), codec.getName(), mSurface);
+                codec.setCallback(mCallback);
+                codec.configure(format, mSurface);
+            } catch (Exception ex) {
+                sLogger.error("Failed to create codec - {}", ex.getMessage());
+                if (codec != null) {
+                    codec.release();
+                }
+                codec = null;
+            }
+
+            synchronized (mLock) {
+                if (codec != null && !mRequestQuit) {
+                    mCodec = codec;
+                    codec.start();
+                    codec = null;
+                }
+                mBusy = false;
+                mLock.notifyAll();
+                scheduleFeed();
+            }
+            if (codec != null) {
+                // Stopped while starting
+                codec.release();
+            }
+        }
+    };
+
+    // Read the input into the available buffers until none left, the only reader of input once started
+    private final Runnable mFeedTask = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Codec codec;
+                int index;
+                int generation;
+                long seekPtsUs = -1;
+                synchronized (mLock) {
+                    if (mSeekPtsUs >= 0 && !mRequestQuit && mCodec != null) {
+                        seekPtsUs = mSeekPtsUs;
+                        mSeekPtsUs = -1;
+                    }
+                    codec = mCodec;
+                }
+                if (seekPtsUs >= 0) {
+                    // Out of lock, the callbacks of other sessions on the shared looper not blocked by the flush
+                    seek(codec, seekPtsUs);
+                }
+
+                synchronized (mLock) {
+                    if (mRequestQuit || mCodec == null || mInputEnd || mFreeCount == 0) {
+                        mBusy = false;
+                        mLock.notifyAll();
+                        return;
+                    }
+                    codec = mCodec;
+                    index = mFreeInputs[mFreeHead];
+                    mFreeHead = (mFreeHead + 1) % mFreeInputs.length;
+                    mFreeCount--;
+                    generation = mGeneration;
+                }
+
+                ByteBuffer buffer = codec.getInputBuffer(index);
+                VideoBufferInfo info = readInputBuffer(buffer);
+
+                synchronized (mLock) {
+                    if (mCodec != codec || mGeneration != generation) {
+                        continue; // Flushed or stopped, the index is no longer valid
+                    }
+                    if (info == null || mRequestQuit) {
+                        sLogger.info("{} got {}", DecoderMediaCodecAsync.this.hashCode(), (info == null) ? "EOS" : "quit request");
+                        codec.queueInputBuffer(index, 0, 0, 0, VideoBufferInfo.FLAG_EOS);
+                        mInputEnd = true;
+                        continue;
+                    }
+                    codec.queueInputBuffer(index, info.offset, info.size, info.pts, info.flags);
+                    if (info.flags != VideoBufferInfo.FLAG_CONFIG) {
+                        mInputCount++; // Config has no output
+                    }
+                }
+            }
+        }
+
+        // Input repositioned first, the codec keeps decoding if the input failed to seek
+        // The feed task owns the input and holds off stop, the generation stepped before the flush drops the
+        // indices and the output of the callbacks from before the flush
+        private void seek(Codec codec, long ptsUs) {
+            long keyPtsUs = seekInput(ptsUs);
+            if (keyPtsUs < 0) {
+                sLogger.warn("{} Failed to seek to {}", DecoderMediaCodecAsync.this.hashCode(), ptsUs);
+                return;
+            }
+            synchronized (mLock) {
+                mGeneration++;
+                mFlushing = true;
+                mFreeCount = 0;
+                mPacedCount = 0;
+                mPacedEos = null;
+                mInputEnd = false;
+                mFlushedFrames = mInputCount - mOutputCount;
+            }
+            codec.flush();
+            synchronized (mLock) {
+                mFlushing = false;
+                mFreeCount = 0;
+            }
+            getScheduler().reset();
+            codec.start(); // The input buffers available again by callback
+            sLogger.info("{} seek to {} from keyframe {}", DecoderMediaCodecAsync.this.hashCode(), ptsUs, keyPtsUs);
+        }
+    };
+
+    private final Codec.Callback mCallback = new Codec.Callback() {
+        @Override
+        public void onInputBufferAvailable(int index) {
+            synchronized (mLock) {
+                if (mFlushing) {
+                    return; // Index from before the flush
+                }
+                if (mFreeCount == mFreeInputs.length) {
+                    sLogger.warn("Too many input buffers, drop index:{}", index);
+                    return;
+                }
+                mFreeInputs[(mFreeHead + mFreeCount) % mFreeInputs.length] = index;
+                mFreeCount++;
+                scheduleFeed();
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(int index, VideoBufferInfo info) {
+            Codec codec;
+            int generation;
+            synchronized (mLock) {
+                codec = (mFlushing || mRequestQuit) ? null : mCodec;
+                generation = mGeneration;
+                if (codec == null) {
+                    return;
+                }
+                mOutputBusy++;
+            }
+            try {
+                handleOutputBuffer(codec, generation, index, info);
+            } catch (IllegalStateException ex) {
+                // Codec released by other means, e.g. an error, not by stop which waits for the callback
+                sLogger.warn("{} Failed to handle output - {}", DecoderMediaCodecAsync.this.hashCode(), ex.getMessage());
+            } finally {
+                synchronized (mLock) {
+                    if (--mOutputBusy == 0) {
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        private void handleOutputBuffer(Codec codec, int generation, int index, VideoBufferInfo info) {
+            boolean eos = (info.flags == VideoBufferInfo.FLAG_EOS);
+            long nowNs = System.nanoTime();
+            long renderNs = getScheduler().schedule(info.pts, nowNs);
+            info.renderTimeNs = renderNs;
+            boolean render = writeOutputBuffer(info, codec.getOutputBuffer(index)) && !eos;
+            if (!render) {
+                getScheduler().drop(info.pts);
+            }
+            ReleaseTask task = new ReleaseTask(codec, generation, index, render, renderNs, eos);
+            if (mSurface == null || !isTimedRender()) {
+                synchronized (mLock) {
+                    if (mCodec != codec || mGeneration != generation) {
+                        return;
+                    }
+                    if (render && renderNs > nowNs) {
+                        task.mPaced = true;
+                        mPacedCount++;
+                        getReleaseExecutor().schedule(task, renderNs - nowNs, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                    if (eos && mPacedCount > 0) {
+                        mPacedEos = task;
+                        return;
+                    }
+                }
+            }
+            task.run();
+        }
+
+        @Override
+        public void onOutputFormatChanged(VideoFormat format) {
+            sLogger.debug("{} output format:{}", DecoderMediaCodecAsync.this.hashCode(), format);
+            writeOutputFormat(format);
+        }
+
+        @Override
+        public void onFrameRendered(long ptsUs, long renderedNs) {
+            getScheduler().onRendered(ptsUs, renderedNs);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            sLogger.warn("{} codec error - {}", DecoderMediaCodecAsync.this.hashCode(), ex.getMessage());
+            writeOutputEndOnce();
+        }
+    };
+
+    // Release an output buffer, at once or by the timer when due
+    private class ReleaseTask implements Runnable {
+        private final Codec mTaskCodec;
+        private final int mTaskGeneration;
+        private final int mIndex;
+        private final boolean mRender;
+        private final long mRenderNs;
+        private final boolean mEos;
+        boolean mPaced; // Waiting on the timer
+
+        ReleaseTask(Codec codec, int generation, int index, boolean render, long renderNs, boolean eos) {
+            mTaskCodec = codec;
+            mTaskGeneration = generation;
+            mIndex = index;
+            mRender = render;
+            mRenderNs = renderNs;
+            mEos = eos;
+        }
+
+        @Override
+        public void run() {
+            Runnable eos = null;
+            synchronized (mLock) {
+                if (mCodec != mTaskCodec || mGeneration != mTaskGeneration) {
+                    return; // Flushed or stopped while in output, the index is no longer valid
+                }
+                mTaskCodec.releaseOutputBuffer(mIndex, mRender, mRenderNs);
+                if (!mEos) {
+                    mOutputCount++;
+                }
+                if (mPaced && --mPacedCount == 0) {
+                    eos = mPacedEos;
+                    mPacedEos = null;
+                }
+            }
+            if (mEos) {
+                sLogger.info("{} EOS received", DecoderMediaCodecAsync.this.hashCode());
+                writeOutputEndOnce();
+            }
+            if (eos != null) {
+                eos.run();
+            }
+        }
+    }
+
+    // Called with mLock held
+    private void scheduleFeed() {
+        if (mBusy || mRequestQuit || mCodec == null) {
+            return;
+        }
+        if (mFreeCount == 0 && mSeekPtsUs < 0) {
+            return;
+        }
+        mBusy = true;
+        mExecutor.execute(mFeedTask);
+    }
+
+    private void writeOutputEndOnce() {
+        synchronized (mLock) {
+            if (mOutputEnd) {
+                return;
+            }
+            mOutputEnd = true;
+        }
+        writeOutputEnd();
+    }
+
+    // Input read on a few shared threads, the parse and I/O of a frame is short with the prefetch
+    private static synchronized Executor getFeedExecutor() {
+        if (sFeedExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            sFeedExecutor = Executors.newFixedThreadPool(FEED_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CodecF" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sFeedExecutor;
+    }
+
+    // Output released when due for the surfaces ignoring the render time, one timer thread for all sessions
+    private static synchronized ScheduledExecutorService getReleaseExecutor() {
+        if (sReleaseExecutor == null) {
+            sReleaseExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CodecR");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sReleaseExecutor;
+    }
+
+    private static synchronized Handler getCallbackHandler() {
+        if (sCallbackHandler == null) {
+            sCallbackThread = new HandlerThread("CodecA");
+            sCallbackThread.start();
+            sCallbackHandler = new Handler(sCallbackThread.getLooper());
+        }
+        return sCallbackHandler;
+    }
+
+    // MediaCodec selected by CodecSelector from CodecPool, with the callbacks on the shared looper
+    private static class MediaCodecFactory implements Codec.Factory {
+        private final Context mContext;
+
+        MediaCodecFactory(Context ctx) {
+            mContext = ctx;
+        }
+
+        @Override
+        public Codec create(VideoFormat format) throws IOException {
+            if (!isSupported()) {
+                throw new IOException("Async mode requires API 23");
+            }
+            CodecSelector.Info info = CodecSelector.get(mContext).find(format.mime, format.width, format.height, format.frameRate);
+            sLogger.info("Codec selected {}", info);
+            CodecPool.Key key = CodecPool.Key.of(format.mime, format.width, format.height, info);
+            return new MediaCodecAdapter(key, info, CodecPool.getDefault().acquire(key));
+        }
+    }
+
+    private static class MediaCodecAdapter implements Codec {
+        private final CodecPool.Key mKey;
+        private final CodecSelector.Info mInfo;
+        private final MediaCodec mMediaCodec;
+
+        MediaCodecAdapter(CodecPool.Key key, CodecSelector.Info info, MediaCodec codec) {
+            mKey = key;
+            mInfo = info;
+            mMediaCodec = codec;
+        }
+
+        @Override
+        public String getName() {
+            return mMediaCodec.getName();
+        }
+
+        @Override
+        public void setCallback(final Callback callback) {
+            mMediaCodec.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
+                @Override
+                public void onFrameRendered(MediaCodec codec, long presentationTimeUs, long nanoTime) {
+                    callback.onFrameRendered(presentationTimeUs, nanoTime);
+                }
+            }, getCallbackHandler());
+            mMediaCodec.setCallback(new MediaCodec.Callback() {
+                private final VideoBufferInfo mInfo = new VideoBufferInfo(); // Callbacks on one looper
+
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    callback.onInputBufferAvailable(index);
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                    mInfo.offset = info.offset;
+                    mInfo.size = info.size;
+                    mInfo.pts = info.presentationTimeUs;
+                    mInfo.flags = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0 ?
+                            VideoBufferInfo.FLAG_EOS : VideoBufferInfo.FLAG_FRAME;
+                    callback.onOutputBufferAvailable(index, mInfo);
+                }
+
+                @Override
+                public void onError(MediaCodec codec, MediaCodec.CodecException ex) {
+                    callback.onError(ex);
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat fmt) {
+                    VideoFormat format = new VideoFormat();
+                    format.mime = fmt.getString(MediaFormat.KEY_MIME);
+                    format.width = fmt.getInteger(MediaFormat.KEY_WIDTH);
+                    format.height = fmt.getInteger(MediaFormat.KEY_HEIGHT);
+                    if (fmt.containsKey("crop-left") && fmt.containsKey("crop-right")) {
+                        format.width = fmt.getInteger("crop-right") + 1 - fmt.getInteger("crop-left");
+                    }
+                    if (fmt.containsKey("crop-top") && fmt.containsKey("crop-bottom")) {
+                        format.height = fmt.getInteger("crop-bottom") + 1 - fmt.getInteger("crop-top");
+                    }
+                    callback.onOutputFormatChanged(format);
+                }
+            }, getCallbackHandler());
+        }
+
+        @Override
+        public void configure(VideoFormat format, Surface surface) {
+            MediaFormat fmt = MediaFormat.createVideoFormat(format.mime, format.width, format.height);
+            fmt.setInteger(MediaFormat.KEY_PUSH_BLANK_BUFFERS_ON_STOP, 1);
+            fmt.setInteger(MediaFormat.KEY_MAX_WIDTH, mKey.maxWidth);
+            fmt.setInteger(MediaFormat.KEY_MAX_HEIGHT, mKey.maxHeight);
+            if (mInfo != null && mInfo.lowLatency && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                fmt.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+            }
+            mMediaCodec.configure(fmt, surface, null, 0);
+        }
+
+        @Override
+        public void start() {
+            mMediaCodec.start();
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mMediaCodec.getInputBuffer(index);
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long pts, int flags) {
+            int codecFlags = 0;
+            switch (flags) {
+            case VideoBufferInfo.FLAG_CONFIG:
+                codecFlags = MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
+                break;
+            case VideoBufferInfo.FLAG_EOS:
+                codecFlags = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+                break;
+            }
+            mMediaCodec.queueInputBuffer(index, offset, size, pts, codecFlags);
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return mMediaCodec.getOutputBuffer(index);
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render, long renderTimestampNs) {
+            if (render) {
+                mMediaCodec.releaseOutputBuffer(index, renderTimestampNs);
+            } else {
+                mMediaCodec.releaseOutputBuffer(index, false);
+            }
+        }
+
+        @Override
+        public void flush() {
+            mMediaCodec.flush();
+        }
+
+        @Override
+        public void stop() {
+            mMediaCodec.stop();
+        }
+
+        @Override
+        public void release() {
+            CodecPool.getDefault().recycle(mKey, mMediaCodec);
+        }
+    }
+}
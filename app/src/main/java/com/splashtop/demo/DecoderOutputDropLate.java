@@ -0,0 +1,86 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+
+// Output policy to release the too late frames without render, so a hiccup is caught up instead of kept as latency
+// A frame is late by VideoBufferInfo.renderTimeNs from PresentationScheduler against System.nanoTime(),
+// dropped if later than the threshold and a later frame already read into the decoder is due too,
+// so that frame replaces it on the next vsync, the newest frame is always rendered
+// The frames superseded on the same vsync after released are counted by PresentationScheduler
+// Called by the decoder output thread, the counters read from others for display only
+public class DecoderOutputDropLate extends DecoderOutput.Wrapper {
+
+    // Notified on the decoder output thread for each frame released to render, after the late frames dropped
+    public interface OnRenderListener {
+        void onRender(Decoder decoder, Decoder.VideoBufferInfo info);
+    }
+
+    private volatile long mThresholdNs = 50 * 1000000L;
+
+    private volatile long mRenderedCount;
+    private volatile long mDroppedLateCount;
+
+    private OnRenderListener mRenderListener;
+
+    public DecoderOutputDropLate(DecoderOutput output) {
+        super(output);
+    }
+
+    // Late more than the threshold to drop, about 3 frames at 60fps by default
+    public DecoderOutputDropLate setThreshold(long thresholdUs) {
+        mThresholdNs = thresholdUs * 1000;
+        return this;
+    }
+
+    public DecoderOutputDropLate setOnRenderListener(OnRenderListener listener) {
+        mRenderListener = listener;
+        return this;
+    }
+
+    @Override
+    public boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
+        boolean render = super.onBuffer(decoder, info, buffer);
+        if (!render || info.flags == Decoder.VideoBufferInfo.FLAG_EOS) {
+            return render;
+        }
+        if (info.renderTimeNs > 0 && isLate(decoder, info, System.nanoTime())) {
+            mDroppedLateCount++;
+            return false;
+        }
+        mRenderedCount++;
+        if (mRenderListener != null) {
+            mRenderListener.onRender(decoder, info);
+        }
+        return true;
+    }
+
+    private boolean isLate(Decoder decoder, Decoder.VideoBufferInfo info, long nowNs) {
+        if (nowNs - info.renderTimeNs <= mThresholdNs) {
+            return false;
+        }
+        // Render time of the latest input on the same pts base, no later one if it went back by seek
+        long latestPts = decoder.getLatestInputPts();
+        if (latestPts <= info.pts) {
+            return false;
+        }
+        return info.renderTimeNs + (latestPts - info.pts) * 1000 <= nowNs;
+    }
+
+    public void reset() {
+        mRenderedCount = 0;
+        mDroppedLateCount = 0;
+    }
+
+    public long getRenderedCount() {
+        return mRenderedCount;
+    }
+
+    public long getDroppedLateCount() {
+        return mDroppedLateCount;
+    }
+
+    @Override
+    public String toString() {
+        return "<rendered:" + mRenderedCount + " late:" + mDroppedLateCount + " threshold:" + mThresholdNs / 1000 + ">";
+    }
+}
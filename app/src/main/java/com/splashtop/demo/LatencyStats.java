@@ -0,0 +1,65 @@
+package com.splashtop.demo;
+
+// Capture-to-render latency of the frames, in microseconds
+// The capture time from the sender clock, assume the clocks of sender and receiver synchronized, e.g. by NTP
+// Accessed by the decoder output thread, read from others for display only
+public class LatencyStats {
+
+    private long mCount;
+    private long mLastUs;
+    private long mMinUs = Long.MAX_VALUE;
+    private long mMaxUs = Long.MIN_VALUE;
+    private long mTotalUs;
+
+    /**
+     * @param captureTimeUs sender capture time since epoch, ignored if not positive
+     * @param renderTimeUs local time since epoch when the frame rendered
+     * @return latency of the frame, -1 if capture time unknown
+     */
+    public long add(long captureTimeUs, long renderTimeUs) {
+        if (captureTimeUs <= 0) {
+            return -1;
+        }
+        long latencyUs = renderTimeUs - captureTimeUs;
+        mCount++;
+        mLastUs = latencyUs;
+        mMinUs = Math.min(mMinUs, latencyUs);
+        mMaxUs = Math.max(mMaxUs, latencyUs);
+        mTotalUs += latencyUs;
+        return latencyUs;
+    }
+
+    public void reset() {
+        mCount = 0;
+        mLastUs = 0;
+        mMinUs = Long.MAX_VALUE;
+        mMaxUs = Long.MIN_VALUE;
+        mTotalUs = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getLastUs() {
+        return mLastUs;
+    }
+
+    public long getMinUs() {
+        return (mCount > 0) ? mMinUs : 0;
+    }
+
+    public long getMaxUs() {
+        return (mCount > 0) ? mMaxUs : 0;
+    }
+
+    public long getAverageUs() {
+        return (mCount > 0) ? mTotalUs / mCount : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "<count:" + mCount + " last:" + mLastUs + " min:" + getMinUs()
+                + " max:" + getMaxUs() + " avg:" + getAverageUs() + ">";
+    }
+}
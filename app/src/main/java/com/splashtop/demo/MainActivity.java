@@ -16,6 +16,8 @@ import android.os.Handler;
 import android.os.SystemClock;
 import android.view.Choreographer;
 import android.view.Display;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.SurfaceView;
 import android.view.View;
 import android.view.WindowManager;
@@ -56,9 +58,14 @@ public class MainActivity extends AppCompatActivity implements Choreographer.Fra
     private static final boolean ENABLE_AUTO_ADD_NOVIEW_SESSION = false;
     private static final boolean ENABLE_AUTO_START = false;
 
+    // New sessions decode by MediaCodec callbacks, API 23 and later, also toggled by menu for the sessions added next
+    // e.g. adb shell am start -n com.splashtop.demo/.MainActivity --ez async_decoder true
+    public static final String EXTRA_ASYNC_DECODER = "async_decoder";
+
     private final List<Session> mSessionList = new ArrayList<>();
     private final Set<Integer> mRunningSet = new HashSet<>();
     private SessionLayout mSessionLayout;
+    private boolean mAsyncDecoder;
 
     private ActivityMainBinding mBinding;
     private Choreographer choreographer;
@@ -67,6 +74,7 @@ public class MainActivity extends AppCompatActivity implements Choreographer.Fra
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mAsyncDecoder = getIntent().getBooleanExtra(EXTRA_ASYNC_DECODER, false);
 
         //testing only
         {
@@ -143,8 +151,8 @@ public class MainActivity extends AppCompatActivity implements Choreographer.Fra
                 binding.textName.setText(((Button) v).getText());
                 binding.textName.bringToFront();
 
-                final DecoderInput input = new DecoderInputAssets(getApplicationContext());
-                final Decoder decoder = new DecoderMediaCodec(getApplicationContext()).setInput(input);
+                final DecoderInput input = new DecoderInputPrefetch(new DecoderInputAssets(getApplicationContext()));
+                final Decoder decoder = createDecoder(mAsyncDecoder).setInput(input);
                 //TODO: bind to surfaceviewwindow final SessionSurfaceView session = new SessionSurfaceView(decoder, binding.surfaceviewwindow);
                 final SessionSurfaceView session = new SessionSurfaceView(decoder, binding.surface);
                 
@@ -172,8 +180,8 @@ public class MainActivity extends AppCompatActivity implements Choreographer.Fra
                 binding.textName.setText(((Button) v).getText());
                 binding.textName.bringToFront();
 
-                final DecoderInput input = new DecoderInputAssets(getApplicationContext());
-                final Decoder decoder = new DecoderMediaCodec(getApplicationContext()).setInput(input);
+                final DecoderInput input = new DecoderInputPrefetch(new DecoderInputAssets(getApplicationContext()));
+                final Decoder decoder = createDecoder(mAsyncDecoder).setInput(input);
                 final SessionTextureView session = new SessionTextureView(decoder, binding.texture);
                 session.setOnStopListener(mOnStopListener);
                 addSession(session, binding.getRoot());
@@ -197,8 +205,8 @@ public class MainActivity extends AppCompatActivity implements Choreographer.Fra
                 binding.textName.setText(((Button) v).getText());
                 binding.textName.bringToFront();
 
-                final DecoderInput input = new DecoderInputAssets(getApplicationContext());
-                final Decoder decoder = new DecoderMediaCodec(getApplicationContext()).setInput(input);
+                final DecoderInput input = new DecoderInputPrefetch(new DecoderInputAssets(getApplicationContext()));
+                final Decoder decoder = createDecoder(mAsyncDecoder).setInput(input);
                 final Session session = new Session(decoder);
                 session.setOnStopListener(mOnStopListener);
                 addSession(session, binding.getRoot());
@@ -245,6 +253,42 @@ public class MainActivity extends AppCompatActivity implements Choreographer.Fra
         sLogger.info("JRC onDestroy");
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        sLogger.info("onTrimMemory level:{} pool:{} codecs:{}", level, BufferPool.getDefault(), CodecPool.getDefault());
+        BufferPool.getDefault().clear();
+        CodecPool.getDefault().clear();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.menu_async_decoder)
+                .setChecked(mAsyncDecoder)
+                .setEnabled(DecoderMediaCodecAsync.isSupported());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.menu_async_decoder) {
+            mAsyncDecoder = !item.isChecked();
+            item.setChecked(mAsyncDecoder);
+            sLogger.info("Async decoder for new sessions:{}", mAsyncDecoder);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    // Decoder chosen per session, the async one falls back to the threaded one before API 23
+    private Decoder createDecoder(boolean async) {
+        if (async && DecoderMediaCodecAsync.isSupported()) {
+            return new DecoderMediaCodecAsync(getApplicationContext());
+        }
+        return new DecoderMediaCodec(getApplicationContext());
+    }
+
     private void addSession(Session session, View view) {
         sLogger.trace("Add session:{} view:{}", session, view);
         mSessionList.add(session);
@@ -0,0 +1,120 @@
+package com.splashtop.demo;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+// Convert between Annex-B (CSD separated) and length-prefixed (AVCC) nals
+// Work on the buffer of one sample or access unit, the source position advanced after converted
+public class NalConverter {
+
+    private static final byte[] START_CODE = {0x00, 0x00, 0x00, 0x01};
+
+    private NalConverter() {
+    }
+
+    /**
+     * Replace each big-endian length with a 4 bytes CSD
+     *
+     * @return size written to the destination
+     * @throws BufferOverflowException if the destination too small, partially written
+     */
+    public static int toAnnexB(ByteBuffer src, int lengthSize, ByteBuffer dst) throws NalParser.InvalidStreamException {
+        int start = dst.position();
+        while (src.hasRemaining()) {
+            if (src.remaining() < lengthSize) {
+                throw new NalParser.InvalidStreamException("Length truncated, remaining:" + src.remaining());
+            }
+            int length = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                length = (length << 8) | (src.get() & 0xFF);
+            }
+            if (length <= 0 || length > src.remaining()) {
+                throw new NalParser.InvalidStreamException("Nal length " + length + " remaining:" + src.remaining());
+            }
+            if (dst.remaining() < START_CODE.length + length) {
+                throw new BufferOverflowException();
+            }
+            dst.put(START_CODE);
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            dst.put(src);
+            src.limit(limit);
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Replace each CSD with the big-endian nal length
+     *
+     * @return size written to the destination
+     * @throws BufferOverflowException if the destination too small, partially written
+     */
+    public static int toLengthPrefixed(ByteBuffer src, int lengthSize, ByteBuffer dst) throws NalParser.InvalidStreamException {
+        int start = dst.position();
+        int end = src.limit();
+        NalParser.StartCode csd = new NalParser.StartCode();
+        NalParser.StartCode next = new NalParser.StartCode();
+        if (!NalScanner.find(src, src.position(), src.remaining(), csd) || csd.pos != src.position()) {
+            throw new NalParser.InvalidStreamException("Not started with CSD");
+        }
+        while (csd.valid()) {
+            int nal = csd.pos + csd.length;
+            int nalEnd = NalScanner.find(src, nal, end - nal, next) ? next.pos : end;
+            int length = nalEnd - nal;
+            if (lengthSize < 4 && length >= (1 << (lengthSize * 8))) {
+                throw new NalParser.InvalidStreamException("Nal length " + length + " over length size " + lengthSize);
+            }
+            if (dst.remaining() < lengthSize + length) {
+                throw new BufferOverflowException();
+            }
+            for (int i = lengthSize - 1; i >= 0; i--) {
+                dst.put((byte) (length >>> (i * 8)));
+            }
+            src.limit(nalEnd);
+            src.position(nal);
+            dst.put(src);
+            src.limit(end);
+            csd.set(next.pos, next.length);
+            next.reset();
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Write the SPS and PPS of AVCDecoderConfigurationRecord (avcC box) to the destination in Annex-B,
+     * e.g. as the first codec config buffer before the converted samples
+     *
+     * @return the nal length size of the samples
+     */
+    public static int readAvcConfig(ByteBuffer config, ByteBuffer dst) throws NalParser.InvalidStreamException {
+        if (config.remaining() < 7 || config.get() != 0x01) {
+            throw new NalParser.InvalidStreamException("Invalid avcC record");
+        }
+        config.position(config.position() + 3); // Profile, compatibility, level
+        int lengthSize = (config.get() & 0x03) + 1;
+        int count = config.get() & 0x1F;
+        for (int n = 0; n < 2; n++) {
+            for (int i = 0; i < count; i++) {
+                if (config.remaining() < 2) {
+                    throw new NalParser.InvalidStreamException("Parameter set truncated");
+                }
+                int length = config.getShort() & 0xFFFF;
+                if (length > config.remaining()) {
+                    throw new NalParser.InvalidStreamException("Parameter set truncated");
+                }
+                dst.put(START_CODE);
+                int limit = config.limit();
+                config.limit(config.position() + length);
+                dst.put(config);
+                config.limit(limit);
+            }
+            if (n == 0) {
+                if (!config.hasRemaining()) {
+                    throw new NalParser.InvalidStreamException("PPS count missing");
+                }
+                count = config.get() & 0xFF;
+            }
+        }
+        return lengthSize;
+    }
+}
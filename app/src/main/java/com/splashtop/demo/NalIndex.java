@@ -0,0 +1,460 @@
+package com.splashtop.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Index file v2, read in place from a mapped or loaded buffer, big-endian as v1
+// Header: magic "STIX", version, header flags, frame count, keyframe count, data length, records length
+// Keyframe table: fixed size entries in stream order, binary searched by pts, each gives the absolute offset,
+// the frame and record position to continue from, and the parameter sets to send first if not adjacent
+// Records: one per access unit, a flags byte, then the varint size and the zigzag varint delta of pts delta,
+// a record with FLAG_SYNC carries the absolute offset and pts instead, the first record and each keyframe start
+// Offsets of the records after a sync one are known by adding the sizes, the units are contiguous in stream
+// v1 costs 12 bytes per unit, a fixed rate unit costs 3 to 5 bytes here
+public class NalIndex {
+
+    public static final int MAGIC = 0x53544958; // "STIX"
+    public static final int VERSION = 2;
+    public static final String SUFFIX = ".v2"; // File name of the v2 index next to the v1 one
+
+    // Header flags
+    public static final int HEADER_FRAME_FLAGS = 0x01; // Frame flags valid, converted without data if not set
+
+    // Frame flags
+    public static final int FLAG_KEYFRAME = 0x01; // IDR, or IRAP for HEVC
+    public static final int FLAG_CONFIG   = 0x02; // Parameter sets
+    public static final int FLAG_REF      = 0x04; // Picture used for reference
+    static final int FLAG_SYNC            = 0x80; // Absolute offset and pts follow
+
+    static final int HEADER_SIZE = 32;
+    static final int KEYFRAME_SIZE = 36;
+    static final int PEEK_SIZE = 256; // First read of a unit, doubled until the first slice header read
+
+    private final ByteBuffer mBuffer;
+    private final int mHeaderFlags;
+    private final int mFrameCount;
+    private final int mKeyframeCount;
+    private final long mDataLength;
+    private final int mRecordsStart;
+    private final int mRecordsEnd;
+
+    private NalIndex(ByteBuffer buffer) throws NalParser.InvalidStreamException {
+        mBuffer = buffer.slice();
+        if (mBuffer.remaining() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            throw new NalParser.InvalidStreamException("Not index v2");
+        }
+        int version = mBuffer.getShort(4);
+        if (version != VERSION) {
+            throw new NalParser.InvalidStreamException("Index version " + version + " not supported");
+        }
+        mHeaderFlags = mBuffer.getShort(6);
+        mFrameCount = mBuffer.getInt(8);
+        mKeyframeCount = mBuffer.getInt(12);
+        mDataLength = mBuffer.getLong(16);
+        mRecordsStart = HEADER_SIZE + mKeyframeCount * KEYFRAME_SIZE;
+        mRecordsEnd = mRecordsStart + mBuffer.getInt(24);
+        if (mKeyframeCount < 0 || mRecordsEnd > mBuffer.limit() || mRecordsEnd < mRecordsStart) {
+            throw new NalParser.InvalidStreamException("Index truncated, length " + mBuffer.limit());
+        }
+    }
+
+    // Index in the buffer from its position
+    public static NalIndex wrap(ByteBuffer buffer) throws NalParser.InvalidStreamException {
+        return new NalIndex(buffer);
+    }
+
+    // Map the index file, or the asset range of an uncompressed asset
+    public static NalIndex map(FileChannel channel, long offset, long length) throws IOException {
+        return new NalIndex(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    // Read the whole stream, for the compressed assets which can not be mapped
+    public static NalIndex read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new NalIndex(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    // True if the stream starts with the v2 magic, the stream must support mark
+    public static boolean isIndex(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic = (magic << 8) | b;
+            }
+            return magic == MAGIC;
+        } finally {
+            in.reset();
+        }
+    }
+
+    public boolean hasFrameFlags() {
+        return (mHeaderFlags & HEADER_FRAME_FLAGS) != 0;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    // Total bytes of the indexed stream
+    public long getDataLength() {
+        return mDataLength;
+    }
+
+    /**
+     * Binary search the keyframe at or before the pts
+     *
+     * @return keyframe number, the first keyframe if all after the pts, -1 if no keyframe
+     */
+    public int findKeyframe(long ptsUs) {
+        if (mKeyframeCount == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = mKeyframeCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getKeyframePts(mid) <= ptsUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public long getKeyframePts(int keyframe) {
+        return mBuffer.getLong(keyframePos(keyframe));
+    }
+
+    // Offset of the first unit to read for the keyframe, the adjacent parameter sets if any
+    public long getKeyframeOffset(int keyframe) {
+        return mBuffer.getLong(keyframePos(keyframe) + 8);
+    }
+
+    // Parameter sets sent before the keyframe if not adjacent, -1 if adjacent or none
+    public long getConfigOffset(int keyframe) {
+        return mBuffer.getLong(keyframePos(keyframe) + 24);
+    }
+
+    public int getConfigSize(int keyframe) {
+        return mBuffer.getInt(keyframePos(keyframe) + 32);
+    }
+
+    private int keyframePos(int keyframe) {
+        if (keyframe < 0 || keyframe >= mKeyframeCount) {
+            throw new IndexOutOfBoundsException("Keyframe " + keyframe + " of " + mKeyframeCount);
+        }
+        return HEADER_SIZE + keyframe * KEYFRAME_SIZE;
+    }
+
+    // Read the records in order, reusable, no allocation
+    public class Cursor {
+        public int frame = -1; // Number of the current unit
+        public long offset;
+        public int size;
+        public long ptsUs;
+        public int flags;      // FLAG_KEYFRAME, FLAG_CONFIG and FLAG_REF
+
+        private int mPos = mRecordsStart;
+        private long mDelta;   // Pts delta of the current unit
+
+        // Before the first unit
+        public Cursor reset() {
+            frame = -1;
+            mPos = mRecordsStart;
+            return this;
+        }
+
+        // Before the first unit to read for the keyframe
+        public Cursor seek(int keyframe) {
+            int pos = keyframePos(keyframe);
+            frame = mBuffer.getInt(pos + 16) - 1;
+            mPos = mRecordsStart + mBuffer.getInt(pos + 20);
+            return this;
+        }
+
+        // Move to next unit, false if no more
+        public boolean next() throws NalParser.InvalidStreamException {
+            if (frame + 1 >= mFrameCount) {
+                return false;
+            }
+            try {
+                int b = mBuffer.get(mPos++) & 0xFF;
+                if ((b & FLAG_SYNC) != 0) {
+                    offset = readVarint();
+                    ptsUs = unzigzag(readVarint());
+                    mDelta = 0;
+                } else {
+                    if (frame < 0) {
+                        throw new NalParser.InvalidStreamException("Record " + (frame + 1) + " not a sync record");
+                    }
+                    offset += size;
+                    mDelta += unzigzag(readVarint());
+                    ptsUs += mDelta;
+                }
+                size = (int) readVarint();
+                flags = b & ~FLAG_SYNC;
+                frame++;
+                return true;
+            } catch (IndexOutOfBoundsException ex) {
+                throw new NalParser.InvalidStreamException("Record " + (frame + 1) + " truncated");
+            }
+        }
+
+        private long readVarint() throws NalParser.InvalidStreamException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPos >= mRecordsEnd) {
+                    throw new IndexOutOfBoundsException();
+                }
+                int b = mBuffer.get(mPos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new NalParser.InvalidStreamException("Varint too long at " + mPos);
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Read an access unit from a stream only up to the first slice header, the nal headers walked whatever
+    // comes before it, e.g. a large SEI, a unit without slice is read whole, the rest left for the caller to skip
+    static class Peeker {
+        private final NalParser.Codec mCodec;
+        private final NalParser.StartCode mCsd = new NalParser.StartCode();
+        byte[] data = new byte[PEEK_SIZE];
+        int length;   // Bytes of the unit read into data
+        int flags;    // FLAG_KEYFRAME, FLAG_CONFIG and FLAG_REF
+        int slice;    // Offset of the first slice, the nals before it lead the unit, -1 if no slice
+
+        Peeker(NalParser.Codec codec) {
+            mCodec = codec;
+        }
+
+        Peeker read(DataInputStream in, int size) throws IOException {
+            length = 0;
+            while (true) {
+                int n = Math.min(size, Math.max(PEEK_SIZE, length * 2));
+                if (data.length < n) {
+                    data = Arrays.copyOf(data, n);
+                }
+                in.readFully(data, length, n - length);
+                length = n;
+                if (scan(length == size)) {
+                    return this;
+                }
+            }
+        }
+
+        // Walk the nal headers read, true once the first slice found or the whole unit read
+        private boolean scan(boolean whole) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            flags = 0;
+            slice = -1;
+            mCsd.reset();
+            int pos = 0;
+            while (pos < length && NalScanner.find(buffer, pos, length - pos, mCsd)) {
+                int header = mCsd.pos + mCsd.length;
+                if (header >= length) {
+                    break;
+                }
+                int b = data[header] & 0xFF;
+                switch (NalParser.parseNalType(data[header], mCodec)) {
+                case NAL_IDR_SLICE:
+                case NAL_IRAP_SLICE:
+                    flags |= FLAG_KEYFRAME | FLAG_REF;
+                    slice = mCsd.pos;
+                    return true;
+                case NAL_SLICE:
+                case NAL_DPA:
+                    if (mCodec == NalParser.Codec.HEVC) {
+                        // Sub-layer non-reference pictures are the even types below 16
+                        flags |= (((b >> 1) & 0x01) != 0) ? FLAG_REF : 0;
+                    } else {
+                        flags |= (((b >> 5) & 0x03) != 0) ? FLAG_REF : 0;
+                    }
+                    slice = mCsd.pos;
+                    return true;
+                case NAL_VPS:
+                case NAL_SPS:
+                case NAL_PPS:
+                    flags |= FLAG_CONFIG;
+                    break;
+                }
+                pos = header;
+                mCsd.reset();
+            }
+            return whole;
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Build the index in memory, units added in stream order
+    public static class Writer {
+
+        private final boolean mFrameFlags;
+        private int mCount;
+        private int[] mSizes = new int[256];
+        private long[] mPts = new long[256];
+        private int[] mFlags = new int[256];
+        private int[] mConfigSizes = new int[256];
+
+        /**
+         * @param frameFlags false if the flags unknown, e.g. converted without the data, no keyframe is indexed
+         */
+        public Writer(boolean frameFlags) {
+            mFrameFlags = frameFlags;
+        }
+
+        public Writer add(int size, long ptsUs, int flags) {
+            return add(size, ptsUs, flags, 0);
+        }
+
+        /**
+         * @param configSize bytes of the parameter sets leading a keyframe unit, sent before the later keyframes
+         *                   which have no parameter sets, 0 if unknown
+         */
+        public Writer add(int size, long ptsUs, int flags, int configSize) {
+            if (mCount == mSizes.length) {
+                mSizes = Arrays.copyOf(mSizes, mCount * 2);
+                mPts = Arrays.copyOf(mPts, mCount * 2);
+                mFlags = Arrays.copyOf(mFlags, mCount * 2);
+                mConfigSizes = Arrays.copyOf(mConfigSizes, mCount * 2);
+            }
+            mSizes[mCount] = size;
+            mPts[mCount] = ptsUs;
+            mFlags[mCount] = mFrameFlags ? (flags & ~FLAG_SYNC) : 0;
+            mConfigSizes[mCount] = configSize;
+            mCount++;
+            return this;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        // A keyframe starts from the parameter sets right before it, otherwise the last parameter sets sent first,
+        // a config unit or the leading part of a keyframe unit
+        public void write(OutputStream out) throws IOException {
+            boolean[] sync = new boolean[mCount];
+            int[] keyUnit = new int[mCount];
+            int[] keyStart = new int[mCount];
+            long[] keyConfigOffset = new long[mCount];
+            int[] keyConfigSize = new int[mCount];
+            int keyframes = 0;
+            long configOffset = -1;
+            int configSize = 0;
+            long offset = 0;
+            for (int i = 0; i < mCount; i++) {
+                int flags = mFlags[i];
+                if ((flags & FLAG_KEYFRAME) != 0) {
+                    boolean adjacent = i > 0 && mFlags[i - 1] == FLAG_CONFIG;
+                    boolean own = (flags & FLAG_CONFIG) != 0;
+                    keyUnit[keyframes] = i;
+                    keyStart[keyframes] = adjacent ? i - 1 : i;
+                    keyConfigOffset[keyframes] = (adjacent || own) ? -1 : configOffset;
+                    keyConfigSize[keyframes] = (adjacent || own) ? 0 : configSize;
+                    sync[keyStart[keyframes]] = true;
+                    keyframes++;
+                    if (own) {
+                        configOffset = (mConfigSizes[i] > 0) ? offset : -1;
+                        configSize = mConfigSizes[i];
+                    }
+                } else if ((flags & FLAG_CONFIG) != 0) {
+                    configOffset = offset;
+                    configSize = mSizes[i];
+                }
+                offset += mSizes[i];
+            }
+            if (mCount > 0) {
+                sync[0] = true;
+            }
+
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            int[] recordPos = new int[mCount];
+            long[] unitOffset = new long[mCount];
+            offset = 0;
+            long prevPts = 0;
+            long prevDelta = 0;
+            for (int i = 0; i < mCount; i++) {
+                recordPos[i] = records.size();
+                unitOffset[i] = offset;
+                if (sync[i]) {
+                    records.write(mFlags[i] | FLAG_SYNC);
+                    writeVarint(records, offset);
+                    writeVarint(records, zigzag(mPts[i]));
+                    prevDelta = 0;
+                } else {
+                    long delta = mPts[i] - prevPts;
+                    records.write(mFlags[i]);
+                    writeVarint(records, zigzag(delta - prevDelta));
+                    prevDelta = delta;
+                }
+                writeVarint(records, mSizes[i]);
+                prevPts = mPts[i];
+                offset += mSizes[i];
+            }
+
+            DataOutputStream output = new DataOutputStream(out);
+            output.writeInt(MAGIC);
+            output.writeShort(VERSION);
+            output.writeShort(mFrameFlags ? HEADER_FRAME_FLAGS : 0);
+            output.writeInt(mCount);
+            output.writeInt(keyframes);
+            output.writeLong(offset);
+            output.writeInt(records.size());
+            output.writeInt(0); // Reserved
+            for (int i = 0; i < keyframes; i++) {
+                int start = keyStart[i];
+                output.writeLong(mPts[keyUnit[i]]);
+                output.writeLong(unitOffset[start]);
+                output.writeInt(start);
+                output.writeInt(recordPos[start]);
+                output.writeLong(keyConfigOffset[i]);
+                output.writeInt(keyConfigSize[i]);
+            }
+            records.writeTo(output);
+            output.flush();
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
@@ -2,21 +2,34 @@ package com.splashtop.demo;
 
 import androidx.annotation.NonNull;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
 
 // Parse H264 stream buffer, split into NALU
-// TODO: Cache the buffer and wrap as ByteBuffer when return a nal, reduce buffer copy
-// TODO: If provide IndexPolicy, skip the CSD matching
-public class NalParser {
+// The readed data is kept in a ring, parseView() return read-only views into it without copy,
+// parsed views must be released back, the space will be reused after the ring wrapped
+// With an index file, NalParserIndexed skips the CSD matching
+// Without a stream, the data can be pushed by feed() in any chunks, parse never blocks in push mode
+// The buffer is taken from the shared BufferPool, shrinks after the large access units gone, returned by close()
+// The same parse loop over other byte sources by the subclasses overriding fill() and obtainView(),
+// e.g. NalParserMapped over a mapped file window, NalParserAvcc over the length-prefixed nals
+public class NalParser implements Closeable {
 
+    // HEVC nals mapped to the H264 types of the same role, NAL_VPS, NAL_IRAP_SLICE and NAL_SEI_SUFFIX are HEVC only
     public enum NalType {
         NAL_SLICE, NAL_DPA, NAL_DPB, NAL_DPC, NAL_IDR_SLICE, NAL_SEI, NAL_SPS, NAL_PPS, NAL_AUD,
         NAL_END_SEQUENCE, NAL_END_STREAM, NAL_FILLER_DATA, NAL_SPS_EXT, NAL_AUXILIARY_SLICE,
+        NAL_VPS, NAL_IRAP_SLICE, NAL_SEI_SUFFIX,
         NAL_UNKNOWN
     }
 
+    public enum Codec { H264, HEVC }
+
     public static class NalHeader {
         public NalType type;
         public int size;
@@ -33,16 +46,43 @@ public class NalParser {
         }
     }
 
-    private static final int CSD_MIN = 3;
-    private static final int CSD_MAX = 8;
+    static final int CSD_MIN = 3;
+    static final int CSD_MAX = 8;
+
+    private static final int VIEW_COUNT = 4; // Max views can be hold by caller at the same time
+    private static final int BUFFER_SIZE = 4096;
+    private static final int SHRINK_WRAPS = 8; // Shrink if the access units small enough for continuous wraps
 
     private NalPolicy mPolicy;
+    private Codec mCodec = Codec.H264;
     private InputStream mInputStream;
     private boolean mIsEos = false; // Stream drained, should stop when parse to the buffer tail
-    private byte[] mBuffer = new byte[4096]; // Readed data
-    private int mDataSize = 0; // Readed data size
-    private StartCode mCsdCurrent = new StartCode();  // Offset of first CSD in buffer
-    private StartCode mCsdNext = new StartCode();     // Offset of next CSD in buffer
+    private boolean mIsPush = false; // Data fed by feed() instead of read from stream
+    private BufferPool mPool = BufferPool.getDefault();
+    private byte[] mBuffer;     // Readed data, taken from pool on first use
+    private ByteBuffer mWords;  // Scan the buffer by words, or the data set by subclass
+    private ByteBuffer mNalBuffer; // Pass the nal to policy
+    private int mUnitMax = 0;   // Max access unit since last wrap
+    private int mSmallWraps = 0; // Continuous wraps with small access units only
+    private final NalHeader mNalHeader = new NalHeader();  // Header of the nal passed to policy
+    private int mStart = 0;     // Offset of the pending access unit in buffer
+    private int mDataEnd = 0;   // Offset of the readed data end in buffer
+    private NalType mUnitType;  // Type of the first nal in pending access unit
+    private long mUnitPts;      // Pts of the last nal in pending access unit
+    private final StartCode mCsdCurrent = new StartCode();  // Offset of first CSD in buffer
+    private final StartCode mCsdNext = new StartCode();     // Offset of next CSD in buffer
+    private int mScanPos = 0;   // Next CSD searching resume from here, avoid scanning the same data again
+
+    // Views handed out by parseView(), kept in parsed order, slot reused after released
+    private ByteBuffer[] mViews = new ByteBuffer[VIEW_COUNT];
+    private final int[] mViewStart = new int[VIEW_COUNT];
+    private final boolean[] mViewReleased = new boolean[VIEW_COUNT];
+    private int mViewHead = 0;  // Slot of the oldest outstanding view
+    private int mViewCount = 0; // Outstanding views
+
+    // Access unit parsed by parseInto() but not delivered for destination too small
+    private ByteBuffer mUndelivered;
+    private final NalHeader mUndeliveredHeader = new NalHeader();
 
     public NalParser() {
     }
@@ -65,93 +105,510 @@ public class NalParser {
         mPolicy = policy;
     }
 
+    // The nal header parsed by codec, H264 by default
+    public void setCodec(Codec codec) {
+        mCodec = codec;
+    }
+
+    public Codec getCodec() {
+        return mCodec;
+    }
+
+    protected NalPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    // Only allowed before any data readed
+    public void setBufferPool(BufferPool pool) {
+        if (mDataEnd != 0) {
+            throw new IllegalStateException("Pool can not change after parse started");
+        }
+        mPool.release(mBuffer);
+        mBuffer = null;
+        mPool = pool;
+    }
+
+    // Pre-size the ring, avoid growing at runtime for large access unit
+    // Only allowed before any data readed
+    public void setCapacity(int size) {
+        if (mDataEnd != 0) {
+            throw new IllegalStateException("Capacity can not change after parse started");
+        }
+        mPool.release(mBuffer);
+        setBuffer(mPool.acquire(size));
+    }
+
+    /**
+     * Return the buffer to pool and close the stream
+     * The buffer is left to GC instead if any view not released
+     */
+    @Override
+    public void close() throws IOException {
+        if (mBuffer != null && mViewCount == 0) {
+            mPool.release(mBuffer);
+        }
+        mBuffer = null;
+        mViewCount = 0;
+        mUndelivered = null;
+        if (mInputStream != null) {
+            mInputStream.close();
+        }
+    }
+
+    /**
+     * Push mode, append a chunk of stream data, e.g. received from socket, never blocks
+     * The chunk can be split anywhere, even inside a CSD, the state is kept across chunks
+     * Parse the ready access units by parseView(), parse() or parseInto() until nothing returned
+     *
+     * @param chunk consumed entirely, the position advanced to the limit
+     */
+    public void feed(ByteBuffer chunk) {
+        if (mInputStream != null) {
+            throw new IllegalStateException("Parser reads from stream, can not be fed");
+        }
+        if (mIsEos) {
+            throw new IllegalStateException("Feed after EOS");
+        }
+        mIsPush = true;
+        if (mBuffer == null) {
+            setBuffer(mPool.acquire(BUFFER_SIZE));
+        }
+        while (chunk.hasRemaining()) {
+            if (mDataEnd == writeLimit()) {
+                makeRoom();
+            }
+            int len = Math.min(chunk.remaining(), writeLimit() - mDataEnd);
+            chunk.get(mBuffer, mDataEnd, len);
+            mDataEnd += len;
+        }
+    }
+
+    // Push mode, no more data, the last access unit will be delivered by next parse
+    public void feedEos() {
+        mIsPush = true;
+        mIsEos = true;
+    }
+
+    // All data parsed and no more data, tell the end from waiting for more data in push mode
+    public boolean isDrained() {
+        return mIsEos && mDataEnd == mStart;
+    }
+
     public ByteBuffer parse() throws IOException {
         return parse(null);
     }
 
+    // Parse next access unit and copy out, the returned buffer is owned by caller
     public ByteBuffer parse(NalHeader nalHeader) throws IOException {
-        if (mInputStream == null) {
-            throw new IOException("No stream");
+        ByteBuffer view = parseView(nalHeader);
+        if (view == null) {
+            return null;
         }
+        ByteBuffer data = ByteBuffer.allocate(view.remaining());
+        data.put(view);
+        data.flip();
+        release(view);
+        return data;
+    }
 
-        while (! mIsEos || mDataSize > 0) {
-            // Full fill the buffer
-            if (mDataSize < mBuffer.length) {
-                int readed = mInputStream.read(mBuffer, mDataSize, mBuffer.length - mDataSize);
-                if (readed == -1) {
-                    mIsEos = true;
-                } else {
-                    mDataSize += readed;
-                }
+    /**
+     * Parse next access unit without copy
+     *
+     * @return read-only view of the internal buffer, position at the access unit start and limit at the end,
+     *         the content is valid until release(view), the caller should release it as soon as possible,
+     *         null if stream drained, or in push mode more data required
+     */
+    public ByteBuffer parseView(NalHeader nalHeader) throws IOException {
+        if (mViewCount == mViews.length) {
+            throw new IllegalStateException("No free view, release the parsed views first");
+        }
+        if (mWords == null && !readMore()) {
+            return null;
+        }
+
+        while (true) {
+            if (mIsEos && mDataEnd == mStart) {
+                return null;
             }
 
             if (!mCsdCurrent.valid()) {
-                mCsdCurrent = findStartCode(mBuffer, 0, mDataSize);
+                findStartCode(mStart, mDataEnd - mStart, mCsdCurrent);
 
                 // Not started with CSD, H264 bit stream invalid
-                if (mCsdCurrent.pos != 0) throw new InvalidStreamException("Csd " + mCsdCurrent);
+                if (mCsdCurrent.valid() ? mCsdCurrent.pos != mStart : (mIsEos || mDataEnd - mStart > CSD_MAX)) {
+                    throw new InvalidStreamException("Csd " + mCsdCurrent);
+                }
             }
-            if (!mCsdNext.valid()) {
-                mCsdNext = findStartCode(mBuffer,
-                        mCsdCurrent.pos + mCsdCurrent.length,
-                        mDataSize - mCsdCurrent.pos - mCsdCurrent.length * 2 + 1);
-
-                if (!mCsdNext.valid()) {
-                    if (! mIsEos && mDataSize == mBuffer.length) {
-                        byte[] temp = new byte[mBuffer.length * 2];
-                        System.arraycopy(mBuffer, 0, temp, 0, mBuffer.length);
-                        mBuffer = temp;
-                    } else {
-                        mCsdNext.pos = mDataSize;
+            if (mCsdCurrent.valid() && !mCsdNext.valid()) {
+                int offset = Math.max(mCsdCurrent.pos + mCsdCurrent.length, mScanPos);
+                // Keep one byte after the CSD readed, make sure the nal header available
+                int len = mDataEnd - offset - (mIsEos ? 0 : 1);
+                if (!findStartCode(offset, len, mCsdNext)) {
+                    mScanPos = NalScanner.resume(offset, len);
+                    if (mIsEos) {
+                        mCsdNext.pos = mDataEnd;
                         mCsdNext.length = 0;
                     }
                 }
             }
 
             if (mCsdCurrent.valid() && mCsdNext.valid()) {
+                // Header and buffer reused for each nal, nothing allocated in steady state
+                NalHeader header = mNalHeader;
+                header.size = mCsdNext.pos - mCsdCurrent.pos;
+                header.type = (mCsdCurrent.pos + mCsdCurrent.length < mDataEnd) ?
+                        parseNalType(mWords.get(mCsdCurrent.pos + mCsdCurrent.length), mCodec) : NalType.NAL_UNKNOWN;
+                header.pts  = 0;
+                if (mUnitType == null) {
+                    mUnitType = header.type;
+                }
+                NalPolicy.Policy policy = NalPolicy.Policy.CUT;
                 if (mPolicy != null) {
-                    NalHeader header = new NalHeader();
-                    header.size = mCsdNext.pos - mCsdCurrent.pos;
-                    header.type = parseNalType(mBuffer[mCsdCurrent.pos + mCsdCurrent.length]);
-                    NalPolicy.Policy policy = mPolicy.onNal(header,
-                            ByteBuffer.wrap(mBuffer, mCsdCurrent.pos, mCsdNext.pos - mCsdCurrent.pos),
-                            0,
-                            mCsdNext.pos - mCsdCurrent.pos);
-                    switch (policy) {
-                    case CONTINUE:
-                        mCsdCurrent = new StartCode(mCsdNext);
+                    mNalBuffer.limit(mCsdNext.pos);
+                    mNalBuffer.position(mCsdCurrent.pos);
+                    policy = mPolicy.onNal(header, mNalBuffer, 0, header.size);
+                }
+                switch (policy) {
+                case CUT_BEFORE:
+                    if (mCsdCurrent.pos != mStart) {
+                        // Deliver the pending nals, the current nal starts the next access unit
+                        ByteBuffer view = obtainView(mStart, mCsdCurrent.pos);
+                        mUnitMax = Math.max(mUnitMax, mCsdCurrent.pos - mStart);
+                        if (nalHeader != null) {
+                            nalHeader.size = mCsdCurrent.pos - mStart;
+                            nalHeader.type = mUnitType;
+                            nalHeader.pts  = mUnitPts;
+                        }
+                        mStart = mCsdCurrent.pos;
+                        mUnitType = header.type;
+                        mUnitPts = header.pts;
+                        mCsdCurrent.set(mCsdNext.pos, mCsdNext.length);
                         mCsdNext.reset();
-                        break;
-                    case CUT:
-                        int size = mCsdNext.pos;
-                        if (size != 0) {
-                            byte[] data = new byte[size];
-                            System.arraycopy(mBuffer, 0, data, 0, size);
-                            System.arraycopy(mBuffer, size, mBuffer, 0, mDataSize - size);
-                            if (nalHeader != null) {
-                                nalHeader.size = size;
-                                nalHeader.type = parseNalType(data[mCsdCurrent.length]);
-                                nalHeader.pts  = header.pts;
-                            }
-                            mDataSize -= size;
-                            mCsdCurrent = new StartCode(mCsdNext);
-                            mCsdCurrent.pos = 0;
-                            mCsdNext.reset();
-                            return ByteBuffer.wrap(data);
+                        mScanPos = 0;
+                        return view;
+                    }
+                    // Nothing pending, same as continue
+                    mUnitPts = header.pts;
+                    mCsdCurrent.set(mCsdNext.pos, mCsdNext.length);
+                    mCsdNext.reset();
+                    mScanPos = 0;
+                    break;
+                case CONTINUE:
+                    mUnitPts = header.pts;
+                    mCsdCurrent.set(mCsdNext.pos, mCsdNext.length);
+                    mCsdNext.reset();
+                    mScanPos = 0;
+                    break;
+                case CUT:
+                    int size = mCsdNext.pos - mStart;
+                    if (size != 0) {
+                        ByteBuffer view = obtainView(mStart, mCsdNext.pos);
+                        mUnitMax = Math.max(mUnitMax, size);
+                        if (nalHeader != null) {
+                            nalHeader.size = size;
+                            nalHeader.type = mUnitType;
+                            nalHeader.pts  = (header.size != 0) ? header.pts : mUnitPts; // Stream end has no pts
                         }
-                        break;
-                    case SKIP:
-                        System.arraycopy(mBuffer, mCsdNext.pos, mBuffer, 0, mDataSize - mCsdNext.pos);
-                        mDataSize -= mCsdNext.pos;
-                        mCsdCurrent = new StartCode(mCsdNext);
-                        mCsdCurrent.pos = 0;
+                        mStart = mCsdNext.pos;
+                        mUnitType = null;
+                        mCsdCurrent.set(mCsdNext.pos, mCsdNext.length);
                         mCsdNext.reset();
-                        break;
+                        mScanPos = 0;
+                        return view;
                     }
+                    break;
+                case SKIP:
+                    mStart = mCsdNext.pos;
+                    mUnitType = null;
+                    mCsdCurrent.set(mCsdNext.pos, mCsdNext.length);
+                    mCsdNext.reset();
+                    mScanPos = 0;
+                    break;
+                case SKIP_BEFORE:
+                    // Drop the pending nals, the current nal starts the next access unit
+                    mStart = mCsdCurrent.pos;
+                    mUnitType = header.type;
+                    mUnitPts = header.pts;
+                    mCsdCurrent.set(mCsdNext.pos, mCsdNext.length);
+                    mCsdNext.reset();
+                    mScanPos = 0;
+                    break;
                 }
+                continue;
+            }
+
+            // Need more data, wait for the next chunk in push mode
+            if (!readMore()) {
+                return null;
+            }
+        }
+    }
+
+    private boolean readMore() throws IOException {
+        int filled = fill();
+        if (filled < 0) {
+            mIsEos = true;
+        }
+        return filled != 0;
+    }
+
+    /**
+     * Make more data available after the data end and advance it, read from the stream into the ring by default
+     * The pending data may be moved, the offsets moved back by shift()
+     *
+     * @return bytes added, 0 if nothing for now, i.e. wait for the next chunk in push mode, -1 if no more data
+     */
+    protected int fill() throws IOException {
+        if (mInputStream == null && !mIsPush) {
+            throw new IOException("No stream");
+        }
+        if (mBuffer == null) {
+            setBuffer(mPool.acquire(BUFFER_SIZE));
+        }
+        if (mIsPush) {
+            return 0;
+        }
+        // Make room if reach the writable limit
+        if (mDataEnd == writeLimit()) {
+            makeRoom();
+        }
+        int readed = mInputStream.read(mBuffer, mDataEnd, writeLimit() - mDataEnd);
+        if (readed > 0) {
+            mDataEnd += readed;
+        }
+        return readed;
+    }
+
+    // Search the first CSD in [offset, offset + len) of the data, by scanning the bytes by default
+    protected boolean findStartCode(int offset, int len, StartCode csd) {
+        return NalScanner.find(mWords, offset, len, csd);
+    }
+
+    // Data set by subclass instead of the ring, e.g. a mapped window, in native order for scanning
+    // The pending data is at the same place after moved back by the shift, the data ends at the limit
+    protected void setData(ByteBuffer data, int shift) {
+        shift(shift);
+        mWords = data;
+        mNalBuffer = data.asReadOnlyBuffer();
+        mDataEnd = data.limit();
+    }
+
+    /**
+     * Room for the size at the data end of the ring, the data end advanced, for subclass to fill()
+     *
+     * @return offset to write the data in getBuffer()
+     */
+    protected int append(int size) {
+        if (mBuffer == null) {
+            setBuffer(mPool.acquire(Math.max(BUFFER_SIZE, size)));
+        }
+        if (writeLimit() - mDataEnd < size) {
+            makeRoom();
+            if (writeLimit() - mDataEnd < size) {
+                // Still no room after the ring wrapped, grow to fit
+                int pending = mDataEnd - mStart;
+                replaceBuffer(mPool.acquire(Math.max(mBuffer.length * 2, pending + size)), pending);
+            }
+        }
+        int offset = mDataEnd;
+        mDataEnd += size;
+        return offset;
+    }
+
+    // The ring, replaced when grown
+    protected byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    // Offset of the pending access unit
+    protected int getPendingStart() {
+        return mStart;
+    }
+
+    protected int getDataEnd() {
+        return mDataEnd;
+    }
+
+    /**
+     * Parse next access unit and copy into the destination directly, e.g. MediaCodec input buffer
+     * Do not mix with parse() and parseView(), a undelivered access unit is kept by this method only
+     *
+     * @param dst written from the current position, position advanced after written
+     * @param nalHeader filled even if overflow, the size tells how much room required
+     * @return size written, -1 if stream drained, or in push mode more data required
+     * @throws BufferOverflowException if the destination too small, nothing written,
+     *         the access unit is kept and will be delivered by next call
+     */
+    public int parseInto(ByteBuffer dst, NalHeader nalHeader) throws IOException {
+        if (mUndelivered == null) {
+            mUndelivered = parseView(mUndeliveredHeader);
+            if (mUndelivered == null) {
+                return -1;
+            }
+        }
+        if (nalHeader != null) {
+            nalHeader.type = mUndeliveredHeader.type;
+            nalHeader.size = mUndeliveredHeader.size;
+            nalHeader.pts  = mUndeliveredHeader.pts;
+        }
+        int size = mUndelivered.remaining();
+        if (size > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        dst.put(mUndelivered);
+        release(mUndelivered);
+        mUndelivered = null;
+        return size;
+    }
+
+    /**
+     * Drop the access unit kept by parseInto() after overflow, e.g. too large for any destination
+     *
+     * @return true if a access unit dropped
+     */
+    public boolean skipUndelivered() {
+        if (mUndelivered == null) {
+            return false;
+        }
+        release(mUndelivered);
+        mUndelivered = null;
+        return true;
+    }
+
+    /**
+     * Release view returned by parseView(), the space can be reused for following data
+     * Views released out of order will be recycled after all the earlier views released
+     */
+    public void release(ByteBuffer view) {
+        for (int i = 0; i < mViewCount; i++) {
+            int slot = (mViewHead + i) % mViews.length;
+            if (mViews[slot] == view) {
+                mViewReleased[slot] = true;
+                break;
             }
         }
-        return null;
+        while (mViewCount > 0 && mViewReleased[mViewHead]) {
+            mViewHead = (mViewHead + 1) % mViews.length;
+            mViewCount--;
+        }
+    }
+
+    // View of the data to return, a slot of the ring by default
+    protected ByteBuffer obtainView(int start, int end) {
+        int slot = (mViewHead + mViewCount) % mViews.length;
+        if (mViews[slot] == null) {
+            mViews[slot] = ByteBuffer.wrap(mBuffer).asReadOnlyBuffer();
+        }
+        ByteBuffer view = mViews[slot];
+        view.limit(end);
+        view.position(start);
+        mViewStart[slot] = start;
+        mViewReleased[slot] = false;
+        mViewCount++;
+        return view;
+    }
+
+    // Oldest outstanding view located after the pending data, means the ring wrapped
+    private boolean isWrapped() {
+        return mViewCount > 0 && mViewStart[mViewHead] >= mStart;
+    }
+
+    private int writeLimit() {
+        return isWrapped() ? mViewStart[mViewHead] : mBuffer.length;
+    }
+
+    private void makeRoom() {
+        int pending = mDataEnd - mStart;
+        int free = (mViewCount > 0) ? mViewStart[mViewHead] : mStart; // Free space at buffer head
+        if (!isWrapped() && pending <= free / 2) {
+            // Large access units gone for a while, move to a smaller buffer, let other sessions reuse the large one
+            int unitMax = Math.max(mUnitMax, pending);
+            mSmallWraps = (mBuffer.length > BUFFER_SIZE && unitMax * 4 <= mBuffer.length) ? mSmallWraps + 1 : 0;
+            mUnitMax = 0;
+            if (mSmallWraps >= SHRINK_WRAPS && mViewCount == 0) {
+                mSmallWraps = 0;
+                replaceBuffer(mPool.acquire(Math.max(BUFFER_SIZE, unitMax * 2)), pending);
+                return;
+            }
+            // Wrap the ring, move pending data to the buffer head, outstanding views kept untouched
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, pending);
+            shift(mStart);
+        } else {
+            mSmallWraps = 0;
+            replaceBuffer(mPool.acquire(mBuffer.length * 2), pending);
+        }
+    }
+
+    // Move pending data to the new buffer, outstanding views keep referencing the old buffer,
+    // no longer limit the new one, the old buffer returned to pool only if no view outstanding
+    private void replaceBuffer(byte[] buffer, int pending) {
+        System.arraycopy(mBuffer, mStart, buffer, 0, pending);
+        shift(mStart);
+        if (mViewCount == 0) {
+            mPool.release(mBuffer);
+        }
+        setBuffer(buffer);
+        mViewHead = 0;
+        mViewCount = 0;
+    }
+
+    private void setBuffer(byte[] buffer) {
+        mBuffer = buffer;
+        mWords = wrapWords(mBuffer);
+        mNalBuffer = ByteBuffer.wrap(mBuffer);
+        mViews = new ByteBuffer[VIEW_COUNT];
+    }
+
+    private static ByteBuffer wrapWords(byte[] buffer) {
+        return ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+    }
+
+    // Data moved back by the offset
+    protected void shift(int offset) {
+        mStart -= offset;
+        mDataEnd -= offset;
+        mScanPos -= offset;
+        if (mCsdCurrent.valid()) mCsdCurrent.pos -= offset;
+        if (mCsdNext.valid()) mCsdNext.pos -= offset;
+    }
+
+    // Guess the codec by file extension, H264 if unknown
+    public static Codec guessCodec(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        if (lower.endsWith(".h265") || lower.endsWith(".265") || lower.endsWith(".hevc")) {
+            return Codec.HEVC;
+        }
+        return Codec.H264;
+    }
+
+    public static NalType parseNalType(byte header, Codec codec) {
+        return (codec == Codec.HEVC) ? parseHevcNalType(header) : parseNalType(header);
+    }
+
+    // HEVC nal header is two bytes, the type is in the first one (7.3.1.2)
+    public static NalType parseHevcNalType(byte header) {
+        int nal_unit_type = (header >> 1) & 0x3F; // 0b 0111 1110
+        switch (nal_unit_type) {
+        case 0: case 1: case 2: case 3: case 4: // TRAIL, TSA, STSA
+        case 5: case 6: case 7: case 8: case 9: // RADL, RASL
+            return NalType.NAL_SLICE;
+        case 16: case 17: case 18: // BLA
+        case 21:                   // CRA
+            return NalType.NAL_IRAP_SLICE;
+        case 19: case 20: return NalType.NAL_IDR_SLICE;
+        case 32: return NalType.NAL_VPS;
+        case 33: return NalType.NAL_SPS;
+        case 34: return NalType.NAL_PPS;
+        case 35: return NalType.NAL_AUD;
+        case 36: return NalType.NAL_END_SEQUENCE;
+        case 37: return NalType.NAL_END_STREAM;
+        case 38: return NalType.NAL_FILLER_DATA;
+        case 39: return NalType.NAL_SEI;
+        case 40: return NalType.NAL_SEI_SUFFIX;
+        default:
+            break;
+        }
+        return NalType.NAL_UNKNOWN;
     }
 
     public static NalType parseNalType(byte header) {
@@ -203,30 +660,17 @@ public class NalParser {
 
     @NonNull
     public static StartCode findStartCode(byte[] data, int offset, int len) {
+        return findStartCode(ByteBuffer.wrap(data), offset, len);
+    }
+
+    @NonNull
+    public static StartCode findStartCode(ByteBuffer data, int offset, int len) {
         StartCode csd = new StartCode();
-        int matched = 0;
-        for (int i = 0; i < len; i++) {
-            switch (data[offset + i]) {
-            case 0x00:
-                matched++;
-                break;
-            case 0x01:
-                matched++;
-                if (CSD_MIN <= matched && matched <= CSD_MAX) {
-                    csd.pos    = offset + i - matched + 1;
-                    csd.length = matched;
-                    return csd;
-                }
-                break;
-            default:
-                matched = 0;
-                break;
-            }
-        }
+        NalScanner.find(data, offset, len, csd);
         return csd;
     }
 
-    private static class SimpleNalPolicy implements NalPolicy {
+    static class SimpleNalPolicy implements NalPolicy {
         @Override
         public Policy onNal(NalHeader hdr, ByteBuffer buffer, int offset, int len) {
             return Policy.CUT;
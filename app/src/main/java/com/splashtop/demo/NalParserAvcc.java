@@ -0,0 +1,85 @@
+package com.splashtop.demo;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Parse length-prefixed stream (AVCC), each nal led by its big-endian length instead of CSD
+// The nal boundaries are known by the length, no CSD scanning at all
+// Each length replaced by a 4 bytes CSD, the output is Annex-B, the same as NalParser for MediaCodec
+// The parse loop and the ring of NalParser, the nals read one by one into the ring instead of the raw stream
+public class NalParserAvcc extends NalParser {
+
+    private static final byte[] START_CODE = {0x00, 0x00, 0x00, 0x01};
+
+    private final DataInputStream mStream;
+    private final int mLengthSize;
+    private int mLastStart = -1;    // Offset of the last nal read in the ring
+    private long mPosition = 0;     // Offset of the next nal in the stream
+
+    /**
+     * @param lengthSize bytes of the nal length, 1, 2 or 4, lengthSizeMinusOne + 1 in the avcC/hvcC record
+     */
+    public NalParserAvcc(InputStream stream, int lengthSize) {
+        if (lengthSize != 1 && lengthSize != 2 && lengthSize != 4) {
+            throw new IllegalArgumentException("Invalid length size " + lengthSize);
+        }
+        setStream(stream); // Closed by close(), not fed
+        mStream = new DataInputStream(stream);
+        mLengthSize = lengthSize;
+    }
+
+    public NalParserAvcc(InputStream stream, int lengthSize, NalPolicy policy) {
+        this(stream, lengthSize);
+        setPolicy(policy);
+    }
+
+    // Read next nal into the ring with CSD
+    @Override
+    protected int fill() throws IOException {
+        int length = mStream.read();
+        if (length == -1) {
+            return -1;
+        }
+        try {
+            for (int i = 1; i < mLengthSize; i++) {
+                length = (length << 8) | mStream.readUnsignedByte();
+            }
+        } catch (EOFException ex) {
+            throw new InvalidStreamException("Length truncated at " + mPosition, ex);
+        }
+        if (length <= 0 || length > Integer.MAX_VALUE / 2 - START_CODE.length) {
+            throw new InvalidStreamException("Nal length " + length + " at " + mPosition);
+        }
+        int size = START_CODE.length + length;
+        int offset = append(size);
+        byte[] buffer = getBuffer();
+        System.arraycopy(START_CODE, 0, buffer, offset, START_CODE.length);
+        try {
+            mStream.readFully(buffer, offset + START_CODE.length, length);
+        } catch (EOFException ex) {
+            throw new InvalidStreamException("Nal truncated at " + mPosition, ex);
+        }
+        mPosition += mLengthSize + length;
+        mLastStart = offset;
+        return size;
+    }
+
+    // One nal read at a time, the next nal after the current one is always the last read
+    @Override
+    protected boolean findStartCode(int offset, int len, StartCode csd) {
+        if (mLastStart >= offset && mLastStart < offset + len) {
+            csd.set(mLastStart, START_CODE.length);
+            return true;
+        }
+        csd.reset();
+        return false;
+    }
+
+    @Override
+    protected void shift(int offset) {
+        super.shift(offset);
+        mLastStart -= offset;
+    }
+}
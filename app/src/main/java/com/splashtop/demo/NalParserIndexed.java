@@ -0,0 +1,403 @@
+package com.splashtop.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Parse H264 stream by the index file, each entry gives the access unit size and pts
+// Read exactly the indexed size per access unit, no CSD scanning, only the leading CSD verified
+// The policy if set is called once per access unit with the pts from index, e.g. to overwrite the pts,
+// SKIP drops the access unit, a smaller header size delivers only the leading part, e.g. the parameter sets
+// The buffer is taken from the shared BufferPool, returned by close()
+// seek() jumps to a keyframe by the table built from the index, scanned only as far as the pts sought and
+// extended by later seeks, the streams repositioned by the file channel of FileInputStream, or reset to the mark
+// set on construction if the stream supports it
+// With the NalIndex v2 the keyframe table is in the index, read in place, only the stream repositioned
+public class NalParserIndexed extends NalParser {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    private static final int INDEX_ENTRY_SIZE = 12; // int size + long pts
+
+    private final InputStream mRawStream;
+    private final InputStream mRawIndex;
+    private final long mStreamStart;  // Position of stream start for seek, -1 if not seekable
+    private final long mIndexStart;
+    private final DataInputStream mStream;
+    private final DataInputStream mIndex;     // v1 index, null if v2
+    private final NalIndex.Cursor mCursor;    // v2 index, null if v1
+    private final NalIndex mIndexV2;
+    private NalPolicyIndex.PtsType mPtsType = NalPolicyIndex.PtsType.MICROSECOND;
+    private BufferPool mPool = BufferPool.getDefault();
+    private byte[] mBuffer;         // Readed access unit
+    private ByteBuffer mBufferView; // Reused for each access unit
+    private ByteBuffer mNalBuffer;  // Pass the access unit to policy
+    private final NalHeader mNalHeader = new NalHeader();
+    private ByteBuffer mView;       // Outstanding view, only one at a time
+    private long mPosition = 0;     // Offset of the next access unit in the stream
+
+    // Keyframe table in stream order, extended by seek up to the pts sought
+    private int mKeyCount = 0;
+    private long[] mKeyPts = new long[16];        // Pts in microsecond
+    private long[] mKeyOffset = new long[16];     // Offset of the first unit to read, the adjacent parameter sets if any
+    private int[] mKeyEntry = new int[16];        // Index entry of the first unit to read
+    private byte[][] mKeyConfig = new byte[16][]; // Parameter sets sent before the keyframe if not adjacent, null if adjacent or none
+    private NalIndex.Peeker mPeeker;
+    private int mScanEntry = 0;                   // Next index entry to scan
+    private long mScanOffset = 0;                 // Offset of the next entry to scan
+    private long mScanPts = Long.MIN_VALUE;       // Pts of the last entry scanned
+    private boolean mScanEnd = false;             // Whole index scanned
+    private byte[] mScanConfig;                   // Last parameter sets scanned
+    private int mScanConfigEntry = -1;            // Entry of the last config unit, -1 if the config from a keyframe
+    private long mScanConfigOffset;
+    private byte[] mPendingConfig;  // Parameter sets to send before next unit after seek
+    private long mPendingConfigPts;
+
+    // The BufferedInputStream is not marked for seek, it would keep everything read since the mark
+    public NalParserIndexed(InputStream stream, InputStream index) {
+        mRawStream = stream;
+        mRawIndex = index;
+        mStreamStart = markStart(stream);
+        mIndexStart = markStart(index);
+        mStream = new DataInputStream(stream);
+        mIndex = new DataInputStream(index);
+        mIndexV2 = null;
+        mCursor = null;
+    }
+
+    // Read by the index v2, the pts in microsecond whatever the pts type
+    public NalParserIndexed(InputStream stream, NalIndex index) {
+        mRawStream = stream;
+        mRawIndex = null;
+        mStreamStart = markStart(stream);
+        mIndexStart = 0;
+        mStream = new DataInputStream(stream);
+        mIndex = null;
+        mIndexV2 = index;
+        mCursor = index.cursor();
+    }
+
+    public NalParserIndexed setPtsType(NalPolicyIndex.PtsType t) {
+        mPtsType = t;
+        return this;
+    }
+
+    @Override
+    public void setBufferPool(BufferPool pool) {
+        super.setBufferPool(pool);
+        mPool.release(mBuffer);
+        mBuffer = null;
+        mPool = pool;
+    }
+
+    @Override
+    public ByteBuffer parseView(NalHeader nalHeader) throws IOException {
+        if (mView != null) {
+            throw new IllegalStateException("No free view, release the parsed view first");
+        }
+
+        while (true) {
+            int size;
+            long pts;
+            if (mPendingConfig != null) {
+                // Parameter sets of the keyframe sought
+                size = mPendingConfig.length;
+                pts  = mPendingConfigPts;
+                ensureBuffer(size);
+                System.arraycopy(mPendingConfig, 0, mBuffer, 0, size);
+                mPendingConfig = null;
+            } else {
+                if (mCursor != null) {
+                    if (!mCursor.next()) {
+                        return null;
+                    }
+                    size = mCursor.size;
+                    pts  = mCursor.ptsUs;
+                } else {
+                    try {
+                        size = mIndex.readInt();
+                        pts  = NalPolicyIndex.toMicrosecond(mIndex.readLong(), mPtsType);
+                    } catch (EOFException ex) {
+                        return null;
+                    }
+                }
+                if (size <= CSD_MIN) {
+                    throw new InvalidStreamException("Index size " + size + " at " + mPosition);
+                }
+
+                ensureBuffer(size);
+                try {
+                    mStream.readFully(mBuffer, 0, size);
+                } catch (EOFException ex) {
+                    throw new InvalidStreamException("Stream shorter than index at " + mPosition, ex);
+                }
+                mPosition += size;
+            }
+
+            int csd = leadingStartCode(mBuffer, size);
+            if (csd == 0) {
+                throw new InvalidStreamException("Csd not found at " + (mPosition - size));
+            }
+
+            NalHeader header = mNalHeader;
+            header.size = size;
+            header.type = parseNalType(mBuffer[csd], getCodec());
+            header.pts  = pts;
+
+            NalPolicy policy = getPolicy();
+            if (policy != null) {
+                mNalBuffer.limit(size);
+                mNalBuffer.position(0);
+                if (policy.onNal(header, mNalBuffer, 0, size) == NalPolicy.Policy.SKIP) {
+                    continue;
+                }
+                size = Math.min(size, header.size);
+            }
+            if (nalHeader != null) {
+                nalHeader.size = size;
+                nalHeader.type = header.type;
+                nalHeader.pts  = header.pts;
+            }
+            mView = mBufferView;
+            mView.limit(size);
+            mView.position(0);
+            return mView;
+        }
+    }
+
+    /**
+     * Seek to the keyframe at or before the pts, the first keyframe if all after it
+     * The next parsed unit is the parameter sets of the keyframe if any, then the keyframe
+     * The v1 index is scanned for keyframes only up to the pts, once scanned the seek is a binary search
+     *
+     * @return pts of the keyframe in microsecond, -1 if no keyframe in stream
+     */
+    public long seek(long ptsUs) throws IOException {
+        if (mView != null) {
+            throw new IllegalStateException("No free view, release the parsed view first");
+        }
+        if (mStreamStart < 0 || mIndexStart < 0) {
+            throw new IOException("Stream not seekable");
+        }
+        if (mIndexV2 != null) {
+            return seekIndexV2(ptsUs);
+        }
+        if (!mScanEnd && (mKeyCount == 0 || mScanPts <= ptsUs)) {
+            scanKeyframes(ptsUs);
+        }
+        if (mKeyCount == 0) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = mKeyCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mKeyPts[mid] <= ptsUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        reposition(mRawStream, mStreamStart, mKeyOffset[low]);
+        reposition(mRawIndex, mIndexStart, (long) mKeyEntry[low] * INDEX_ENTRY_SIZE);
+        mPosition = mKeyOffset[low];
+        mPendingConfig = mKeyConfig[low];
+        mPendingConfigPts = mKeyPts[low];
+        return mKeyPts[low];
+    }
+
+    // Keyframes found, for the v1 index only the ones scanned by seek so far
+    public int getKeyframeCount() {
+        return (mIndexV2 != null) ? mIndexV2.getKeyframeCount() : mKeyCount;
+    }
+
+    private long seekIndexV2(long ptsUs) throws IOException {
+        int keyframe = mIndexV2.findKeyframe(ptsUs);
+        if (keyframe < 0) {
+            return -1;
+        }
+        long keyPtsUs = mIndexV2.getKeyframePts(keyframe);
+        long configOffset = mIndexV2.getConfigOffset(keyframe);
+        if (configOffset >= 0) {
+            // Parameter sets not adjacent, read before the keyframe
+            byte[] config = new byte[mIndexV2.getConfigSize(keyframe)];
+            reposition(mRawStream, mStreamStart, configOffset);
+            try {
+                mStream.readFully(config);
+            } catch (EOFException ex) {
+                throw new InvalidStreamException("Stream shorter than index at " + configOffset, ex);
+            }
+            mPendingConfig = config;
+            mPendingConfigPts = keyPtsUs;
+        } else {
+            mPendingConfig = null;
+        }
+        mPosition = mIndexV2.getKeyframeOffset(keyframe);
+        reposition(mRawStream, mStreamStart, mPosition);
+        mCursor.seek(keyframe);
+        return keyPtsUs;
+    }
+
+    @Override
+    public void release(ByteBuffer view) {
+        if (view == mView) {
+            mView = null;
+        }
+    }
+
+    // Return the buffer to pool, left to GC instead if the view not released, and close the streams
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (mView == null) {
+            mPool.release(mBuffer);
+        }
+        mBuffer = null;
+        mView = null;
+        mStream.close();
+        if (mIndex != null) {
+            mIndex.close();
+        }
+    }
+
+    private void ensureBuffer(int size) {
+        if (mBuffer == null || mBuffer.length < size) {
+            mPool.release(mBuffer);
+            mBuffer = mPool.acquire(size);
+            mBufferView = ByteBuffer.wrap(mBuffer).asReadOnlyBuffer();
+            mNalBuffer = ByteBuffer.wrap(mBuffer);
+        }
+    }
+
+    // Continue through the index until a unit after the pts, only the nals before the first slice read for the types
+    // Parameter sets right before the keyframe are read again on seek, otherwise the last ones are copied
+    private void scanKeyframes(long ptsUs) throws IOException {
+        reposition(mRawIndex, mIndexStart, (long) mScanEntry * INDEX_ENTRY_SIZE);
+        reposition(mRawStream, mStreamStart, mScanOffset);
+        if (mPeeker == null) {
+            mPeeker = new NalIndex.Peeker(getCodec());
+        }
+        NalIndex.Peeker peeker = mPeeker;
+        int scanned = 0;
+        while (mKeyCount == 0 || mScanPts <= ptsUs) {
+            int size;
+            long pts;
+            try {
+                size = mIndex.readInt();
+                pts  = NalPolicyIndex.toMicrosecond(mIndex.readLong(), mPtsType);
+            } catch (EOFException ex) {
+                mScanEnd = true;
+                break;
+            }
+            int unit;
+            try {
+                unit = peeker.read(mStream, size).flags;
+                if (unit == NalIndex.FLAG_CONFIG) {
+                    // Parameter sets only, read whole
+                    mScanConfig = Arrays.copyOf(peeker.data, size);
+                }
+                skipFully(mStream, size - peeker.length);
+            } catch (EOFException ex) {
+                throw new InvalidStreamException("Stream shorter than index at " + mScanOffset, ex);
+            }
+
+            int entry = mScanEntry;
+            if ((unit & NalIndex.FLAG_KEYFRAME) != 0) {
+                // Parameter sets in the same unit or adjacent need no copy
+                boolean adjacent = mScanConfigEntry >= 0 && mScanConfigEntry == entry - 1;
+                boolean own = (unit & NalIndex.FLAG_CONFIG) != 0;
+                addKeyframe(pts, adjacent ? mScanConfigOffset : mScanOffset, adjacent ? mScanConfigEntry : entry,
+                        (adjacent || own) ? null : mScanConfig);
+                if (own) {
+                    // Nals before the slice kept for the later keyframes without parameter sets
+                    mScanConfig = Arrays.copyOf(peeker.data, peeker.slice);
+                    mScanConfigEntry = -1;
+                }
+            } else if (unit == NalIndex.FLAG_CONFIG) {
+                mScanConfigEntry = entry;
+                mScanConfigOffset = mScanOffset;
+            }
+            mScanEntry++;
+            mScanOffset += size;
+            mScanPts = pts;
+            scanned++;
+        }
+        sLogger.debug("Scanned units:{} keyframes:{} bytes:{} end:{}", scanned, mKeyCount, mScanOffset, mScanEnd);
+    }
+
+    private void addKeyframe(long pts, long offset, int entry, byte[] config) {
+        if (mKeyCount == mKeyPts.length) {
+            int capacity = mKeyCount * 2;
+            mKeyPts = Arrays.copyOf(mKeyPts, capacity);
+            mKeyOffset = Arrays.copyOf(mKeyOffset, capacity);
+            mKeyEntry = Arrays.copyOf(mKeyEntry, capacity);
+            mKeyConfig = Arrays.copyOf(mKeyConfig, capacity);
+        }
+        mKeyPts[mKeyCount] = pts;
+        mKeyOffset[mKeyCount] = offset;
+        mKeyEntry[mKeyCount] = entry;
+        mKeyConfig[mKeyCount] = config;
+        mKeyCount++;
+    }
+
+    // Start position of the stream for seek, -1 if not seekable
+    private static long markStart(InputStream in) {
+        if (in instanceof FileInputStream) {
+            try {
+                return ((FileInputStream) in).getChannel().position();
+            } catch (IOException ex) {
+                return -1;
+            }
+        }
+        if (in.markSupported() && !(in instanceof BufferedInputStream)) {
+            in.mark(Integer.MAX_VALUE);
+            return 0;
+        }
+        return -1;
+    }
+
+    // DataInputStream has no buffer, the wrapped stream position is the position read
+    private static void reposition(InputStream in, long start, long position) throws IOException {
+        if (in instanceof FileInputStream) {
+            ((FileInputStream) in).getChannel().position(start + position);
+            return;
+        }
+        in.reset();
+        skipFully(in, position);
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    // Length of the CSD at the buffer start, 0 if not a CSD or nothing follows
+    private static int leadingStartCode(byte[] data, int len) {
+        int zeros = 0;
+        while (zeros < len && zeros < CSD_MAX && data[zeros] == 0x00) {
+            zeros++;
+        }
+        int length = zeros + 1;
+        if (length < CSD_MIN || length > CSD_MAX || length >= len || data[zeros] != 0x01) {
+            return 0;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,124 @@
+package com.splashtop.demo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Parse H264 file through memory mapping, scan CSD over the mapped pages directly
+// Returned access units are read-only slices of the mapping, no heap buffer involved, release() is optional,
+// a released view is reused for the next access unit
+// The file is mapped by sliding window, support files larger than 2GB
+// The parse loop of NalParser, only the data source and the views replaced
+public class NalParserMapped extends NalParser {
+
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024; // Keep small for 32-bit process address space
+
+    private final FileChannel mChannel;
+    private final boolean mOwnChannel;
+    private final long mOffset;  // Offset of the stream in the channel
+    private final long mLength;  // Length of the stream in the channel
+
+    private int mWindowSize = WINDOW_SIZE;
+    private MappedByteBuffer mWindow;
+    private long mWindowOffset = 0; // Offset of the window in the stream
+    private ByteBuffer mLastView;   // Last returned view of the current window
+    private ByteBuffer mFreeView;   // Released view of the current window, reused by next access unit
+    private long mPosition = -1;    // Offset of the last returned access unit in the stream
+
+    public NalParserMapped(File file) throws IOException {
+        this(file, new SimpleNalPolicy());
+    }
+
+    public NalParserMapped(File file, NalPolicy policy) throws IOException {
+        this(new FileInputStream(file).getChannel(), true, 0, file.length(), policy);
+    }
+
+    // Parse part of the channel, e.g. uncompressed asset from AssetFileDescriptor
+    // The channel is owned by caller, not closed by the parser
+    public NalParserMapped(FileChannel channel, long offset, long length, NalPolicy policy) {
+        this(channel, false, offset, length, policy);
+    }
+
+    private NalParserMapped(FileChannel channel, boolean own, long offset, long length, NalPolicy policy) {
+        mChannel = channel;
+        mOwnChannel = own;
+        mOffset = offset;
+        mLength = length;
+        setPolicy(policy);
+    }
+
+    public NalParserMapped setWindowSize(int size) {
+        mWindowSize = size;
+        return this;
+    }
+
+    // Offset of the last returned access unit in the stream, -1 if nothing returned yet
+    public long position() {
+        return mPosition;
+    }
+
+    // Reach the window end, slide the window to the pending access unit
+    // Grow the window if the access unit is larger than half window
+    @Override
+    protected int fill() throws IOException {
+        if (mWindow == null) {
+            return (mLength > 0) ? map(0, mWindowSize) : -1;
+        }
+        int start = getPendingStart();
+        int end = getDataEnd();
+        if (mWindowOffset + end == mLength) {
+            return -1;
+        }
+        return map(mWindowOffset + start, Math.max(mWindowSize, (end - start) * 2));
+    }
+
+    @Override
+    protected ByteBuffer obtainView(int start, int end) {
+        ByteBuffer view = mFreeView;
+        mFreeView = null;
+        if (view == null) {
+            view = mWindow.asReadOnlyBuffer();
+        }
+        view.limit(end);
+        view.position(start);
+        mLastView = view;
+        mPosition = mWindowOffset + start;
+        return view;
+    }
+
+    @Override
+    public void release(ByteBuffer view) {
+        // Slices of the mapping, nothing to recycle, keep it for reuse if still in the current window
+        if (view != null && view == mLastView) {
+            mFreeView = view;
+            mLastView = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        mWindow = null;
+        if (mOwnChannel) {
+            mChannel.close();
+        }
+    }
+
+    // Bytes mapped after the previous data end
+    private int map(long offset, int size) throws IOException {
+        int shift = (int) (offset - mWindowOffset);
+        long dataEnd = mWindowOffset + getDataEnd();
+        long length = Math.min(size, mLength - offset);
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, mOffset + offset, length);
+        mWindow.order(ByteOrder.nativeOrder()); // Faster word scanning
+        mLastView = null;
+        mFreeView = null;
+        mWindowOffset = offset;
+        setData(mWindow, shift);
+        return (int) (offset + length - dataEnd);
+    }
+}
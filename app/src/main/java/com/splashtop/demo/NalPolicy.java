@@ -28,10 +28,23 @@ import java.nio.ByteBuffer;
  * onNal(NAL-B): Return SKIP
  * onNal(NAL-C): Return CUT
  * Will split into 2 buffers: NAL-A, NAL-C
+ *
+ * onNal(NAL-A): Return CONTINUE
+ * onNal(NAL-B): Return CUT_BEFORE
+ * onNal(NAL-C): Return CUT
+ * Will split into 2 buffers: NAL-A, NAL-B NAL-C
+ * CUT_BEFORE is for the policy only knows the access unit end by the first nal of next one,
+ * e.g. AUD or the first slice of next picture, the pending buffer delivered once the next one parsed
+ *
+ * onNal(NAL-A): Return CONTINUE
+ * onNal(NAL-B): Return SKIP_BEFORE
+ * onNal(NAL-C): Return CUT
+ * Will split into 1 buffer: NAL-B NAL-C
+ * SKIP_BEFORE drops the pending nals instead, e.g. a picture skipped by NalPolicyShedding
  */
 public interface NalPolicy {
 
-    enum Policy { CONTINUE, CUT, SKIP }
+    enum Policy { CONTINUE, CUT, SKIP, CUT_BEFORE, SKIP_BEFORE }
 
     Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len);
 
@@ -0,0 +1,60 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+
+// Group H264 nals into complete access units without index file, one buffer per picture for the codec
+// A new access unit starts by AUD, SPS, PPS, SEI, or a slice with first_mb_in_slice 0 after the picture slices (7.4.1.2.3)
+// Parameter sets and SEI are attached to the following picture, end of sequence or stream closes the current one
+// The access unit end is only known by the first nal of next one, it is delivered one nal late, CUT_BEFORE that nal
+public class NalPolicyAccessUnit implements NalPolicy {
+
+    private final BitReader mReader = new BitReader();
+    private boolean mHasPicture = false; // Slices of a picture pending
+
+    @Override
+    public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+        if (len == 0) {
+            // Stream end, deliver the pending
+            mHasPicture = false;
+            return Policy.CUT;
+        }
+
+        switch (hdr.type) {
+        case NAL_AUD:
+        case NAL_SPS:
+        case NAL_PPS:
+        case NAL_SEI:
+            if (mHasPicture) {
+                mHasPicture = false;
+                return Policy.CUT_BEFORE;
+            }
+            return Policy.CONTINUE;
+        case NAL_SLICE:
+        case NAL_IDR_SLICE:
+        case NAL_DPA:
+            boolean first = isFirstSlice(buffer, buffer.position() + offset, len);
+            if (first && mHasPicture) {
+                return Policy.CUT_BEFORE;
+            }
+            mHasPicture = true;
+            return Policy.CONTINUE;
+        case NAL_END_SEQUENCE:
+        case NAL_END_STREAM:
+            mHasPicture = false;
+            return Policy.CUT;
+        default:
+            // Partitions B and C, filler, auxiliary slices belong to the current picture
+            return Policy.CONTINUE;
+        }
+    }
+
+    private boolean isFirstSlice(ByteBuffer buffer, int offset, int len) {
+        try {
+            // Only the bytes of first_mb_in_slice loaded, not the whole slice
+            return mReader.resetNal(buffer, offset, len).readUE() == 0;
+        } catch (NalParser.InvalidStreamException ex) {
+            // Truncated slice, treat as a new picture
+            return true;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 // Work with NalParser, split nals buffer by index file
+// NalParserIndexed reads the same index without scanning, prefer it when no per-nal policy required
 public class NalPolicyIndex implements NalPolicy {
 
     public enum PtsType { MILLISECOND, MICROSECOND, NANOSECOND }
@@ -45,13 +46,17 @@ public class NalPolicyIndex implements NalPolicy {
         }
         mSizeParsed = 0;
         if (hdr != null) {
-            long ptsUs = mPtsIndex;
-            switch (mPtsType) {
-            case MILLISECOND: ptsUs = mPtsIndex * 1000; break;
-            case NANOSECOND:  ptsUs = mPtsIndex / 1000; break;
-            }
-            hdr.pts = ptsUs; // microsecond (10^-6)
+            hdr.pts = toMicrosecond(mPtsIndex, mPtsType);
         }
         return Policy.CUT;
     }
+
+    // Convert the index pts to microsecond (10^-6)
+    public static long toMicrosecond(long pts, PtsType type) {
+        switch (type) {
+        case MILLISECOND: return pts * 1000;
+        case NANOSECOND:  return pts / 1000;
+        }
+        return pts;
+    }
 }
@@ -0,0 +1,261 @@
+package com.splashtop.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+// Generate PTS in presentation order by the H264 picture order count (8.2.1), for streams with B-frames
+// POC computed from the slice header with the active SPS and PPS, all of pic_order_cnt_type 0, 1 and 2
+// POC restarts from each IDR, the PTS continues after the largest one given, start from one interval as NalPolicyFixedRate
+// Frames assumed to step POC by 2 (one per field) for type 0 and 1, stepped by 1 once an odd frame POC seen
+// Type 2 has no reordering, the output order is the decode order
+// Memory management control operation 5 not detected, the POC of such stream only correct from next IDR
+public class NalPolicyPoc extends NalPolicy.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    private final NalSps[] mSpsList = new NalSps[32];
+    private final NalPps[] mPpsList = new NalPps[256];
+    private NalSps mSpsParser = new NalSps(); // Swapped with the replaced one in list
+    private NalPps mPpsParser = new NalPps();
+    private final BitReader mReader = new BitReader();
+
+    private long mFrameIntervalUs; // Microsecond 10^-6, 0 to use the SPS timing
+    private long mIntervalUs;      // Interval in use
+    private long mBasePtsUs;       // Pts of POC 0 in current sequence
+    private long mMaxPtsUs;
+    private long mPicturePtsUs;    // Pts of current picture, for the slices after the first
+    private boolean mStarted = false;
+    private int mPocShift = 1;     // POC to frames, divided by 2 or 1
+    private int mPoc;
+
+    // Decoding state of the previous pictures (8.2.1.1 to 8.2.1.3)
+    private int mPrevPocMsb;
+    private int mPrevPocLsb;
+    private int mPrevFrameNum;
+    private int mPrevFrameNumOffset;
+
+    /**
+     * @param fps frame rate for the POC step, 0 to use the VUI timing of SPS
+     */
+    public NalPolicyPoc(NalPolicy delegate, int fps) {
+        super(delegate);
+        setFps(fps);
+    }
+
+    public NalPolicyPoc setFps(int fps) {
+        mFrameIntervalUs = (fps > 0) ? (long) ((1.0 / fps) * 1000000) : 0;
+        mIntervalUs = mFrameIntervalUs;
+        return this;
+    }
+
+    // POC of the last picture
+    public int getPoc() {
+        return mPoc;
+    }
+
+    @Override
+    public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+        Policy policy = super.onNal(hdr, buffer, offset, len);
+        if (hdr == null || len == 0) {
+            return policy;
+        }
+        int pos = buffer.position() + offset;
+        try {
+            switch (hdr.type) {
+            case NAL_SPS:
+                NalSps sps = mSpsParser.parse(buffer, pos, len);
+                mSpsParser = (mSpsList[sps.spsId] != null) ? mSpsList[sps.spsId] : new NalSps();
+                mSpsList[sps.spsId] = sps;
+                hdr.pts = 0;
+                break;
+            case NAL_PPS:
+                NalPps pps = mPpsParser.parse(buffer, pos, len);
+                mPpsParser = (mPpsList[pps.ppsId] != null) ? mPpsList[pps.ppsId] : new NalPps();
+                mPpsList[pps.ppsId] = pps;
+                hdr.pts = 0;
+                break;
+            case NAL_SLICE:
+            case NAL_IDR_SLICE:
+            case NAL_DPA:
+                hdr.pts = onSlice(hdr.type == NalParser.NalType.NAL_IDR_SLICE, buffer, pos, len);
+                break;
+            default:
+                hdr.pts = 0;
+                break;
+            }
+        } catch (NalParser.InvalidStreamException ex) {
+            sLogger.warn("Failed to parse {} - {}", hdr.type, ex.getMessage());
+            if (hdr.type != NalParser.NalType.NAL_SPS && hdr.type != NalParser.NalType.NAL_PPS) {
+                mMaxPtsUs += mIntervalUs;
+                hdr.pts = mMaxPtsUs;
+            }
+        }
+        return policy;
+    }
+
+    private long onSlice(boolean idr, ByteBuffer buffer, int pos, int len) throws NalParser.InvalidStreamException {
+        int refIdc = (buffer.get(BitReader.skipStartCode(buffer, pos, pos + len)) >> 5) & 0x03;
+        BitReader r = mReader.resetNal(buffer, pos, len);
+        if (r.readUE() != 0) {
+            // Same picture as the previous slice
+            return mPicturePtsUs;
+        }
+        r.readUE(); // slice_type
+        int ppsId = r.readUE();
+        NalPps pps = (ppsId >= 0 && ppsId < mPpsList.length) ? mPpsList[ppsId] : null;
+        NalSps sps = (pps != null) ? mSpsList[pps.spsId] : null;
+        if (sps == null) {
+            throw new NalParser.InvalidStreamException("No parameter set for pps id:" + ppsId);
+        }
+        if (sps.separateColourPlane) {
+            r.skipBits(2); // colour_plane_id
+        }
+        int frameNum = r.readBits(sps.log2MaxFrameNum);
+        boolean field = false;
+        boolean bottom = false;
+        if (!sps.frameMbsOnly) {
+            field = r.readFlag();
+            if (field) {
+                bottom = r.readFlag();
+            }
+        }
+        if (idr) {
+            r.readUE(); // idr_pic_id
+        }
+        int pocLsb = 0;
+        int deltaBottom = 0;
+        int delta0 = 0;
+        int delta1 = 0;
+        if (sps.picOrderCntType == 0) {
+            pocLsb = r.readBits(sps.log2MaxPocLsb);
+            if (pps.bottomFieldPicOrderInFramePresent && !field) {
+                deltaBottom = r.readSE();
+            }
+        } else if (sps.picOrderCntType == 1 && !sps.deltaPicOrderAlwaysZero) {
+            delta0 = r.readSE();
+            if (pps.bottomFieldPicOrderInFramePresent && !field) {
+                delta1 = r.readSE();
+            }
+        }
+
+        int poc;
+        switch (sps.picOrderCntType) {
+        case 0:
+            poc = pocType0(sps, idr, refIdc, pocLsb, deltaBottom, field);
+            break;
+        case 1:
+            poc = pocType1(sps, idr, refIdc, frameNum, delta0, delta1, field, bottom);
+            break;
+        default:
+            poc = pocType2(sps, idr, refIdc, frameNum);
+            break;
+        }
+        mPoc = poc;
+        mPicturePtsUs = toPts(sps, idr, poc, field);
+        return mPicturePtsUs;
+    }
+
+    // 8.2.1.1
+    private int pocType0(NalSps sps, boolean idr, int refIdc, int pocLsb, int deltaBottom, boolean field) {
+        if (idr) {
+            mPrevPocMsb = 0;
+            mPrevPocLsb = 0;
+        }
+        int maxPocLsb = 1 << sps.log2MaxPocLsb;
+        int pocMsb;
+        if (pocLsb < mPrevPocLsb && mPrevPocLsb - pocLsb >= maxPocLsb / 2) {
+            pocMsb = mPrevPocMsb + maxPocLsb;
+        } else if (pocLsb > mPrevPocLsb && pocLsb - mPrevPocLsb > maxPocLsb / 2) {
+            pocMsb = mPrevPocMsb - maxPocLsb;
+        } else {
+            pocMsb = mPrevPocMsb;
+        }
+        if (refIdc != 0) {
+            mPrevPocMsb = pocMsb;
+            mPrevPocLsb = pocLsb;
+        }
+        int top = pocMsb + pocLsb;
+        if (field) {
+            return top; // Same for either field, no delta for bottom field
+        }
+        return Math.min(top, top + deltaBottom);
+    }
+
+    // 8.2.1.2
+    private int pocType1(NalSps sps, boolean idr, int refIdc, int frameNum, int delta0, int delta1, boolean field, boolean bottom) {
+        int frameNumOffset = frameNumOffset(sps, idr, frameNum);
+        int absFrameNum = (sps.numRefFramesInPocCycle != 0) ? frameNumOffset + frameNum : 0;
+        if (refIdc == 0 && absFrameNum > 0) {
+            absFrameNum--;
+        }
+        int expected = 0;
+        if (absFrameNum > 0) {
+            int cycleCount = (absFrameNum - 1) / sps.numRefFramesInPocCycle;
+            int frameInCycle = (absFrameNum - 1) % sps.numRefFramesInPocCycle;
+            int deltaPerCycle = 0;
+            for (int i = 0; i < sps.numRefFramesInPocCycle; i++) {
+                deltaPerCycle += sps.offsetForRefFrame[i];
+            }
+            expected = cycleCount * deltaPerCycle;
+            for (int i = 0; i <= frameInCycle; i++) {
+                expected += sps.offsetForRefFrame[i];
+            }
+        }
+        if (refIdc == 0) {
+            expected += sps.offsetForNonRefPic;
+        }
+        if (field) {
+            return bottom ? expected + sps.offsetForTopToBottomField + delta0 : expected + delta0;
+        }
+        int top = expected + delta0;
+        return Math.min(top, top + sps.offsetForTopToBottomField + delta1);
+    }
+
+    // 8.2.1.3
+    private int pocType2(NalSps sps, boolean idr, int refIdc, int frameNum) {
+        int frameNumOffset = frameNumOffset(sps, idr, frameNum);
+        if (idr) {
+            return 0;
+        }
+        return (refIdc == 0) ? 2 * (frameNumOffset + frameNum) - 1 : 2 * (frameNumOffset + frameNum);
+    }
+
+    private int frameNumOffset(NalSps sps, boolean idr, int frameNum) {
+        int offset;
+        if (idr) {
+            offset = 0;
+        } else if (mPrevFrameNum > frameNum) {
+            offset = mPrevFrameNumOffset + (1 << sps.log2MaxFrameNum);
+        } else {
+            offset = mPrevFrameNumOffset;
+        }
+        mPrevFrameNum = frameNum;
+        mPrevFrameNumOffset = offset;
+        return offset;
+    }
+
+    private long toPts(NalSps sps, boolean idr, int poc, boolean field) {
+        if (mFrameIntervalUs == 0) {
+            float fps = sps.getFrameRate();
+            mIntervalUs = (fps > 0) ? (long) (1000000 / fps) : 0;
+        }
+        if (sps.picOrderCntType == 2) {
+            mMaxPtsUs += mIntervalUs;
+            return mMaxPtsUs;
+        }
+        if (!field && (poc & 0x01) != 0 && mPocShift != 0) {
+            sLogger.debug("Odd frame poc:{}, step POC by 1", poc);
+            mPocShift = 0;
+        }
+        if (idr || !mStarted) {
+            // New sequence after all the given, or the first picture of stream not IDR
+            mBasePtsUs = mMaxPtsUs + mIntervalUs - (poc >> mPocShift) * mIntervalUs;
+            mStarted = true;
+        }
+        long pts = mBasePtsUs + (poc >> mPocShift) * mIntervalUs;
+        mMaxPtsUs = Math.max(mMaxPtsUs, pts);
+        return pts;
+    }
+}
@@ -0,0 +1,244 @@
+package com.splashtop.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+// Shed H264 frames when the decoder falls behind, driven by a pluggable load signal
+// LEVEL_NON_REF skips the non-reference pictures (nal_ref_idc 0), nothing else depends on them
+// LEVEL_IDR_ONLY skips all pictures but IDR, once a reference picture skipped the rest are skipped until next IDR,
+// even if the load recovered, so the decoder never gets a picture with missing references
+// Decided once per picture at its first slice, the picture dropped at the unit end, SKIP on CUT, SKIP_BEFORE on CUT_BEFORE
+// The parameter sets never skipped, split from a skipped picture by CUT_BEFORE, cut at once while waiting for IDR,
+// or trimmed off by the header size for a whole unit by index
+public class NalPolicyShedding extends NalPolicy.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
+
+    public static final int LEVEL_NONE     = 0;
+    public static final int LEVEL_NON_REF  = 1;
+    public static final int LEVEL_IDR_ONLY = 2;
+
+    public interface LoadSignal {
+        int getLevel();
+    }
+
+    // Level by the frames queued to decoder but not output yet, the "o-i" gap
+    public static class PendingLoad implements LoadSignal {
+        private final Decoder mDecoder;
+        private final int mNonRefThreshold;
+        private final int mIdrOnlyThreshold;
+
+        public PendingLoad(Decoder decoder, int nonRefThreshold, int idrOnlyThreshold) {
+            mDecoder = decoder;
+            mNonRefThreshold = nonRefThreshold;
+            mIdrOnlyThreshold = idrOnlyThreshold;
+        }
+
+        @Override
+        public int getLevel() {
+            int pending = mDecoder.getPendingFrames();
+            if (pending >= mIdrOnlyThreshold) {
+                return LEVEL_IDR_ONLY;
+            }
+            return (pending >= mNonRefThreshold) ? LEVEL_NON_REF : LEVEL_NONE;
+        }
+    }
+
+    private final LoadSignal mSignal;
+    private final NalParser.StartCode mCsd = new NalParser.StartCode();
+
+    // Found by scan() in the range of onNal
+    private boolean mScanConfig;            // SPS/PPS before the first slice
+    private int mScanSlice;                 // Header of the first slice, -1 if none
+    private int mScanSliceStart;            // Start code of the first slice
+
+    private boolean mPendingConfig = false; // SPS/PPS in the pending unit
+    private boolean mPendingPicture = false; // Slice in the pending unit
+    private boolean mShedPicture = false;   // The picture in the pending unit to skip
+    private boolean mWaitIdr = false;       // Reference picture skipped
+
+    private long mPassed;
+    private long mShedNonRef;
+    private long mShedRef;
+
+    public NalPolicyShedding(NalPolicy delegate, LoadSignal signal) {
+        super(delegate);
+        mSignal = signal;
+    }
+
+    @Override
+    public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+        Policy policy = super.onNal(hdr, buffer, offset, len);
+        if (len == 0) {
+            // Stream end, the pending unit delivered unless its picture skipped
+            boolean skip = mShedPicture && policy == Policy.CUT;
+            resetUnit();
+            return skip ? Policy.SKIP : policy;
+        }
+        int pos = buffer.position() + offset;
+        scan(buffer, pos, pos + len);
+
+        switch (policy) {
+        case SKIP:
+            resetUnit();
+            return policy;
+        case CUT_BEFORE:
+        case SKIP_BEFORE:
+            // The pending unit ends before this nal, this nal starts the next one
+            Policy before = mShedPicture ? Policy.SKIP_BEFORE : policy;
+            resetUnit();
+            if (mScanSlice != -1) {
+                mPendingPicture = true;
+                mShedPicture = shed(mScanSlice);
+            } else if (mScanConfig) {
+                mPendingConfig = true;
+            }
+            return before;
+        default:
+            break;
+        }
+
+        boolean cut = (policy == Policy.CUT);
+        if (mScanSlice != -1 && !mPendingPicture) {
+            return onPicture(hdr, pos, cut, policy);
+        }
+        if (mScanConfig) {
+            if (mShedPicture) {
+                // Parameter sets after the skipped slices, start the next unit, a CUT here merges it with the next
+                resetUnit();
+                mPendingConfig = true;
+                return Policy.SKIP_BEFORE;
+            }
+            mPendingConfig = true;
+            if (mWaitIdr) {
+                // Delivered at once, never pending with a picture to skip
+                resetUnit();
+                return Policy.CUT;
+            }
+        }
+        if (cut) {
+            boolean skip = mShedPicture;
+            resetUnit();
+            return skip ? Policy.SKIP : policy;
+        }
+        return policy;
+    }
+
+    // Pictures passed to decoder
+    public long getPassed() {
+        return mPassed;
+    }
+
+    // Non-reference pictures skipped
+    public long getShedNonRef() {
+        return mShedNonRef;
+    }
+
+    // Reference pictures skipped, and the pictures after them until next IDR
+    public long getShedRef() {
+        return mShedRef;
+    }
+
+    // First slice of a picture in the pending unit, skip the picture as a whole or not
+    private Policy onPicture(NalParser.NalHeader hdr, int pos, boolean cut, Policy policy) {
+        mPendingPicture = true;
+        if (mScanConfig && cut) {
+            // Parameter sets and the picture in one unit by index, only the parameter sets delivered if skipped
+            if (shed(mScanSlice)) {
+                hdr.size = mScanSliceStart - pos;
+            }
+            resetUnit();
+            return policy;
+        }
+        boolean merged = (mPendingConfig && cut) || mScanConfig; // Parameter sets not to split from the picture
+        if (merged && !mWaitIdr) {
+            // Pass it, the references still complete
+            mPassed++;
+            if (cut) {
+                resetUnit();
+            }
+            return policy;
+        }
+        mShedPicture = shed(mScanSlice);
+        if (merged && mShedPicture) {
+            sLogger.warn("Parameter sets skipped with the picture");
+        }
+        if (mShedPicture && mPendingConfig && !cut) {
+            // Deliver the pending parameter sets, the picture starts the next unit to skip
+            mPendingConfig = false;
+            return Policy.CUT_BEFORE;
+        }
+        if (cut) {
+            boolean skip = mShedPicture;
+            resetUnit();
+            return skip ? Policy.SKIP : policy;
+        }
+        return policy;
+    }
+
+    private void resetUnit() {
+        mPendingConfig = false;
+        mPendingPicture = false;
+        mShedPicture = false;
+    }
+
+    private boolean shed(int header) {
+        int refIdc = (header >> 5) & 0x03;
+        if ((header & 0x1F) == 5) {
+            if (mWaitIdr) {
+                sLogger.info("IDR received, resume decoding, shed non-ref:{} ref:{}", mShedNonRef, mShedRef);
+            }
+            mWaitIdr = false;
+            mPassed++;
+            return false;
+        }
+        if (mWaitIdr) {
+            mShedRef++;
+            return true;
+        }
+        int level = mSignal.getLevel();
+        if (level >= LEVEL_IDR_ONLY) {
+            if (refIdc != 0) {
+                sLogger.info("Skip reference pictures until next IDR");
+                mWaitIdr = true;
+                mShedRef++;
+            } else {
+                mShedNonRef++;
+            }
+            return true;
+        }
+        if (level >= LEVEL_NON_REF && refIdc == 0) {
+            mShedNonRef++;
+            return true;
+        }
+        mPassed++;
+        return false;
+    }
+
+    // Find the parameter sets and the first slice, the range is a nal or a whole unit by index
+    private void scan(ByteBuffer buffer, int pos, int end) {
+        mScanConfig = false;
+        mScanSlice = -1;
+        mCsd.reset();
+        while (pos < end && NalScanner.find(buffer, pos, end - pos, mCsd)) {
+            int header = mCsd.pos + mCsd.length;
+            if (header >= end) {
+                break;
+            }
+            int b = buffer.get(header) & 0xFF;
+            switch (b & 0x1F) {
+            case 1: case 2: case 5:
+                mScanSlice = b;
+                mScanSliceStart = mCsd.pos;
+                return; // Rest of the unit is the picture
+            case 7: case 8:
+                mScanConfig = true;
+                break;
+            }
+            pos = header;
+            mCsd.reset();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+
+// H264 picture parameter set, only the leading fields required to read slice headers (7.3.2.2)
+public class NalPps {
+
+    public int ppsId;
+    public int spsId;
+    public boolean entropyCodingMode;
+    public boolean bottomFieldPicOrderInFramePresent;
+
+    private final BitReader mReader = new BitReader();
+
+    /**
+     * Parse the PPS nal
+     *
+     * @param offset the nal header, or the leading CSD if any
+     */
+    public NalPps parse(ByteBuffer nal, int offset, int length) throws NalParser.InvalidStreamException {
+        BitReader r = mReader.resetNal(nal, offset, length);
+        ppsId = r.readUE();
+        spsId = r.readUE();
+        if (ppsId > 255 || spsId > 31) {
+            throw new NalParser.InvalidStreamException("Invalid pps id:" + ppsId + " sps id:" + spsId);
+        }
+        entropyCodingMode = r.readFlag();
+        bottomFieldPicOrderInFramePresent = r.readFlag();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "<id:" + ppsId + " sps:" + spsId + " cabac:" + entropyCodingMode + ">";
+    }
+}
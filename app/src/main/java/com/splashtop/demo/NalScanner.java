@@ -0,0 +1,61 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Search H264 CSD (00 00 01 with up to 7 leading zeros), read 8 bytes a time
+// A CSD always starts with two zero bytes, a word without adjacent zero bytes and not ending with zero
+// can not contain a CSD unless zeros carried from previous bytes, skip it as a whole
+// Only the words may contain CSD are checked byte by byte
+// Buffer in native byte order saves byte swapping when read the words
+public class NalScanner {
+
+    private static final long ONES  = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private NalScanner() {
+    }
+
+    /**
+     * Search the first CSD in [offset, offset + len)
+     *
+     * @param csd filled with the CSD position and length, reset if not found
+     * @return true if found
+     */
+    public static boolean find(ByteBuffer data, int offset, int len, NalParser.StartCode csd) {
+        boolean little = (data.order() == ByteOrder.LITTLE_ENDIAN);
+        int end = offset + len;
+        int zeros = 0;
+        int i = offset;
+        while (i < end) {
+            if (zeros == 0 && i + 8 <= end) {
+                long word = data.getLong(i);
+                // Each byte OR with the next byte in memory, the last byte kept as is
+                word |= little ? (word >>> 8) : (word << 8);
+                if (((word - ONES) & ~word & HIGHS) == 0) { // No zero byte after merged
+                    i += 8;
+                    continue;
+                }
+            }
+            byte b = data.get(i);
+            if (b == 0x00) {
+                zeros++;
+            } else {
+                if (b == 0x01 && NalParser.CSD_MIN <= zeros + 1 && zeros + 1 <= NalParser.CSD_MAX) {
+                    csd.set(i - zeros, zeros + 1);
+                    return true;
+                }
+                zeros = 0;
+            }
+            i++;
+        }
+        csd.reset();
+        return false;
+    }
+
+    // Scan can resume from here next time if nothing found in [offset, offset + len)
+    // Back off CSD_MAX bytes, a zero run crossing the tail will be counted from the right start
+    public static int resume(int offset, int len) {
+        return Math.max(offset, offset + len - NalParser.CSD_MAX);
+    }
+}
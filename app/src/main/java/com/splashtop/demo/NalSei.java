@@ -0,0 +1,181 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+// H264 SEI messages carrying the sender timestamps (7.3.2.3, D.1)
+// user_data_unregistered with a registered UUID, the payload after UUID is the 64 bits big-endian timestamp
+// pic_timing with the first clock timestamp, time of day by the SPS timing, only parsed if the SPS given
+// Reusable, parse() overwrites all the results, no allocation
+public class NalSei {
+
+    public static final int PAYLOAD_PIC_TIMING = 1;
+    public static final int PAYLOAD_USER_DATA_UNREGISTERED = 5;
+
+    // Capture time of the demo sender, microseconds since epoch, UUID from "STDMCAPTURE-TIME"
+    public static final UUID UUID_CAPTURE_TIME = new UUID(0x5354444d43415054L, 0x5552452d54494d45L);
+
+    private static final int MAX_UUIDS = 4;
+
+    private final long[] mUuidMsb = new long[MAX_UUIDS];
+    private final long[] mUuidLsb = new long[MAX_UUIDS];
+    private final long[] mTimestamps = new long[MAX_UUIDS];
+    private int mUuidCount = 0;
+    private long mClockTimestampUs = -1;
+
+    private final BitReader mReader = new BitReader();
+    private final NalParser.StartCode mCsd = new NalParser.StartCode();
+
+    // Timestamp in user_data_unregistered with the UUID, got by getTimestamp()
+    public NalSei registerTimestamp(UUID uuid) {
+        if (mUuidCount == MAX_UUIDS) {
+            throw new IllegalStateException("Too many UUIDs, max " + MAX_UUIDS);
+        }
+        mUuidMsb[mUuidCount] = uuid.getMostSignificantBits();
+        mUuidLsb[mUuidCount] = uuid.getLeastSignificantBits();
+        mUuidCount++;
+        return this;
+    }
+
+    /**
+     * Parse the SEI nal
+     *
+     * @param offset the nal header, or the leading CSD if any
+     * @param sps the active SPS for pic_timing, null to skip it
+     */
+    public NalSei parse(ByteBuffer nal, int offset, int length, NalSps sps) throws NalParser.InvalidStreamException {
+        for (int i = 0; i < mUuidCount; i++) {
+            mTimestamps[i] = -1;
+        }
+        mClockTimestampUs = -1;
+
+        BitReader r = mReader.resetNal(nal, offset, length);
+        while (true) {
+            int b = r.readBits(8);
+            if (b == 0x80) {
+                break; // rbsp_trailing_bits, no more message
+            }
+            int type = 0;
+            while (b == 0xFF) {
+                type += 255;
+                b = r.readBits(8);
+            }
+            type += b;
+            int size = 0;
+            do {
+                b = r.readBits(8);
+                size += b;
+            } while (b == 0xFF);
+
+            int end = r.bitsRead() + size * 8;
+            if (type == PAYLOAD_USER_DATA_UNREGISTERED && size >= 24) {
+                parseUserData(r);
+            } else if (type == PAYLOAD_PIC_TIMING && sps != null) {
+                parsePicTiming(r, sps);
+            }
+            int left = end - r.bitsRead();
+            if (left < 0) {
+                throw new NalParser.InvalidStreamException("Payload " + type + " over size " + size);
+            }
+            r.skipBits(left);
+        }
+        return this;
+    }
+
+    // Timestamp of the registered UUID in last parsed SEI, -1 if not present
+    public long getTimestamp(UUID uuid) {
+        for (int i = 0; i < mUuidCount; i++) {
+            if (mUuidMsb[i] == uuid.getMostSignificantBits() && mUuidLsb[i] == uuid.getLeastSignificantBits()) {
+                return mTimestamps[i];
+            }
+        }
+        return -1;
+    }
+
+    // First clock timestamp of pic_timing in last parsed SEI in microseconds, time of day, -1 if not present
+    public long getClockTimestampUs() {
+        return mClockTimestampUs;
+    }
+
+    // Offset of the SEI nal in an access unit, before the first slice, -1 if none
+    public int find(ByteBuffer unit, int offset, int length) {
+        int end = offset + length;
+        mCsd.reset();
+        while (offset < end && NalScanner.find(unit, offset, end - offset, mCsd)) {
+            int header = mCsd.pos + mCsd.length;
+            if (header >= end) {
+                break;
+            }
+            switch (unit.get(header) & 0x1F) {
+            case 6:
+                return mCsd.pos;
+            case 1: case 2: case 5:
+                return -1; // SEI never after slices
+            }
+            offset = header;
+            mCsd.reset();
+        }
+        return -1;
+    }
+
+    private void parseUserData(BitReader r) throws NalParser.InvalidStreamException {
+        long msb = ((long) r.readBits(32) << 32) | (r.readBits(32) & 0xFFFFFFFFL);
+        long lsb = ((long) r.readBits(32) << 32) | (r.readBits(32) & 0xFFFFFFFFL);
+        for (int i = 0; i < mUuidCount; i++) {
+            if (mUuidMsb[i] == msb && mUuidLsb[i] == lsb) {
+                mTimestamps[i] = ((long) r.readBits(32) << 32) | (r.readBits(32) & 0xFFFFFFFFL);
+                return;
+            }
+        }
+    }
+
+    // D.1.3, NumClockTS by pic_struct in table D-1
+    private void parsePicTiming(BitReader r, NalSps sps) throws NalParser.InvalidStreamException {
+        if (sps.cpbDpbDelaysPresent) {
+            r.skipBits(sps.cpbRemovalDelayLength);
+            r.skipBits(sps.dpbOutputDelayLength);
+        }
+        if (!sps.picStructPresent) {
+            return;
+        }
+        int picStruct = r.readBits(4);
+        int count = (picStruct < 3) ? 1 : (picStruct < 5 || picStruct == 7) ? 2 : 3;
+        for (int i = 0; i < count; i++) {
+            if (!r.readFlag()) { // clock_timestamp_flag
+                continue;
+            }
+            r.skipBits(2); // ct_type
+            boolean fieldBased = r.readFlag();
+            r.skipBits(5); // counting_type
+            boolean full = r.readFlag();
+            r.skipBits(2); // discontinuity_flag, cnt_dropped_flag
+            int frames = r.readBits(8);
+            int seconds = 0;
+            int minutes = 0;
+            int hours = 0;
+            if (full) {
+                seconds = r.readBits(6);
+                minutes = r.readBits(6);
+                hours = r.readBits(5);
+            } else if (r.readFlag()) {
+                seconds = r.readBits(6);
+                if (r.readFlag()) {
+                    minutes = r.readBits(6);
+                    if (r.readFlag()) {
+                        hours = r.readBits(5);
+                    }
+                }
+            }
+            long offset = 0;
+            if (sps.timeOffsetLength > 0) {
+                int n = sps.timeOffsetLength;
+                offset = ((long) r.readBits(n) << (64 - n)) >> (64 - n); // Signed
+            }
+            if (mClockTimestampUs == -1 && sps.timingInfoPresent && sps.timeScale != 0) {
+                long scale = sps.timeScale & 0xFFFFFFFFL;
+                long ticks = frames * (sps.numUnitsInTick & 0xFFFFFFFFL) * (fieldBased ? 2 : 1) + offset;
+                mClockTimestampUs = ((hours * 60L + minutes) * 60L + seconds) * 1000000L + ticks * 1000000L / scale;
+            }
+        }
+    }
+}
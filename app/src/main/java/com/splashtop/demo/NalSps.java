@@ -0,0 +1,265 @@
+package com.splashtop.demo;
+
+import java.nio.ByteBuffer;
+
+// H264 sequence parameter set, fields named as in the spec (7.3.2.1)
+// Reusable, parse() overwrites all the fields, no allocation once the RBSP buffer large enough
+public class NalSps {
+
+    public int profileIdc;
+    public int constraintFlags;
+    public int levelIdc;
+    public int spsId;
+    public int chromaFormatIdc;
+    public boolean separateColourPlane;
+    public int bitDepthLuma;
+    public int bitDepthChroma;
+    public int log2MaxFrameNum;
+    public int picOrderCntType;
+    public int log2MaxPocLsb;
+    public boolean deltaPicOrderAlwaysZero;
+    public int offsetForNonRefPic;
+    public int offsetForTopToBottomField;
+    public int numRefFramesInPocCycle;
+    public final int[] offsetForRefFrame = new int[256];
+    public int maxNumRefFrames;
+    public int picWidthInMbs;
+    public int picHeightInMapUnits;
+    public boolean frameMbsOnly;
+    public boolean mbAdaptiveFrameField;
+    public int cropLeft;
+    public int cropRight;
+    public int cropTop;
+    public int cropBottom;
+
+    // Video usability information
+    public boolean timingInfoPresent;
+    public int numUnitsInTick;
+    public int timeScale;
+    public boolean fixedFrameRate;
+    public boolean cpbDpbDelaysPresent;  // NAL or VCL HRD present, the delays in picture timing SEI
+    public int cpbRemovalDelayLength;
+    public int dpbOutputDelayLength;
+    public int timeOffsetLength;
+    public boolean picStructPresent;
+    public boolean bitstreamRestriction;
+    public int maxNumReorderFrames;   // -1 if not present
+    public int maxDecFrameBuffering;  // -1 if not present
+
+    // Size after cropping
+    public int width;
+    public int height;
+
+    private final BitReader mReader = new BitReader();
+
+    /**
+     * Parse the SPS nal
+     *
+     * @param offset the nal header, or the leading CSD if any
+     */
+    public NalSps parse(ByteBuffer nal, int offset, int length) throws NalParser.InvalidStreamException {
+        BitReader r = mReader.resetNal(nal, offset, length);
+        profileIdc = r.readBits(8);
+        constraintFlags = r.readBits(8);
+        levelIdc = r.readBits(8);
+        spsId = r.readUE();
+        if (spsId > 31) {
+            throw new NalParser.InvalidStreamException("Invalid sps id:" + spsId);
+        }
+
+        chromaFormatIdc = 1;
+        separateColourPlane = false;
+        bitDepthLuma = 8;
+        bitDepthChroma = 8;
+        switch (profileIdc) {
+        case 100: case 110: case 122: case 244: case 44:
+        case 83: case 86: case 118: case 128: case 138: case 139: case 134: case 135:
+            chromaFormatIdc = r.readUE();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = r.readFlag();
+            }
+            bitDepthLuma = r.readUE() + 8;
+            bitDepthChroma = r.readUE() + 8;
+            r.readFlag(); // qpprime_y_zero_transform_bypass_flag
+            if (r.readFlag()) { // seq_scaling_matrix_present_flag
+                int lists = (chromaFormatIdc != 3) ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (r.readFlag()) {
+                        skipScalingList(r, (i < 6) ? 16 : 64);
+                    }
+                }
+            }
+            break;
+        }
+
+        log2MaxFrameNum = r.readUE() + 4;
+        picOrderCntType = r.readUE();
+        log2MaxPocLsb = 0;
+        deltaPicOrderAlwaysZero = false;
+        offsetForNonRefPic = 0;
+        offsetForTopToBottomField = 0;
+        numRefFramesInPocCycle = 0;
+        if (picOrderCntType == 0) {
+            log2MaxPocLsb = r.readUE() + 4;
+        } else if (picOrderCntType == 1) {
+            deltaPicOrderAlwaysZero = r.readFlag();
+            offsetForNonRefPic = r.readSE();
+            offsetForTopToBottomField = r.readSE();
+            numRefFramesInPocCycle = r.readUE();
+            if (numRefFramesInPocCycle > 255) {
+                throw new NalParser.InvalidStreamException("Invalid num_ref_frames_in_pic_order_cnt_cycle:" + numRefFramesInPocCycle);
+            }
+            for (int i = 0; i < numRefFramesInPocCycle; i++) {
+                offsetForRefFrame[i] = r.readSE();
+            }
+        } else if (picOrderCntType != 2) {
+            throw new NalParser.InvalidStreamException("Invalid pic_order_cnt_type:" + picOrderCntType);
+        }
+
+        maxNumRefFrames = r.readUE();
+        r.readFlag(); // gaps_in_frame_num_value_allowed_flag
+        picWidthInMbs = r.readUE() + 1;
+        picHeightInMapUnits = r.readUE() + 1;
+        frameMbsOnly = r.readFlag();
+        mbAdaptiveFrameField = !frameMbsOnly && r.readFlag();
+        r.readFlag(); // direct_8x8_inference_flag
+        cropLeft = cropRight = cropTop = cropBottom = 0;
+        if (r.readFlag()) { // frame_cropping_flag
+            cropLeft = r.readUE();
+            cropRight = r.readUE();
+            cropTop = r.readUE();
+            cropBottom = r.readUE();
+        }
+
+        timingInfoPresent = false;
+        numUnitsInTick = 0;
+        timeScale = 0;
+        fixedFrameRate = false;
+        cpbDpbDelaysPresent = false;
+        cpbRemovalDelayLength = 0;
+        dpbOutputDelayLength = 0;
+        timeOffsetLength = 0;
+        picStructPresent = false;
+        bitstreamRestriction = false;
+        maxNumReorderFrames = -1;
+        maxDecFrameBuffering = -1;
+        if (r.readFlag()) { // vui_parameters_present_flag
+            parseVui(r);
+        }
+
+        // Crop unit by chroma sampling (7-19 to 7-22)
+        int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+        int cropUnitX = 1;
+        int cropUnitY = frameMbsOnly ? 1 : 2;
+        if (chromaArrayType == 1) {
+            cropUnitX *= 2;
+            cropUnitY *= 2;
+        } else if (chromaArrayType == 2) {
+            cropUnitX *= 2;
+        }
+        width = picWidthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+        height = (frameMbsOnly ? 1 : 2) * picHeightInMapUnits * 16 - cropUnitY * (cropTop + cropBottom);
+        if (width <= 0 || height <= 0) {
+            throw new NalParser.InvalidStreamException("Invalid size " + width + "x" + height);
+        }
+        return this;
+    }
+
+    // Frames per second by VUI timing, 0 if unknown
+    public float getFrameRate() {
+        if (!timingInfoPresent || numUnitsInTick == 0) {
+            return 0;
+        }
+        return (float) ((timeScale & 0xFFFFFFFFL) / (2.0 * (numUnitsInTick & 0xFFFFFFFFL)));
+    }
+
+    public void toFormat(Decoder.VideoFormat fmt) {
+        fmt.width = width;
+        fmt.height = height;
+        fmt.profile = profileIdc;
+        fmt.level = levelIdc;
+        fmt.frameRate = getFrameRate();
+        fmt.reorderFrames = maxNumReorderFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "<profile:" + profileIdc + " level:" + levelIdc + " id:" + spsId
+                + " size:" + width + "x" + height + " poc:" + picOrderCntType
+                + " fps:" + getFrameRate() + " reorder:" + maxNumReorderFrames + ">";
+    }
+
+    private void parseVui(BitReader r) throws NalParser.InvalidStreamException {
+        if (r.readFlag()) { // aspect_ratio_info_present_flag
+            if (r.readBits(8) == 255) { // Extended_SAR
+                r.skipBits(32);
+            }
+        }
+        if (r.readFlag()) { // overscan_info_present_flag
+            r.readFlag();
+        }
+        if (r.readFlag()) { // video_signal_type_present_flag
+            r.skipBits(4);
+            if (r.readFlag()) { // colour_description_present_flag
+                r.skipBits(24);
+            }
+        }
+        if (r.readFlag()) { // chroma_loc_info_present_flag
+            r.readUE();
+            r.readUE();
+        }
+        timingInfoPresent = r.readFlag();
+        if (timingInfoPresent) {
+            numUnitsInTick = r.readBits(32);
+            timeScale = r.readBits(32);
+            fixedFrameRate = r.readFlag();
+        }
+        boolean nalHrd = r.readFlag();
+        if (nalHrd) {
+            parseHrd(r);
+        }
+        boolean vclHrd = r.readFlag();
+        if (vclHrd) {
+            parseHrd(r);
+        }
+        cpbDpbDelaysPresent = nalHrd || vclHrd;
+        if (cpbDpbDelaysPresent) {
+            r.readFlag(); // low_delay_hrd_flag
+        }
+        picStructPresent = r.readFlag();
+        bitstreamRestriction = r.readFlag();
+        if (bitstreamRestriction) {
+            r.readFlag(); // motion_vectors_over_pic_boundaries_flag
+            r.readUE();   // max_bytes_per_pic_denom
+            r.readUE();   // max_bits_per_mb_denom
+            r.readUE();   // log2_max_mv_length_horizontal
+            r.readUE();   // log2_max_mv_length_vertical
+            maxNumReorderFrames = r.readUE();
+            maxDecFrameBuffering = r.readUE();
+        }
+    }
+
+    // Only the lengths kept, the same in NAL and VCL HRD if both present
+    private void parseHrd(BitReader r) throws NalParser.InvalidStreamException {
+        int count = r.readUE() + 1; // cpb_cnt_minus1
+        r.skipBits(8);              // bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < count; i++) {
+            r.readUE(); // bit_rate_value_minus1
+            r.readUE(); // cpb_size_value_minus1
+            r.readFlag(); // cbr_flag
+        }
+        r.skipBits(5); // initial_cpb_removal_delay_length_minus1
+        cpbRemovalDelayLength = r.readBits(5) + 1;
+        dpbOutputDelayLength = r.readBits(5) + 1;
+        timeOffsetLength = r.readBits(5);
+    }
+
+    private static void skipScalingList(BitReader r, int size) throws NalParser.InvalidStreamException {
+        int last = 8;
+        int next = 8;
+        for (int i = 0; i < size && next != 0; i++) {
+            next = (last + r.readSE() + 256) % 256;
+            last = (next == 0) ? last : next;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.splashtop.demo;
+
+// Map the stream pts to the render time of System.nanoTime(), the base taken by the first frame
+// The decoder releases the output at once with the render time, the compositor latches it on the vsync
+// at or after, instead of sleeping the output thread until the pts due, unless the surface ignores the render time
+// The present jitter measured by the actual render time from MediaCodec.OnFrameRenderedListener (API 23),
+// a frame released but never rendered before a later one was superseded by it on the same vsync
+// Called from the decoder output thread and the render callback thread
+public class PresentationScheduler {
+
+    private static final long REBASE_LATE_NS = 1000 * 1000000L; // Paused or pts jumped, map again instead of catching up
+    private static final int RENDER_SLOTS = 32;
+
+    private long mLeadNs;
+    private long mBaseNs = -1;
+    private long mBasePtsUs;
+    private long mRebaseCount;
+    private long mSupersededCount;
+
+    // Render time of the released frames by pts, the render callback only carries the pts
+    private final long[] mRenderPts = new long[RENDER_SLOTS];
+    private final long[] mRenderTimes = new long[RENDER_SLOTS];
+    private int mRenderNext;
+
+    private long mJitterCount;
+    private long mJitterLastUs;
+    private long mJitterMaxUs;
+    private long mJitterTotalUs;
+    private long mJitterSquareUs;
+
+    // Delay the first frame to absorb the decode time variance, 0 by default for the least latency
+    public PresentationScheduler setLead(long leadUs) {
+        mLeadNs = leadUs * 1000;
+        return this;
+    }
+
+    /**
+     * Render time of a frame, to releaseOutputBuffer(index, renderTimestampNs)
+     *
+     * @param ptsUs presentation time of the frame, not positive to render at once
+     * @param nowNs System.nanoTime() when released
+     */
+    public synchronized long schedule(long ptsUs, long nowNs) {
+        if (ptsUs <= 0) {
+            return nowNs;
+        }
+        if (mBaseNs < 0 || ptsUs < mBasePtsUs) {
+            mBaseNs = nowNs + mLeadNs;
+            mBasePtsUs = ptsUs;
+        }
+        long renderNs = mBaseNs + (ptsUs - mBasePtsUs) * 1000;
+        if (renderNs < nowNs - REBASE_LATE_NS) {
+            mBaseNs = nowNs;
+            mBasePtsUs = ptsUs;
+            mRebaseCount++;
+            renderNs = nowNs;
+        }
+        mRenderPts[mRenderNext] = ptsUs;
+        mRenderTimes[mRenderNext] = renderNs;
+        mRenderNext = (mRenderNext + 1) % RENDER_SLOTS;
+        return renderNs;
+    }
+
+    /**
+     * Frame actually rendered, the difference to the scheduled time counted as jitter,
+     * the earlier frames still waiting counted as superseded
+     *
+     * @return deviation in microseconds, positive if late, 0 if the frame not scheduled
+     */
+    public synchronized long onRendered(long ptsUs, long renderedNs) {
+        for (int i = 0; i < RENDER_SLOTS; i++) {
+            if (mRenderPts[i] == ptsUs && mRenderTimes[i] > 0) {
+                long jitterUs = (renderedNs - mRenderTimes[i]) / 1000;
+                mRenderTimes[i] = 0;
+                for (int j = 0; j < RENDER_SLOTS; j++) {
+                    if (mRenderPts[j] < ptsUs && mRenderTimes[j] > 0) {
+                        mRenderTimes[j] = 0;
+                        mSupersededCount++;
+                    }
+                }
+                long absUs = Math.abs(jitterUs);
+                mJitterCount++;
+                mJitterLastUs = jitterUs;
+                mJitterMaxUs = Math.max(mJitterMaxUs, absUs);
+                mJitterTotalUs += absUs;
+                mJitterSquareUs += absUs * absUs;
+                return jitterUs;
+            }
+        }
+        return 0;
+    }
+
+    // Frame released without render, no render callback to expect
+    public synchronized void drop(long ptsUs) {
+        for (int i = 0; i < RENDER_SLOTS; i++) {
+            if (mRenderPts[i] == ptsUs) {
+                mRenderTimes[i] = 0;
+            }
+        }
+    }
+
+    // Map again by the next frame, e.g. after seek or restart
+    public synchronized void reset() {
+        mBaseNs = -1;
+        for (int i = 0; i < RENDER_SLOTS; i++) {
+            mRenderTimes[i] = 0;
+        }
+    }
+
+    // Reset and clear the statistics
+    public synchronized void clear() {
+        reset();
+        mRebaseCount = 0;
+        mSupersededCount = 0;
+        mJitterCount = 0;
+        mJitterLastUs = 0;
+        mJitterMaxUs = 0;
+        mJitterTotalUs = 0;
+        mJitterSquareUs = 0;
+    }
+
+    public synchronized long getRebaseCount() {
+        return mRebaseCount;
+    }
+
+    // Released to render but replaced by a later frame before presented, only known with the render callback
+    public synchronized long getSupersededCount() {
+        return mSupersededCount;
+    }
+
+    public synchronized long getJitterCount() {
+        return mJitterCount;
+    }
+
+    public synchronized long getJitterLastUs() {
+        return mJitterLastUs;
+    }
+
+    public synchronized long getJitterMaxUs() {
+        return mJitterMaxUs;
+    }
+
+    // Mean of the absolute deviation
+    public synchronized long getJitterAverageUs() {
+        return (mJitterCount > 0) ? mJitterTotalUs / mJitterCount : 0;
+    }
+
+    // Root mean square of the deviation
+    public synchronized long getJitterRmsUs() {
+        return (mJitterCount > 0) ? (long) Math.sqrt((double) mJitterSquareUs / mJitterCount) : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "<jitter count:" + mJitterCount + " last:" + mJitterLastUs + " max:" + mJitterMaxUs
+                + " avg:" + getJitterAverageUs() + " rms:" + getJitterRmsUs() + " superseded:" + mSupersededCount
+                + " rebase:" + mRebaseCount + ">";
+    }
+}
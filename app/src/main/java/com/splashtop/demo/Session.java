@@ -8,7 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 
-public class Session implements DecoderOutput {
+public class Session implements DecoderOutput, DecoderOutputDropLate.OnRenderListener {
 
     private static final Logger sLogger = LoggerFactory.getLogger("ST-Demo");
 
@@ -20,12 +20,19 @@ public class Session implements DecoderOutput {
     private final Decoder mDecoder;
     private boolean mStarted;
     private OnStopListener mStopListener;
+    private final LatencyStats mLatency = new LatencyStats();
+    private final DecoderOutputDropLate mOutputPolicy;
+    private long mFrames;
+    private long mEpochOffsetNs; // System.currentTimeMillis() against System.nanoTime(), taken once per start
+
+    private static final int LATENCY_LOG_INTERVAL = 60; // Frames
 
     public Session(Decoder decoder) {
         sLogger.trace("decoder:{}", decoder);
         mHandler = new Handler();
         mDecoder = decoder;
-        mDecoder.setOutput(this);
+        mOutputPolicy = new DecoderOutputDropLate(this).setOnRenderListener(this);
+        mDecoder.setOutput(mOutputPolicy);
     }
 
     @Override
@@ -43,9 +50,42 @@ public class Session implements DecoderOutput {
     @Override // DecoderOutput
     public boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
         sLogger.trace("info:{}", info);
+        if (info.flags != Decoder.VideoBufferInfo.FLAG_EOS && ++mFrames % LATENCY_LOG_INTERVAL == 0) {
+            sLogger.info("output:{} present:{}", mOutputPolicy, decoder.getScheduler());
+        }
         return true;
     }
 
+    @Override // DecoderOutputDropLate.OnRenderListener
+    public void onRender(Decoder decoder, Decoder.VideoBufferInfo info) {
+        // Scheduled render time if known, otherwise released to render now
+        long renderNs = (info.renderTimeNs > 0) ? info.renderTimeNs : System.nanoTime();
+        long latencyUs = mLatency.add(info.captureTimeUs, (renderNs + mEpochOffsetNs) / 1000);
+        if (latencyUs >= 0 && mLatency.getCount() % LATENCY_LOG_INTERVAL == 1) {
+            sLogger.info("latency:{}", mLatency);
+        }
+    }
+
+    // Capture-to-render latency of the frames released to render, only for the streams with the capture time SEI
+    public LatencyStats getLatency() {
+        return mLatency;
+    }
+
+    // Present jitter of the decoder, only measured when rendered to a surface on API 23 and later
+    public PresentationScheduler getPresentation() {
+        return mDecoder.getScheduler();
+    }
+
+    // Late frame dropping and the counters of rendered and dropped-late frames
+    public DecoderOutputDropLate getOutputPolicy() {
+        return mOutputPolicy;
+    }
+
+    // Frames released to render but replaced on the same vsync, only measured as the present jitter
+    public long getDroppedSupersededCount() {
+        return mDecoder.getScheduler().getSupersededCount();
+    }
+
     @Override
     public void onEnd(Decoder decoder) {
         // Called by decoder output thread
@@ -68,6 +108,11 @@ public class Session implements DecoderOutput {
         sLogger.trace("");
         if (!mStarted) {
             mStarted = true;
+            mLatency.reset();
+            mEpochOffsetNs = System.currentTimeMillis() * 1000000L - System.nanoTime();
+            mFrames = 0;
+            mOutputPolicy.reset();
+            mDecoder.getScheduler().clear();
             mDecoder.start();
         }
     }
@@ -80,6 +125,12 @@ public class Session implements DecoderOutput {
         }
     }
 
+    // Continue from the keyframe at or before the pts, the decoder kept running
+    public boolean seek(long ptsUs) {
+        sLogger.trace("pts:{}", ptsUs);
+        return mStarted && mDecoder.seek(ptsUs);
+    }
+
     public Session setOnStopListener(OnStopListener listener) {
         mStopListener = listener;
         return this;
@@ -24,6 +24,7 @@ public class SessionTextureView extends Session implements TextureView.SurfaceTe
     public SessionTextureView(Decoder decoder, TextureView view) {
         super(decoder);
         sLogger.trace("decoder:{} view:{}", decoder, view);
+        decoder.setTimedRender(false); // SurfaceTexture ignores the render timestamp
         mTextureView = view;
         mTextureView.setSurfaceTextureListener(this);
     }
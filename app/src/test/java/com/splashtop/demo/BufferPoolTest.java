@@ -0,0 +1,74 @@
+package com.splashtop.demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClass() {
+        BufferPool pool = new BufferPool(1024 * 1024, 10000);
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(1 << 20, pool.acquire((1 << 19) + 1).length);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(4, pool.getMissCount());
+    }
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(1024 * 1024, 10000);
+        byte[] data = pool.acquire(5000);
+        pool.release(data);
+        assertEquals(8192, pool.getRetainedBytes());
+
+        // Same class reused, other class not
+        assertSame(data, pool.acquire(6000));
+        assertEquals(0, pool.getRetainedBytes());
+        pool.release(data);
+        assertNotSame(data, pool.acquire(3000));
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+
+        // Not a size class, ignored
+        pool.release(new byte[5000]);
+        pool.release(new byte[1024]);
+        assertEquals(8192, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testRetainCap() {
+        BufferPool pool = new BufferPool(16384, 10000);
+        pool.release(new byte[8192]);
+        pool.release(new byte[8192]);
+        pool.release(new byte[4096]); // Over the cap, dropped
+        assertEquals(16384, pool.getRetainedBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testTrimIdle() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, 50);
+        pool.release(new byte[8192]);
+        pool.release(new byte[16384]);
+        pool.trim();
+        assertEquals(24576, pool.getRetainedBytes());
+
+        Thread.sleep(100);
+        pool.trim();
+        assertEquals(0, pool.getRetainedBytes());
+
+        // Idle class trimmed on next access
+        pool.release(new byte[8192]);
+        Thread.sleep(100);
+        pool.release(new byte[16384]);
+        assertEquals(16384, pool.getRetainedBytes());
+    }
+}
@@ -0,0 +1,206 @@
+package com.splashtop.demo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CodecPoolTest {
+
+    private static final CodecPool.Key AVC_1080 = CodecPool.Key.of(Decoder.MIME_AVC, 1920, 1080);
+    private static final CodecPool.Key AVC_4K = CodecPool.Key.of(Decoder.MIME_AVC, 3840, 2160);
+    private static final CodecPool.Key HEVC_1080 = CodecPool.Key.of(Decoder.MIME_HEVC, 1920, 1080);
+
+    static class FakeCodec {
+        final CodecPool.Key key;
+        boolean broken;
+        int recycled;
+        boolean released;
+
+        FakeCodec(CodecPool.Key key) {
+            this.key = key;
+        }
+    }
+
+    private final List<FakeCodec> mCreated = new ArrayList<>();
+
+    private final CodecPool.Factory<FakeCodec> mFactory = new CodecPool.Factory<FakeCodec>() {
+        @Override
+        public FakeCodec create(CodecPool.Key key) throws IOException {
+            FakeCodec codec = new FakeCodec(key);
+            mCreated.add(codec);
+            return codec;
+        }
+
+        @Override
+        public boolean recycle(FakeCodec codec) {
+            codec.recycled++;
+            return !codec.broken;
+        }
+
+        @Override
+        public void release(FakeCodec codec) {
+            assertFalse(codec.released);
+            codec.released = true;
+        }
+    };
+
+    @Test
+    public void testKey() {
+        assertEquals(AVC_1080, CodecPool.Key.of(Decoder.MIME_AVC, 1440, 1080));
+        assertEquals(1920, AVC_1080.maxWidth);
+        assertEquals(1088, AVC_1080.maxHeight);
+        assertEquals(CodecPool.Key.of(Decoder.MIME_AVC, 1280, 720), CodecPool.Key.of(Decoder.MIME_AVC, 640, 480));
+        // Portrait kept portrait
+        CodecPool.Key portrait = CodecPool.Key.of(Decoder.MIME_AVC, 1080, 1920);
+        assertEquals(1088, portrait.maxWidth);
+        assertEquals(1920, portrait.maxHeight);
+        // Larger than the common sizes aligned by 16
+        CodecPool.Key large = CodecPool.Key.of(Decoder.MIME_AVC, 4100, 2200);
+        assertEquals(4112, large.maxWidth);
+        assertEquals(2208, large.maxHeight);
+        assertFalse(AVC_1080.equals(HEVC_1080));
+        assertFalse(AVC_1080.equals(AVC_4K));
+        // Codec selected by name not shared with the one by type
+        CodecPool.Key named = CodecPool.Key.of(Decoder.MIME_AVC, 1920, 1080, "c2.vendor.avc.decoder");
+        assertFalse(AVC_1080.equals(named));
+        assertEquals(named, CodecPool.Key.of(Decoder.MIME_AVC, 1920, 1080, "c2.vendor.avc.decoder"));
+    }
+
+    @Test
+    public void testKeyClampedToCodec() {
+        CodecSelector.Info info = new CodecSelector.Info();
+        info.name = "c2.vendor.avc.decoder";
+        info.maxWidth = 2304;
+        info.maxHeight = 1728;
+
+        // Portrait rounded up to 1600x2560, the long side above the codec max, clamped to it
+        CodecPool.Key portrait = CodecPool.Key.of(Decoder.MIME_AVC, 998, 2160, info);
+        assertEquals(1600, portrait.maxWidth);
+        assertEquals(2304, portrait.maxHeight);
+        assertEquals("c2.vendor.avc.decoder", portrait.name);
+
+        // Just above 1920x1088 rounded up to 2560x1600, clamped to the codec max width
+        CodecPool.Key above = CodecPool.Key.of(Decoder.MIME_AVC, 1920, 1200, info);
+        assertEquals(2304, above.maxWidth);
+        assertEquals(1600, above.maxHeight);
+
+        // Rounded size supported as is
+        assertEquals(AVC_1080.maxWidth, CodecPool.Key.of(Decoder.MIME_AVC, 1920, 1080, info).maxWidth);
+
+        // Nothing between the stream and the rounded size, the stream size kept
+        info.maxWidth = 1920;
+        info.maxHeight = 1200;
+        CodecPool.Key exact = CodecPool.Key.of(Decoder.MIME_AVC, 1920, 1200, info);
+        assertEquals(1920, exact.maxWidth);
+        assertEquals(1200, exact.maxHeight);
+        CodecPool.Key exactPortrait = CodecPool.Key.of(Decoder.MIME_AVC, 1200, 1920, info);
+        assertEquals(1200, exactPortrait.maxWidth);
+        assertEquals(1920, exactPortrait.maxHeight);
+
+        // Codec max unknown, rounded as by mime, not shared with the one by type
+        info.maxWidth = 0;
+        CodecPool.Key unknown = CodecPool.Key.of(Decoder.MIME_AVC, 998, 2160, info);
+        assertEquals(1600, unknown.maxWidth);
+        assertEquals(2560, unknown.maxHeight);
+        assertFalse(unknown.equals(CodecPool.Key.of(Decoder.MIME_AVC, 998, 2160)));
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        CodecPool<FakeCodec> pool = new CodecPool<>(mFactory);
+        FakeCodec a = pool.acquire(AVC_1080);
+        FakeCodec b = pool.acquire(AVC_1080);
+        assertNotSame(a, b);
+        assertEquals(2, pool.getMissCount());
+
+        pool.recycle(AVC_1080, a);
+        pool.recycle(AVC_1080, b);
+        assertEquals(2, pool.getIdleCount());
+        assertSame(b, pool.acquire(AVC_1080)); // Latest first
+        assertSame(a, pool.acquire(AVC_1080));
+        assertEquals(2, pool.getHitCount());
+        assertEquals(1, a.recycled);
+
+        // Other key not reused
+        pool.recycle(AVC_1080, a);
+        FakeCodec c = pool.acquire(HEVC_1080);
+        assertNotSame(a, c);
+        assertEquals(HEVC_1080, c.key);
+        assertEquals(1, pool.getIdleCount());
+        pool.clear();
+        assertTrue(a.released);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testNotReusable() throws Exception {
+        CodecPool<FakeCodec> pool = new CodecPool<>(mFactory);
+        FakeCodec a = pool.acquire(AVC_1080);
+        a.broken = true;
+        pool.recycle(AVC_1080, a);
+        assertTrue(a.released);
+        assertEquals(0, pool.getIdleCount());
+        assertNotSame(a, pool.acquire(AVC_1080));
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        CodecPool<FakeCodec> pool = new CodecPool<>(mFactory).setMaxIdle(3, 2);
+        FakeCodec[] avc = {pool.acquire(AVC_1080), pool.acquire(AVC_1080), pool.acquire(AVC_1080)};
+        FakeCodec[] hevc = {pool.acquire(HEVC_1080), pool.acquire(HEVC_1080)};
+        for (FakeCodec codec : avc) {
+            pool.recycle(AVC_1080, codec);
+        }
+        // Per key, the oldest released
+        assertEquals(2, pool.getIdleCount());
+        assertTrue(avc[0].released);
+        assertFalse(avc[1].released);
+
+        // In total, the oldest released regardless of key
+        pool.recycle(HEVC_1080, hevc[0]);
+        pool.recycle(HEVC_1080, hevc[1]);
+        assertEquals(3, pool.getIdleCount());
+        assertTrue(avc[1].released);
+        assertFalse(avc[2].released);
+        assertSame(avc[2], pool.acquire(AVC_1080));
+        pool.clear();
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        CodecPool<FakeCodec> pool = new CodecPool<>(mFactory).setIdleTimeout(1000);
+        FakeCodec a = pool.acquire(AVC_1080);
+        FakeCodec b = pool.acquire(AVC_4K);
+        pool.recycle(AVC_1080, a);
+        pool.recycle(AVC_4K, b);
+
+        long now = System.nanoTime() / 1000000;
+        pool.evictIdle(now + 500);
+        assertEquals(2, pool.getIdleCount());
+        pool.evictIdle(now + 2000);
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(a.released);
+        assertTrue(b.released);
+    }
+
+    @Test
+    public void testEvictByTimer() throws Exception {
+        CodecPool<FakeCodec> pool = new CodecPool<>(mFactory).setIdleTimeout(50);
+        FakeCodec a = pool.acquire(AVC_1080);
+        pool.recycle(AVC_1080, a);
+        long end = System.currentTimeMillis() + 2000;
+        while (pool.getIdleCount() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(a.released);
+    }
+}
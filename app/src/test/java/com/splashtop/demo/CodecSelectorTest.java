@@ -0,0 +1,127 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CodecSelectorTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private static CodecSelector.Info info(String name, String mime, boolean hardware, boolean lowLatency,
+                                           int maxWidth, int maxHeight, int... frameRates) {
+        CodecSelector.Info info = new CodecSelector.Info();
+        info.name = name;
+        info.mime = mime;
+        info.hardware = hardware;
+        info.lowLatency = lowLatency;
+        info.maxWidth = maxWidth;
+        info.maxHeight = maxHeight;
+        for (int i = 0; i < frameRates.length; i++) {
+            info.frameRates[i] = frameRates[i];
+            info.maxFrameRate = Math.max(info.maxFrameRate, frameRates[i]);
+        }
+        return info;
+    }
+
+    // Platform order, software first as on some devices
+    private static List<CodecSelector.Info> devices() {
+        return new ArrayList<>(Arrays.asList(
+                info("c2.android.avc.decoder", Decoder.MIME_AVC, false, false, 4096, 4096, 960, 480, 120),
+                info("OMX.vendor.avc.decoder", Decoder.MIME_AVC, true, false, 1920, 1088, 240, 60, 0),
+                info("c2.vendor.avc.decoder", Decoder.MIME_AVC, true, true, 1920, 1088, 120, 30, 0),
+                info("c2.vendor.avc.decoder.4k", Decoder.MIME_AVC, true, false, 4096, 2176, 240, 120, 60),
+                info("c2.vendor.hevc.decoder", Decoder.MIME_HEVC, true, true, 4096, 2176, 240, 120, 60)
+        ));
+    }
+
+    @Test
+    public void testRank() {
+        CodecSelector selector = new CodecSelector(devices());
+        // Hardware with low latency first, if the frame rate enough
+        assertEquals("c2.vendor.avc.decoder", selector.select(Decoder.MIME_AVC, 1280, 720, 60));
+        // Low latency one not fast enough at 1080p60, still first, the faster ones next
+        List<CodecSelector.Info> list = selector.rank(Decoder.MIME_AVC, 1920, 1080, 60);
+        assertEquals(4, list.size());
+        assertEquals("c2.vendor.avc.decoder", list.get(0).name); // Low latency ranked before frame rate
+        assertEquals("c2.vendor.avc.decoder.4k", list.get(1).name);
+        assertEquals("OMX.vendor.avc.decoder", list.get(2).name);
+        assertEquals("c2.android.avc.decoder", list.get(3).name);
+        // 4K only by the large ones
+        list = selector.rank(Decoder.MIME_AVC, 3840, 2160, 30);
+        assertEquals(2, list.size());
+        assertEquals("c2.vendor.avc.decoder.4k", list.get(0).name);
+        assertEquals("c2.android.avc.decoder", list.get(1).name);
+        // Portrait fits the same
+        assertEquals("c2.vendor.avc.decoder", selector.select(Decoder.MIME_AVC, 1080, 1920, 30));
+        assertEquals("c2.vendor.hevc.decoder", selector.select(Decoder.MIME_HEVC, 1920, 1080, 0));
+        assertNull(selector.select("video/av01", 1920, 1080, 0));
+    }
+
+    @Test
+    public void testFrameRate() {
+        CodecSelector.Info slow = info("slow", Decoder.MIME_AVC, true, false, 4096, 2176, 60, 30, 15);
+        CodecSelector.Info fast = info("fast", Decoder.MIME_AVC, true, false, 4096, 2176, 240, 120, 60);
+        assertEquals(30, slow.getFrameRate(1440, 1080));
+        assertEquals(60, slow.getFrameRate(640, 480));
+        assertEquals(15, slow.getFrameRate(2160, 3840));
+        assertEquals(0, slow.getFrameRate(4096, 2176)); // Larger than probed, unknown
+        CodecSelector.Info small = info("small", Decoder.MIME_AVC, true, false, 4096, 2176, 240, 0, 0);
+        assertEquals(0, small.getFrameRate(1920, 1080)); // Not supported at the probed size, unknown
+
+        CodecSelector selector = new CodecSelector(new ArrayList<>(Arrays.asList(slow, fast)));
+        assertEquals("fast", selector.select(Decoder.MIME_AVC, 1920, 1080, 60));
+        assertEquals("fast", selector.select(Decoder.MIME_AVC, 1920, 1080, 0)); // Higher rate preferred
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        StringWriter out = new StringWriter();
+        CodecSelector.write(out, "vendor/device:14/ABC/123:user/release-keys", devices());
+        String text = out.toString();
+
+        List<CodecSelector.Info> infos = CodecSelector.read(new BufferedReader(new StringReader(text)),
+                "vendor/device:14/ABC/123:user/release-keys");
+        assertEquals(devices().toString(), infos.toString());
+        assertTrue(infos.get(2).lowLatency);
+        assertEquals(30, infos.get(2).frameRates[1]);
+
+        // Probed again after system update
+        assertNull(CodecSelector.read(new BufferedReader(new StringReader(text)), "vendor/device:15/DEF/456:user/release-keys"));
+        // Broken
+        assertNull(CodecSelector.read(new BufferedReader(new StringReader(text.substring(0, text.length() - 8))),
+                "vendor/device:14/ABC/123:user/release-keys"));
+    }
+
+    @Test
+    public void testCacheFile() throws Exception {
+        File file = new File(mTempFolder.getRoot(), "decoders.txt");
+        assertNull(CodecSelector.load(file, "fp"));
+        CodecSelector.save(file, "fp", devices());
+        assertEquals(5, CodecSelector.load(file, "fp").size());
+        assertNull(CodecSelector.load(file, "other"));
+    }
+
+    @Test
+    public void testSoftware() {
+        assertTrue(CodecSelector.isSoftware("OMX.google.h264.decoder"));
+        assertTrue(CodecSelector.isSoftware("c2.android.avc.decoder"));
+        assertTrue(CodecSelector.isSoftware("ffmpeg.h264"));
+        assertFalse(CodecSelector.isSoftware("OMX.qcom.video.decoder.avc"));
+        assertFalse(CodecSelector.isSoftware("c2.rk.hevc.decoder"));
+    }
+}
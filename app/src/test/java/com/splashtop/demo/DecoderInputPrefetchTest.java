@@ -0,0 +1,347 @@
+package com.splashtop.demo;
+
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderInputPrefetchTest {
+
+    private final Decoder mDecoder = new Decoder() {
+        @Override
+        public void attachSurface(Surface surface) {
+        }
+        @Override
+        public void detachSurface(Surface surface) {
+        }
+        @Override
+        public void start() {
+        }
+        @Override
+        public void stop() {
+        }
+    };
+
+    @Test
+    public void testReadAll() throws Exception {
+        DecoderInputPrefetch input = new DecoderInputPrefetch(new FakeInput(200, 0)).setDepth(4, 1024 * 1024);
+        input.readFormat(mDecoder);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        for (int i = 0; i < 200; i++) {
+            Decoder.VideoBufferInfo info = read(input, buffer);
+            assertNotNull(info);
+            assertEquals(i, info.pts);
+            assertEquals(0, info.offset);
+            assertEquals(FakeInput.size(i), info.size);
+            assertEquals(info.size, buffer.position());
+            for (int j = 0; j < info.size; j++) {
+                assertEquals((byte) i, buffer.get(j));
+            }
+        }
+        assertNull(read(input, buffer));
+        assertNull(read(input, buffer)); // End is sticky
+        input.close();
+    }
+
+    @Test
+    public void testDepthFrames() throws Exception {
+        FakeInput fake = new FakeInput(100, 0);
+        DecoderInputPrefetch input = new DecoderInputPrefetch(fake).setDepth(5, 1024 * 1024);
+        fake.watch(input, 6);
+        input.readFormat(mDecoder);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        read(input, buffer);
+        // Frame 5 read while 1 to 4 queued, no more until consumed
+        assertTrue(fake.mReads.await(5, TimeUnit.SECONDS));
+
+        // Read ahead frames served without waiting
+        long underrun = input.getUnderrunCount();
+        for (int i = 0; i < 4; i++) {
+            read(input, buffer);
+        }
+        assertEquals(underrun, input.getUnderrunCount());
+        while (read(input, buffer) != null) {
+        }
+        input.close();
+        assertEquals(4, fake.mMaxDepth);
+    }
+
+    @Test
+    public void testDepthBytes() throws Exception {
+        // Frame 1000 bytes, stop read ahead once reach 2500 bytes
+        FakeInput fake = new FakeInput(100, 0) {
+            @Override
+            int frameSize(int i) {
+                return 1000;
+            }
+        };
+        DecoderInputPrefetch input = new DecoderInputPrefetch(fake).setDepth(16, 2500);
+        fake.watch(input, 4);
+        input.readFormat(mDecoder);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        read(input, buffer);
+        // Frame 3 read with 2000 bytes queued, no more until consumed
+        assertTrue(fake.mReads.await(5, TimeUnit.SECONDS));
+        while (read(input, buffer) != null) {
+        }
+        input.close();
+        assertEquals(2000, fake.mMaxBytes);
+        assertEquals(2, fake.mMaxDepth);
+    }
+
+    @Test
+    public void testWrap() throws Exception {
+        // Ring smaller than the input, frames of any size packed and wrapped around
+        FakeInput fake = new FakeInput(200, 0);
+        DecoderInputPrefetch input = new DecoderInputPrefetch(fake).setDepth(8, 5000);
+        fake.watch(input, 0);
+        input.readFormat(mDecoder);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        for (int i = 0; i < 200; i++) {
+            Decoder.VideoBufferInfo info = read(input, buffer);
+            assertNotNull(info);
+            assertEquals(i, info.pts);
+            assertEquals(FakeInput.size(i), info.size);
+            for (int j = 0; j < info.size; j++) {
+                assertEquals((byte) i, buffer.get(j));
+            }
+        }
+        assertNull(read(input, buffer));
+        input.close();
+        assertTrue(fake.mMaxBytes < 5000);
+    }
+
+    @Test
+    public void testUnderrun() throws Exception {
+        // Input slower than consumer, each read waits
+        DecoderInputPrefetch input = new DecoderInputPrefetch(new FakeInput(5, 10));
+        input.readFormat(mDecoder);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        int count = 0;
+        while (read(input, buffer) != null) {
+            count++;
+        }
+        assertEquals(5, count);
+        assertTrue(input.getUnderrunCount() >= 5);
+        input.close();
+    }
+
+    @Test
+    public void testCaptureTime() throws Exception {
+        // Capture time read from SEI by the wrapped input kept through the ring, not left from the previous unit
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        NalSeiTest.userData(w, NalSei.UUID_CAPTURE_TIME, 1234567);
+        byte[] sei = w.toNal(0x06);
+        byte[] idr = {0x00, 0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x20, 0x10};
+        final byte[][] units = {
+                NalParserTest.concat(java.util.Arrays.asList(sei, idr)),
+                idr
+        };
+        DecoderInput fake = new DecoderInput() {
+            private final NalSei mSei = new NalSei().registerTimestamp(NalSei.UUID_CAPTURE_TIME);
+            private final Decoder.VideoBufferInfo mInfo = new Decoder.VideoBufferInfo();
+            private int mCount = 0;
+
+            @Override
+            public Decoder.VideoFormat readFormat(@NonNull Decoder decoder) {
+                return new Decoder.VideoFormat();
+            }
+
+            @Override
+            public Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer) {
+                if (mCount == units.length) {
+                    return null;
+                }
+                byte[] unit = units[mCount++];
+                int start = buffer.position();
+                buffer.put(unit);
+                mInfo.offset = start;
+                mInfo.size = unit.length;
+                mInfo.pts = mCount;
+                mInfo.captureTimeUs = -1;
+                int offset = mSei.find(buffer, start, unit.length);
+                if (offset >= 0) {
+                    try {
+                        mSei.parse(buffer, offset, start + unit.length - offset, null);
+                        mInfo.captureTimeUs = mSei.getTimestamp(NalSei.UUID_CAPTURE_TIME);
+                    } catch (NalParser.InvalidStreamException ex) {
+                        return null;
+                    }
+                }
+                return mInfo;
+            }
+        };
+        DecoderInputPrefetch input = new DecoderInputPrefetch(fake);
+        input.readFormat(mDecoder);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        Decoder.VideoBufferInfo info = read(input, buffer);
+        assertEquals(units[0].length, info.size);
+        assertEquals(1234567, info.captureTimeUs);
+        info = read(input, buffer);
+        assertEquals(units[1].length, info.size);
+        assertEquals(-1, info.captureTimeUs);
+        assertNull(read(input, buffer));
+        input.close();
+    }
+
+    @Test
+    public void testSteadyStateNoAllocation() throws Exception {
+        // Nothing allocated per frame on either thread once warmed up, the input reads by index as DecoderInputAssets
+        List<byte[]> nals = NalParserTest.generateNals(3000, 1, 5000);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(index);
+        for (int i = 0; i < nals.size(); i++) {
+            out.writeInt(nals.get(i).length);
+            out.writeLong(i * 1000L);
+        }
+        final NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(nals)),
+                new ByteArrayInputStream(index.toByteArray()));
+        final Thread[] producer = new Thread[1];
+        DecoderInput indexed = new DecoderInput() {
+            private final NalParser.NalHeader mHeader = new NalParser.NalHeader();
+            private final Decoder.VideoBufferInfo mInfo = new Decoder.VideoBufferInfo();
+
+            @Override
+            public Decoder.VideoFormat readFormat(@NonNull Decoder decoder) {
+                return new Decoder.VideoFormat();
+            }
+
+            @Override
+            public Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer) {
+                producer[0] = Thread.currentThread();
+                try {
+                    int start = buffer.position();
+                    int size = parser.parseInto(buffer, mHeader);
+                    if (size < 0) {
+                        return null;
+                    }
+                    mInfo.offset = start;
+                    mInfo.size = size;
+                    mInfo.pts = mHeader.pts;
+                    return mInfo;
+                } catch (IOException ex) {
+                    return null;
+                }
+            }
+        };
+        DecoderInputPrefetch input = new DecoderInputPrefetch(indexed).setDepth(8, 64 * 1024);
+        input.readFormat(mDecoder);
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(8192);
+        int frame = 0;
+        for (; frame < 1000; frame++) {
+            dst.clear();
+            input.readBuffer(mDecoder, dst);
+        }
+
+        // JIT may allocate once in a while, take the best of several rounds
+        long overhead = NalParserTest.allocatedBytes(Thread.currentThread()) - NalParserTest.allocatedBytes(Thread.currentThread());
+        long consumer = Long.MAX_VALUE;
+        long prefetch = Long.MAX_VALUE;
+        for (int round = 0; round < 8; round++) {
+            // Reading the count of the prefetch thread allocates, kept out of the consumer count
+            long beginPrefetch = NalParserTest.allocatedBytes(producer[0]);
+            long beginConsumer = NalParserTest.allocatedBytes(Thread.currentThread());
+            for (int i = 0; i < 100; i++, frame++) {
+                dst.clear();
+                Decoder.VideoBufferInfo info = input.readBuffer(mDecoder, dst);
+                assertEquals(nals.get(frame).length, info.size);
+            }
+            consumer = Math.min(consumer, NalParserTest.allocatedBytes(Thread.currentThread()) - beginConsumer + overhead);
+            prefetch = Math.min(prefetch, NalParserTest.allocatedBytes(producer[0]) - beginPrefetch);
+        }
+        input.close();
+        assertEquals("consumer", 0, consumer);
+        assertEquals("prefetch", 0, prefetch);
+    }
+
+    // As the decoder, the buffer cleared before each read
+    private Decoder.VideoBufferInfo read(DecoderInput input, ByteBuffer buffer) {
+        buffer.clear();
+        return input.readBuffer(mDecoder, buffer);
+    }
+
+    // Generate frames filled by the frame index, pts same as index
+    static class FakeInput implements DecoderInput {
+        private final int mTotal;
+        private final long mDelayMs;
+        volatile int mCount;
+        // Queue of the prefetch seen at each read, kept by the prefetch thread, check after close()
+        private DecoderInputPrefetch mPrefetch;
+        CountDownLatch mReads = new CountDownLatch(0);
+        int mMaxDepth;
+        long mMaxBytes;
+
+        FakeInput(int total, long delayMs) {
+            mTotal = total;
+            mDelayMs = delayMs;
+        }
+
+        static int size(int i) {
+            return 1 + (i * 37) % 4000;
+        }
+
+        int frameSize(int i) {
+            return size(i);
+        }
+
+        void watch(DecoderInputPrefetch prefetch, int reads) {
+            mPrefetch = prefetch;
+            mReads = new CountDownLatch(reads);
+        }
+
+        @Override
+        public Decoder.VideoFormat readFormat(@NonNull Decoder decoder) {
+            return new Decoder.VideoFormat();
+        }
+
+        @Override
+        public Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer) {
+            if (mCount == mTotal) {
+                return null;
+            }
+            if (mDelayMs > 0) {
+                try {
+                    Thread.sleep(mDelayMs);
+                } catch (InterruptedException ex) {
+                    return null;
+                }
+            }
+            if (mPrefetch != null) {
+                mMaxDepth = Math.max(mMaxDepth, mPrefetch.getQueueDepth());
+                mMaxBytes = Math.max(mMaxBytes, mPrefetch.getQueueBytes());
+            }
+            int i = mCount++;
+            Decoder.VideoBufferInfo info = new Decoder.VideoBufferInfo();
+            info.offset = buffer.position();
+            info.size = frameSize(i);
+            info.pts = i;
+            for (int j = 0; j < info.size; j++) {
+                buffer.put((byte) i);
+            }
+            mReads.countDown();
+            return info;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.splashtop.demo;
+
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderMediaCodecAsyncTest {
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testPlayAll() throws Exception {
+        FakeCodec codec = new FakeCodec(4);
+        RecordOutput output = new RecordOutput();
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setInput(new DecoderInputPrefetchTest.FakeInput(300, 0)).setOutput(output);
+        decoder.start();
+
+        assertTrue(output.mEnd.await(5, TimeUnit.SECONDS));
+        assertEquals(300, output.mPts.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, (long) output.mPts.get(i));
+        }
+        assertEquals(300, codec.mRendered);
+        assertEquals(0, decoder.getPendingFrames());
+
+        // Render time follows the pts from the first timed frame, presented 1ms late by the fake codec
+        assertEquals(298 * 1000, codec.mLastRenderNs - codec.mFirstRenderNs);
+        assertEquals(299, decoder.getScheduler().getJitterCount()); // Zero pts rendered at once, not scheduled
+        assertEquals(1000, decoder.getScheduler().getJitterMaxUs());
+
+        decoder.stop();
+        assertTrue(codec.mReleased);
+        assertEquals(1, output.mEndCount);
+    }
+
+    @Test
+    public void testPacedWithoutTimedSurface() throws Exception {
+        // TextureView or no surface, released when due by the timer instead of at once with the render time
+        FakeCodec codec = new FakeCodec(4);
+        RecordOutput output = new RecordOutput();
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setTimedRender(false);
+        decoder.setInput(new DecoderInput.Wrapper(new DecoderInputPrefetchTest.FakeInput(10, 0)) {
+            @Override
+            public Decoder.VideoBufferInfo readBuffer(@NonNull Decoder decoder, @NonNull ByteBuffer buffer) {
+                Decoder.VideoBufferInfo info = super.readBuffer(decoder, buffer);
+                if (info != null) {
+                    info.pts *= 20000; // 50fps
+                }
+                return info;
+            }
+        }).setOutput(output);
+        long startNs = System.nanoTime();
+        decoder.start();
+
+        assertTrue(output.mEnd.await(5, TimeUnit.SECONDS));
+        assertEquals(10, codec.mRendered);
+        assertTrue("early:" + codec.mMaxEarlyNs, codec.mMaxEarlyNs <= 0);
+        assertTrue(System.nanoTime() - startNs >= 8 * 20000000L); // EOS after the last frame due
+        assertEquals(0, decoder.getPendingFrames());
+        decoder.stop();
+    }
+
+    @Test
+    public void testNotRendered() throws Exception {
+        FakeCodec codec = new FakeCodec(2);
+        RecordOutput output = new RecordOutput();
+        output.mAllow = false;
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setInput(new DecoderInputPrefetchTest.FakeInput(50, 0)).setOutput(output);
+        decoder.start();
+
+        assertTrue(output.mEnd.await(5, TimeUnit.SECONDS));
+        assertEquals(50, output.mPts.size());
+        assertEquals(0, codec.mRendered);
+        decoder.stop();
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        FakeCodec codec = new FakeCodec(4);
+        RecordOutput output = new RecordOutput();
+        SeekableInput input = new SeekableInput(1000, 1);
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setInput(input).setOutput(output);
+        assertFalse(decoder.seek(0)); // Not started
+        decoder.start();
+
+        output.waitFrames(20);
+        assertTrue(decoder.seek(805));
+        assertTrue(output.mEnd.await(10, TimeUnit.SECONDS));
+        assertEquals(1, codec.mFlushCount);
+
+        // Continued from the keyframe, no frame queued before flush is output after
+        List<Long> pts = output.mPts;
+        int from = pts.indexOf(800L);
+        assertTrue(from > 0);
+        for (int i = from; i < pts.size(); i++) {
+            assertEquals(800 + i - from, (long) pts.get(i));
+        }
+        assertEquals(999, (long) pts.get(pts.size() - 1));
+        decoder.stop();
+    }
+
+    @Test
+    public void testSeekOutOfLock() throws Exception {
+        // Callback in flush from another thread, e.g. of another session on the shared looper, not blocked by the seek
+        final boolean[] unblocked = new boolean[1];
+        FakeCodec codec = new FakeCodec(4) {
+            @Override
+            public void flush() {
+                super.flush();
+                Thread other = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onInputBufferAvailable(0); // Index from before the flush, dropped
+                    }
+                });
+                other.start();
+                try {
+                    other.join(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                unblocked[0] = !other.isAlive();
+            }
+        };
+        RecordOutput output = new RecordOutput();
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setInput(new SeekableInput(1000, 1)).setOutput(output);
+        decoder.start();
+
+        output.waitFrames(20);
+        assertTrue(decoder.seek(505));
+        assertTrue(output.mEnd.await(10, TimeUnit.SECONDS));
+        assertEquals(1, codec.mFlushCount);
+        assertTrue(unblocked[0]);
+        List<Long> pts = output.mPts;
+        int from = pts.indexOf(500L);
+        assertTrue(from > 0);
+        for (int i = from; i < pts.size(); i++) {
+            assertEquals(500 + i - from, (long) pts.get(i));
+        }
+        decoder.stop();
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        FakeCodec codec = new FakeCodec(4);
+        RecordOutput output = new RecordOutput();
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setInput(new DecoderInputPrefetchTest.FakeInput(100000, 1)).setOutput(output);
+        decoder.start();
+
+        output.waitFrames(10);
+        decoder.stop();
+        assertTrue(codec.mStopped);
+        assertTrue(codec.mReleased);
+        assertEquals(1, output.mEndCount);
+        int count = output.mPts.size();
+        Thread.sleep(50);
+        assertEquals(count, output.mPts.size()); // No callback handled after stop
+        decoder.stop();
+    }
+
+    @Test
+    public void testStopInOutputCallback() throws Exception {
+        // Stop while an output callback is using the codec, the codec stopped only after the callback returns
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final boolean[] usedStopped = new boolean[1];
+        FakeCodec codec = new FakeCodec(4) {
+            @Override
+            public ByteBuffer getOutputBuffer(int index) {
+                if (mPts[index] == 20) {
+                    entered.countDown();
+                    try {
+                        resume.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                usedStopped[0] |= mStopped;
+                return super.getOutputBuffer(index);
+            }
+
+            @Override
+            public void releaseOutputBuffer(int index, boolean render, long renderTimestampNs) {
+                usedStopped[0] |= mStopped;
+                super.releaseOutputBuffer(index, render, renderTimestampNs);
+            }
+        };
+        final boolean[] outputAfterEnd = new boolean[1];
+        RecordOutput output = new RecordOutput() {
+            @Override
+            public synchronized boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
+                outputAfterEnd[0] |= (mEndCount > 0);
+                return super.onBuffer(decoder, info, buffer);
+            }
+        };
+        final DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(factory(codec), mExecutor);
+        decoder.setInput(new DecoderInputPrefetchTest.FakeInput(100000, 1)).setOutput(output);
+        decoder.start();
+
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decoder.stop();
+            }
+        });
+        stopper.start();
+        stopper.join(100);
+        assertTrue(stopper.isAlive()); // Waiting for the callback
+        assertFalse(codec.mStopped);
+
+        resume.countDown();
+        stopper.join(5000);
+        assertFalse(stopper.isAlive());
+        assertTrue(codec.mStopped);
+        assertFalse(usedStopped[0]);
+        assertFalse(outputAfterEnd[0]);
+        assertEquals(20, (long) output.mPts.get(output.mPts.size() - 1));
+        assertEquals(1, output.mEndCount);
+    }
+
+    @Test
+    public void testCreateFailed() throws Exception {
+        RecordOutput output = new RecordOutput();
+        DecoderMediaCodecAsync decoder = new DecoderMediaCodecAsync(new DecoderMediaCodecAsync.Codec.Factory() {
+            @Override
+            public DecoderMediaCodecAsync.Codec create(Decoder.VideoFormat format) throws IOException {
+                throw new IOException("No codec for " + format.mime);
+            }
+        }, mExecutor);
+        decoder.setInput(new DecoderInputPrefetchTest.FakeInput(10, 0)).setOutput(output);
+        decoder.start();
+        decoder.stop();
+        assertEquals(0, output.mPts.size());
+        assertFalse(decoder.seek(0));
+    }
+
+    private static DecoderMediaCodecAsync.Codec.Factory factory(final FakeCodec codec) {
+        return new DecoderMediaCodecAsync.Codec.Factory() {
+            @Override
+            public DecoderMediaCodecAsync.Codec create(Decoder.VideoFormat format) {
+                return codec;
+            }
+        };
+    }
+
+    // Keyframe every 100 frames
+    static class SeekableInput extends DecoderInputPrefetchTest.FakeInput implements DecoderInput.Seekable {
+        SeekableInput(int total, long delayMs) {
+            super(total, delayMs);
+        }
+
+        @Override
+        public long seek(long ptsUs) {
+            mCount = (int) (ptsUs / 100 * 100);
+            return mCount;
+        }
+    }
+
+    static class RecordOutput implements DecoderOutput {
+        final List<Long> mPts = new ArrayList<>();
+        final CountDownLatch mEnd = new CountDownLatch(1);
+        volatile int mEndCount;
+        volatile boolean mAllow = true;
+
+        @Override
+        public void onFormat(Decoder decoder, Decoder.VideoFormat format) {
+        }
+
+        @Override
+        public synchronized boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
+            if (info.flags == Decoder.VideoBufferInfo.FLAG_EOS) {
+                return false;
+            }
+            mPts.add(info.pts);
+            notifyAll();
+            return mAllow;
+        }
+
+        @Override
+        public void onEnd(Decoder decoder) {
+            mEndCount++;
+            mEnd.countDown();
+        }
+
+        synchronized void waitFrames(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (mPts.size() < count && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            assertTrue(mPts.size() >= count);
+        }
+    }
+
+    // Decode in order on its own callback thread, one output per input buffer
+    static class FakeCodec implements DecoderMediaCodecAsync.Codec {
+        private final int mBuffers;
+        private final ByteBuffer[] mInputs;
+        final long[] mPts;
+        private final ExecutorService mThread = Executors.newSingleThreadExecutor();
+        Callback mCallback;
+        private int mGeneration;
+        private boolean mRunning;
+
+        volatile int mFlushCount;
+        volatile int mRendered;
+        volatile long mFirstRenderNs = -1;
+        volatile long mLastRenderNs;
+        volatile long mMaxEarlyNs = Long.MIN_VALUE; // Released before the render time by
+        volatile boolean mStopped;
+        volatile boolean mReleased;
+
+        FakeCodec(int buffers) {
+            mBuffers = buffers;
+            mInputs = new ByteBuffer[buffers];
+            mPts = new long[buffers];
+            for (int i = 0; i < buffers; i++) {
+                mInputs[i] = ByteBuffer.allocate(4096);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "fake";
+        }
+
+        @Override
+        public void setCallback(Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void configure(Decoder.VideoFormat format, Surface surface) {
+        }
+
+        @Override
+        public synchronized void start() {
+            mRunning = true;
+            for (int i = 0; i < mBuffers; i++) {
+                post(new InputTask(i));
+            }
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            mInputs[index].clear();
+            return mInputs[index];
+        }
+
+        @Override
+        public synchronized void queueInputBuffer(final int index, int offset, int size, long pts, int flags) {
+            final Decoder.VideoBufferInfo info = new Decoder.VideoBufferInfo();
+            info.pts = pts;
+            mPts[index] = pts;
+            info.flags = (flags == Decoder.VideoBufferInfo.FLAG_EOS) ? flags : Decoder.VideoBufferInfo.FLAG_FRAME;
+            final int generation = mGeneration;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCurrent(generation)) {
+                        mCallback.onOutputBufferAvailable(index, info);
+                    }
+                }
+            });
+            if (flags != Decoder.VideoBufferInfo.FLAG_EOS) {
+                post(new InputTask(index));
+            }
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return null;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render, long renderTimestampNs) {
+            if (render) {
+                mMaxEarlyNs = Math.max(mMaxEarlyNs, renderTimestampNs - System.nanoTime());
+                if (mFirstRenderNs < 0 && mPts[index] > 0) {
+                    mFirstRenderNs = renderTimestampNs;
+                }
+                mLastRenderNs = renderTimestampNs;
+                mRendered++;
+                mCallback.onFrameRendered(mPts[index], renderTimestampNs + 1000000);
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            mGeneration++;
+            mRunning = false;
+            mFlushCount++;
+        }
+
+        @Override
+        public synchronized void stop() {
+            mGeneration++;
+            mRunning = false;
+            mStopped = true;
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+            mThread.shutdown();
+        }
+
+        private synchronized boolean isCurrent(int generation) {
+            return mRunning && generation == mGeneration;
+        }
+
+        private void post(Runnable task) {
+            if (!mThread.isShutdown()) {
+                mThread.execute(task);
+            }
+        }
+
+        private class InputTask implements Runnable {
+            private final int mIndex;
+            private final int mTaskGeneration;
+
+            InputTask(int index) {
+                mIndex = index;
+                mTaskGeneration = mGeneration;
+            }
+
+            @Override
+            public void run() {
+                if (isCurrent(mTaskGeneration)) {
+                    mCallback.onInputBufferAvailable(mIndex);
+                }
+            }
+        }
+    }
+}
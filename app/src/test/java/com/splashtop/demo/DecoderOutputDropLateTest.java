@@ -0,0 +1,145 @@
+package com.splashtop.demo;
+
+import android.view.Surface;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderOutputDropLateTest {
+
+    private static final long MS = 1000000L;
+
+    private static final long FRAME_US = 16667;
+
+    private int mAhead = 2; // Frames read by the decoder ahead of the output
+    private long mLatestPts = -1;
+    private boolean mAllow = true;
+
+    private final Decoder mDecoder = new Decoder() {
+        @Override
+        public void attachSurface(Surface surface) {
+        }
+        @Override
+        public void detachSurface(Surface surface) {
+        }
+        @Override
+        public void start() {
+        }
+        @Override
+        public void stop() {
+        }
+        @Override
+        public long getLatestInputPts() {
+            return mLatestPts;
+        }
+    };
+
+    private final DecoderOutput mOutput = new DecoderOutput() {
+        @Override
+        public void onFormat(Decoder decoder, Decoder.VideoFormat format) {
+        }
+        @Override
+        public boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
+            return mAllow;
+        }
+        @Override
+        public void onEnd(Decoder decoder) {
+        }
+    };
+
+    @Test
+    public void testDropLate() {
+        DecoderOutputDropLate policy = new DecoderOutputDropLate(mOutput);
+        assertTrue(policy.onBuffer(mDecoder, frame(0, System.nanoTime() + 10 * MS), null));
+        assertTrue(policy.onBuffer(mDecoder, frame(1, System.nanoTime() - 10 * MS), null)); // Late within threshold
+        assertFalse(policy.onBuffer(mDecoder, frame(2, System.nanoTime() - 80 * MS), null));
+        assertFalse(policy.onBuffer(mDecoder, frame(3, System.nanoTime() - 60 * MS), null));
+        assertTrue(policy.onBuffer(mDecoder, frame(4, -1), null)); // Render time unknown
+        assertEquals(3, policy.getRenderedCount());
+        assertEquals(2, policy.getDroppedLateCount());
+
+        policy.reset();
+        assertEquals(0, policy.getRenderedCount());
+        assertEquals(0, policy.getDroppedLateCount());
+    }
+
+    @Test
+    public void testKeepNewest() {
+        DecoderOutputDropLate policy = new DecoderOutputDropLate(mOutput);
+        // No later frame read, nothing to replace it
+        mAhead = 0;
+        assertTrue(policy.onBuffer(mDecoder, frame(10, System.nanoTime() - 500 * MS), null));
+        // Later frame read but not due yet, the screen would keep the late one until then anyway
+        mAhead = 30;
+        assertTrue(policy.onBuffer(mDecoder, frame(11, System.nanoTime() - 100 * MS), null));
+        // Later frame due too
+        mAhead = 2;
+        assertFalse(policy.onBuffer(mDecoder, frame(12, System.nanoTime() - 500 * MS), null));
+        // Input went back by seek
+        mAhead = -12;
+        assertTrue(policy.onBuffer(mDecoder, frame(13, System.nanoTime() - 500 * MS), null));
+        assertEquals(3, policy.getRenderedCount());
+        assertEquals(1, policy.getDroppedLateCount());
+    }
+
+    @Test
+    public void testThreshold() {
+        DecoderOutputDropLate policy = new DecoderOutputDropLate(mOutput).setThreshold(200000);
+        assertTrue(policy.onBuffer(mDecoder, frame(0, System.nanoTime() - 100 * MS), null));
+        assertFalse(policy.onBuffer(mDecoder, frame(1, System.nanoTime() - 300 * MS), null));
+    }
+
+    @Test
+    public void testPassThrough() {
+        DecoderOutputDropLate policy = new DecoderOutputDropLate(mOutput);
+        // Dropped by the wrapped output, not counted
+        mAllow = false;
+        assertFalse(policy.onBuffer(mDecoder, frame(0, System.nanoTime()), null));
+        mAllow = true;
+        Decoder.VideoBufferInfo eos = frame(1, System.nanoTime() - 500 * MS);
+        eos.flags = Decoder.VideoBufferInfo.FLAG_EOS;
+        assertTrue(policy.onBuffer(mDecoder, eos, null));
+        assertEquals(0, policy.getRenderedCount());
+        assertEquals(0, policy.getDroppedLateCount());
+    }
+
+    @Test
+    public void testRenderListener() {
+        final List<Long> rendered = new ArrayList<>();
+        DecoderOutputDropLate policy = new DecoderOutputDropLate(mOutput).setOnRenderListener(
+                new DecoderOutputDropLate.OnRenderListener() {
+            @Override
+            public void onRender(Decoder decoder, Decoder.VideoBufferInfo info) {
+                rendered.add(info.pts);
+            }
+        });
+        policy.onBuffer(mDecoder, frame(0, System.nanoTime()), null);
+        policy.onBuffer(mDecoder, frame(1, System.nanoTime() - 80 * MS), null); // Dropped late
+        mAllow = false;
+        policy.onBuffer(mDecoder, frame(2, System.nanoTime()), null); // Dropped by the wrapped output
+        mAllow = true;
+        Decoder.VideoBufferInfo eos = frame(3, -1);
+        eos.flags = Decoder.VideoBufferInfo.FLAG_EOS;
+        policy.onBuffer(mDecoder, eos, null);
+        policy.onBuffer(mDecoder, frame(4, -1), null);
+        assertEquals(Arrays.asList(0L, 4 * FRAME_US), rendered);
+    }
+
+    // Frame by index at 60fps
+    private Decoder.VideoBufferInfo frame(int index, long renderTimeNs) {
+        Decoder.VideoBufferInfo info = new Decoder.VideoBufferInfo();
+        info.flags = Decoder.VideoBufferInfo.FLAG_FRAME;
+        info.pts = index * FRAME_US;
+        info.renderTimeNs = renderTimeNs;
+        mLatestPts = (index + mAhead) * FRAME_US;
+        return info;
+    }
+}
@@ -0,0 +1,153 @@
+package com.splashtop.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Convert the v1 index files to NalIndex v2 on desktop, plain JVM only
+// The frame flags are peeked from the data file next to the index, the same name with .h264 or .h265,
+// the nal headers walked up to the first slice, without the data the sizes and pts are converted but no keyframe indexed
+// Usage: java -cp <classes>:<test classes> com.splashtop.demo.NalIndexConverter <index|asset dir>...
+// e.g. app/src/ios9/assets app/src/ios10/assets app/src/ios14/assets app/src/m1/assets app/src/mix2/assets app/src/benchmark/assets
+public class NalIndexConverter {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Test");
+
+    private static final String[] DATA_SUFFIXES = {".h264", ".h265", ".264", ".265", ".hevc"};
+
+    private NalPolicyIndex.PtsType mPtsType = NalPolicyIndex.PtsType.MICROSECOND;
+    private NalParser.Codec mCodec = NalParser.Codec.H264;
+
+    public NalIndexConverter setPtsType(NalPolicyIndex.PtsType t) {
+        mPtsType = t;
+        return this;
+    }
+
+    public NalIndexConverter setCodec(NalParser.Codec codec) {
+        mCodec = codec;
+        return this;
+    }
+
+    /**
+     * Convert the v1 index, int size and long pts per unit
+     *
+     * @param data the indexed stream for the frame flags, null to convert without
+     * @return units converted
+     */
+    public int convert(InputStream index, InputStream data, OutputStream out) throws IOException {
+        DataInputStream in = new DataInputStream(index);
+        DataInputStream stream = (data != null) ? new DataInputStream(data) : null;
+        NalIndex.Writer writer = new NalIndex.Writer(data != null);
+        NalIndex.Peeker peeker = new NalIndex.Peeker(mCodec);
+        while (true) {
+            int size;
+            long pts;
+            try {
+                size = in.readInt();
+                pts  = in.readLong();
+            } catch (EOFException ex) {
+                break;
+            }
+            int flags = 0;
+            int configSize = 0;
+            if (stream != null) {
+                try {
+                    peeker.read(stream, size);
+                    skipFully(stream, size - peeker.length);
+                } catch (EOFException ex) {
+                    throw new NalParser.InvalidStreamException("Stream shorter than index at unit " + writer.getCount(), ex);
+                }
+                flags = peeker.flags;
+                if ((flags & NalIndex.FLAG_KEYFRAME) != 0 && (flags & NalIndex.FLAG_CONFIG) != 0) {
+                    configSize = peeker.slice;
+                }
+            }
+            writer.add(size, NalPolicyIndex.toMicrosecond(pts, mPtsType), flags, configSize);
+        }
+        writer.write(out);
+        return writer.getCount();
+    }
+
+    // Convert the index file to the same name with SUFFIX, the data file looked up next to it
+    public int convert(File index) throws IOException {
+        File data = findData(index);
+        if (data != null) {
+            setCodec(NalParser.guessCodec(data.getName()));
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(index));
+        InputStream stream = (data != null) ? new BufferedInputStream(new FileInputStream(data)) : null;
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(index.getPath() + NalIndex.SUFFIX));
+        try {
+            return convert(in, stream, out);
+        } finally {
+            out.close();
+            in.close();
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    // The v1 index files in the directory, the variants like name.index.standalone_sei included
+    static boolean isIndexV1(File file) {
+        String name = file.getName();
+        return file.isFile() && name.contains(".index") && !name.endsWith(NalIndex.SUFFIX);
+    }
+
+    // Data of name.index or name.index.variant is name.h264 in the same directory
+    static File findData(File index) {
+        String name = index.getName();
+        String base = name.substring(0, name.indexOf(".index"));
+        for (String suffix : DATA_SUFFIXES) {
+            File data = new File(index.getParentFile(), base + suffix);
+            if (data.isFile()) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            sLogger.error("Usage: NalIndexConverter <index|asset dir>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            File file = new File(arg);
+            File[] files = file.isDirectory() ? file.listFiles() : new File[] {file};
+            if (files == null) {
+                continue;
+            }
+            for (File index : files) {
+                if (!isIndexV1(index)) {
+                    continue;
+                }
+                File data = findData(index);
+                int count = new NalIndexConverter().convert(index);
+                File output = new File(index.getPath() + NalIndex.SUFFIX);
+                sLogger.info("Converted {} units <{}> {} bytes to {} bytes, {}", count, index, index.length(), output.length(),
+                        (data != null) ? "flags by <" + data.getName() + ">" : "no data for flags");
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NalIndexTest {
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteRead() throws Exception {
+        // GOP of 30 at 60fps with a pts jitter, config before each keyframe
+        Random random = new Random(1);
+        int count = 3000;
+        int[] sizes = new int[count];
+        long[] pts = new long[count];
+        int[] flags = new int[count];
+        NalIndex.Writer writer = new NalIndex.Writer(true);
+        for (int i = 0; i < count; i++) {
+            sizes[i] = 5 + random.nextInt(i % 30 == 1 ? 200000 : 20000);
+            pts[i] = i * 16667 + ((i % 7 == 0) ? random.nextInt(1000) - 500 : 0);
+            flags[i] = (i % 30 == 0) ? NalIndex.FLAG_CONFIG :
+                    (i % 30 == 1) ? NalIndex.FLAG_KEYFRAME | NalIndex.FLAG_REF :
+                    (i % 2 == 0) ? NalIndex.FLAG_REF : 0;
+            writer.add(sizes[i], pts[i], flags[i]);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        assertTrue("size:" + out.size(), out.size() < count * 7); // v1 costs 12 bytes per unit
+
+        NalIndex index = NalIndex.wrap(ByteBuffer.wrap(out.toByteArray()));
+        assertTrue(index.hasFrameFlags());
+        assertEquals(count, index.getFrameCount());
+        assertEquals(count / 30, index.getKeyframeCount());
+        NalIndex.Cursor cursor = index.cursor();
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.frame);
+            assertEquals(offset, cursor.offset);
+            assertEquals(sizes[i], cursor.size);
+            assertEquals(pts[i], cursor.ptsUs);
+            assertEquals(flags[i], cursor.flags);
+            offset += sizes[i];
+        }
+        assertFalse(cursor.next());
+        assertEquals(offset, index.getDataLength());
+
+        // Each keyframe continues from its config, binary searched by pts
+        for (int k = 0; k < index.getKeyframeCount(); k++) {
+            int key = k * 30 + 1;
+            assertEquals(k, index.findKeyframe(pts[key]));
+            assertEquals(k, index.findKeyframe(pts[key] + 29 * 16667));
+            assertEquals(pts[key], index.getKeyframePts(k));
+            assertEquals(-1, index.getConfigOffset(k));
+            cursor.seek(k);
+            assertTrue(cursor.next());
+            assertEquals(key - 1, cursor.frame);
+            assertEquals(index.getKeyframeOffset(k), cursor.offset);
+            assertEquals(NalIndex.FLAG_CONFIG, cursor.flags);
+            assertTrue(cursor.next());
+            assertEquals(pts[key], cursor.ptsUs);
+            assertTrue(cursor.next());
+            assertEquals(pts[key + 1], cursor.ptsUs);
+        }
+        assertEquals(0, index.findKeyframe(0));
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        // Same units and seek by the converted index as by the v1 index
+        List<byte[]> units = NalParserIndexedTest.seekUnits();
+        long[] pts = new long[units.size()];
+        for (int i = 0; i < pts.length; i++) pts[i] = i * 100;
+        byte[] data = NalParserTest.concat(units);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(units.size(), new NalIndexConverter().convert(
+                new ByteArrayInputStream(NalParserIndexedTest.writeIndex(units, pts)), new ByteArrayInputStream(data), out));
+
+        NalIndex index = NalIndex.wrap(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(5, index.getKeyframeCount());
+        int[] expected = {
+                NalIndex.FLAG_CONFIG, NalIndex.FLAG_KEYFRAME | NalIndex.FLAG_REF, NalIndex.FLAG_REF
+        };
+        NalIndex.Cursor cursor = index.cursor();
+        for (int flags : expected) {
+            assertTrue(cursor.next());
+            assertEquals(flags, cursor.flags);
+        }
+
+        NalParserIndexed parser = new NalParserIndexed(new ByteArrayInputStream(data), index);
+        NalParserIndexedTest.verifySeek(parser, units);
+    }
+
+    @Test
+    public void testConvertLargeSei() throws Exception {
+        // Slice header beyond the first peek, found by walking the nal headers, e.g. a 690 bytes SEI before IDR
+        byte[] config = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, 0x0a, 0x00, 0x00, 0x01, 0x68, 0x0b};
+        byte[] idr = {0x00, 0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x11};
+        byte[] p = {0x00, 0x00, 0x00, 0x01, 0x41, (byte) 0x9a, 0x14};
+        byte[] b = {0x00, 0x00, 0x00, 0x01, 0x01, (byte) 0x9e, 0x15};
+        List<byte[]> units = Arrays.asList(
+                NalParserTest.concat(Arrays.asList(config, sei(690), idr)),
+                NalParserTest.concat(Arrays.asList(sei(253), p)), // Slice header just after the first peek
+                NalParserTest.concat(Arrays.asList(sei(690), b)),
+                NalParserTest.concat(Arrays.asList(sei(690), idr)));
+        long[] pts = {0, 100, 200, 300};
+        byte[] data = NalParserTest.concat(units);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NalIndexConverter().convert(
+                new ByteArrayInputStream(NalParserIndexedTest.writeIndex(units, pts)), new ByteArrayInputStream(data), out);
+
+        NalIndex index = NalIndex.wrap(ByteBuffer.wrap(out.toByteArray()));
+        int[] expected = {
+                NalIndex.FLAG_KEYFRAME | NalIndex.FLAG_CONFIG | NalIndex.FLAG_REF, NalIndex.FLAG_REF, 0,
+                NalIndex.FLAG_KEYFRAME | NalIndex.FLAG_REF
+        };
+        NalIndex.Cursor cursor = index.cursor();
+        for (int flags : expected) {
+            assertTrue(cursor.next());
+            assertEquals(flags, cursor.flags);
+        }
+        // The parameter sets and SEI leading the first keyframe sent before the second one
+        assertEquals(2, index.getKeyframeCount());
+        assertEquals(0, index.getConfigOffset(1));
+        assertEquals(config.length + 690, index.getConfigSize(1));
+
+        NalParserIndexed parser = new NalParserIndexed(new ByteArrayInputStream(data), index);
+        assertEquals(300, parser.seek(300));
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        assertArrayEquals(Arrays.copyOf(units.get(0), config.length + 690), NalParserTest.toArray(parser.parse(header)));
+        assertArrayEquals(units.get(3), NalParserTest.toArray(parser.parse(header)));
+    }
+
+    // SEI nal of the size, no emulation prevention needed
+    static byte[] sei(int size) {
+        byte[] sei = new byte[size];
+        Arrays.fill(sei, (byte) 0x55);
+        sei[0] = 0x00;
+        sei[1] = 0x00;
+        sei[2] = 0x01;
+        sei[3] = 0x06;
+        return sei;
+    }
+
+    @Test
+    public void testConvertWithoutData() throws Exception {
+        List<byte[]> units = NalParserTest.generateNals(100, 10, 1000);
+        long[] pts = new long[units.size()];
+        for (int i = 0; i < pts.length; i++) pts[i] = i * 16;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NalIndexConverter().setPtsType(NalPolicyIndex.PtsType.MILLISECOND).convert(
+                new ByteArrayInputStream(NalParserIndexedTest.writeIndex(units, pts)), null, out);
+
+        NalIndex index = NalIndex.wrap(ByteBuffer.wrap(out.toByteArray()));
+        assertFalse(index.hasFrameFlags());
+        assertEquals(0, index.getKeyframeCount());
+        assertEquals(-1, index.findKeyframe(0));
+
+        // Parsed the same as by the v1 index
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(units)), index);
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (int i = 0; i < units.size(); i++) {
+            assertArrayEquals(units.get(i), NalParserTest.toArray(parser.parse(header)));
+            assertEquals(pts[i] * 1000, header.pts);
+        }
+        assertEquals(null, parser.parse(header));
+    }
+
+    @Test
+    public void testConvertFiles() throws Exception {
+        // Mapped from file, the variant of index converted with the flags by the data of the same base name
+        List<byte[]> units = NalParserIndexedTest.seekUnits();
+        File dir = mTempFolder.newFolder();
+        FileOutputStream data = new FileOutputStream(new File(dir, "video.h264"));
+        data.write(NalParserTest.concat(units));
+        data.close();
+        File v1 = new File(dir, "video.index.standalone_sei");
+        FileOutputStream index = new FileOutputStream(v1);
+        index.write(NalParserIndexedTest.writeIndex(units, new long[units.size()]));
+        index.close();
+
+        assertTrue(NalIndexConverter.isIndexV1(v1));
+        assertEquals(units.size(), new NalIndexConverter().convert(v1));
+        File v2 = new File(v1.getPath() + NalIndex.SUFFIX);
+        assertFalse(NalIndexConverter.isIndexV1(v2));
+        FileInputStream in = new FileInputStream(v2);
+        NalIndex mapped = NalIndex.map(in.getChannel(), 0, v2.length());
+        in.close();
+        assertEquals(5, mapped.getKeyframeCount());
+        assertEquals(units.size(), mapped.getFrameCount());
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        NalIndex.Writer writer = new NalIndex.Writer(true);
+        for (int i = 0; i < 100; i++) {
+            writer.add(1000 + i, i * 16667, 0);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        byte[] data = out.toByteArray();
+        // Header claims more records than given
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        NalIndex.wrap(ByteBuffer.wrap(Arrays.copyOf(data, data.length - 3)));
+    }
+
+    @Test
+    public void testNotIndex() throws Exception {
+        byte[] v1 = NalParserIndexedTest.writeIndex(NalParserTest.generateNals(2, 10, 100), new long[2]);
+        assertFalse(NalIndex.isIndex(new ByteArrayInputStream(v1)));
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        NalIndex.wrap(ByteBuffer.wrap(v1));
+    }
+}
@@ -0,0 +1,223 @@
+package com.splashtop.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// Generate the index file for NalPolicyIndex on desktop, plain JVM only
+// The file is split into chunks, CSD scanned over the mapped chunks in parallel, then stitched in order
+// Nals merged into access units by the same rule as before: SPS with PPS, SEI with the following nal
+// Usage: java -cp <classes>:<test classes> com.splashtop.demo.NalIndexer <input.h264|input.h265> [output.index] [fps]
+public class NalIndexer {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Test");
+
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int FRAME_RATE = 60;
+
+    private final File mFile;
+    private int mChunkSize = CHUNK_SIZE;
+    private int mFrameRate = FRAME_RATE;
+    private NalParser.Codec mCodec = NalParser.Codec.H264;
+    private ForkJoinPool mPool = ForkJoinPool.commonPool();
+
+    public NalIndexer(File file) {
+        mFile = file;
+    }
+
+    public NalIndexer setChunkSize(int size) {
+        mChunkSize = size;
+        return this;
+    }
+
+    // The pts of each access unit is generated by the fixed frame rate
+    public NalIndexer setFrameRate(int fps) {
+        mFrameRate = fps;
+        return this;
+    }
+
+    public NalIndexer setCodec(NalParser.Codec codec) {
+        mCodec = codec;
+        return this;
+    }
+
+    public NalIndexer setPool(ForkJoinPool pool) {
+        mPool = pool;
+        return this;
+    }
+
+    /**
+     * Write the index, int size and long pts for each access unit
+     *
+     * @return access unit count
+     */
+    public int writeIndex(OutputStream out) throws IOException {
+        long length = mFile.length();
+        long[] csds = scan();
+        if (csds.length == 0 || position(csds[0]) != 0) {
+            throw new NalParser.InvalidStreamException("Not started with CSD");
+        }
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+        long interval = 1000000 / mFrameRate;
+        long unitStart = -1;
+        int count = 0;
+        for (int i = 0; i < csds.length; i++) {
+            long pos = position(csds[i]);
+            long next = (i + 1 < csds.length) ? position(csds[i + 1]) : length;
+            if (unitStart < 0) {
+                unitStart = pos;
+            }
+            NalParser.NalType type = (pos + length(csds[i]) < length) ?
+                    NalParser.parseNalType(header(csds[i]), mCodec) : NalParser.NalType.NAL_UNKNOWN;
+            if (NalParser.NalType.NAL_VPS == type && i + 1 < csds.length) continue; // Merge HEVC VPS with SPS
+            if (NalParser.NalType.NAL_SPS == type && i + 1 < csds.length) continue; // Merge SPS with PPS
+            if (NalParser.NalType.NAL_SEI == type && i + 1 < csds.length) continue; // Merge SEI with IDR
+            output.writeInt((int) (next - unitStart));
+            output.writeLong(count * interval);
+            count++;
+            unitStart = -1;
+        }
+        output.flush();
+        return count;
+    }
+
+    /**
+     * Scan all the CSD in file
+     *
+     * @return CSD in file order, packed as position, length and the nal header byte
+     */
+    long[] scan() throws IOException {
+        FileChannel channel = new FileInputStream(mFile).getChannel();
+        try {
+            long length = channel.size();
+            int chunks = (int) ((length + mChunkSize - 1) / mChunkSize);
+            ChunkTask[] tasks = new ChunkTask[chunks];
+            for (int i = 0; i < chunks; i++) {
+                tasks[i] = new ChunkTask(channel, (long) i * mChunkSize, Math.min(length, (long) (i + 1) * mChunkSize), length);
+            }
+            mPool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                    return null;
+                }
+            });
+
+            int total = 0;
+            for (ChunkTask task : tasks) {
+                total += task.join().length;
+            }
+            long[] csds = new long[total];
+            total = 0;
+            for (ChunkTask task : tasks) {
+                long[] found = task.join();
+                System.arraycopy(found, 0, csds, total, found.length);
+                total += found.length;
+            }
+            return csds;
+        } finally {
+            channel.close();
+        }
+    }
+
+    static long position(long csd) {
+        return csd >>> 16;
+    }
+
+    static int length(long csd) {
+        return (int) ((csd >>> 8) & 0xFF);
+    }
+
+    static byte header(long csd) {
+        return (byte) csd;
+    }
+
+    // Scan the CSD starting in [start, end), the mapping extends over the end to complete the CSD and nal header
+    // A zero run crossing the start is owned by the previous chunk, skip it, counting zeros from the start is wrong
+    private static class ChunkTask extends RecursiveTask<long[]> {
+        private final FileChannel mChannel;
+        private final long mStart;
+        private final long mEnd;
+        private final long mLength;
+
+        ChunkTask(FileChannel channel, long start, long end, long length) {
+            mChannel = channel;
+            mStart = start;
+            mEnd = end;
+            mLength = length;
+        }
+
+        @Override
+        protected long[] compute() {
+            try {
+                long mapStart = Math.max(0, mStart - 1);
+                long mapEnd = Math.min(mLength, mEnd + NalParser.CSD_MAX);
+                MappedByteBuffer data = mChannel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                data.order(ByteOrder.nativeOrder());
+
+                int limit = (int) (mapEnd - mapStart);
+                int end = (int) (mEnd - mapStart);
+                int offset = (int) (mStart - mapStart);
+                while (offset > 0 && offset < limit && data.get(offset - 1) == 0x00) {
+                    offset++;
+                }
+
+                long[] found = new long[64];
+                int count = 0;
+                NalParser.StartCode csd = new NalParser.StartCode();
+                while (offset < end && NalScanner.find(data, offset, limit - offset, csd) && csd.pos < end) {
+                    int headerPos = csd.pos + csd.length;
+                    byte header = (headerPos < limit) ? data.get(headerPos) : 0;
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = ((mapStart + csd.pos) << 16) | (csd.length << 8) | (header & 0xFF);
+                    offset = csd.pos + csd.length;
+                }
+                return Arrays.copyOf(found, count);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to map " + mStart + "-" + mEnd, ex);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            sLogger.error("Usage: NalIndexer <input.h264|input.h265> [output.index] [fps]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = new File(args.length > 1 ? args[1] : args[0].replaceFirst("\\.(h264|h265|264|265|hevc)$", "") + ".index");
+        NalIndexer indexer = new NalIndexer(input).setCodec(NalParser.guessCodec(args[0]));
+        if (args.length > 2) {
+            indexer.setFrameRate(Integer.parseInt(args[2]));
+        }
+
+        long t = System.nanoTime();
+        OutputStream out = new FileOutputStream(output);
+        int count;
+        try {
+            count = indexer.writeIndex(out);
+        } finally {
+            out.close();
+        }
+        long ms = Math.max(1, (System.nanoTime() - t) / 1000000);
+        sLogger.info("Indexed {} access units into <{}> {}MB in {}ms, {}MB/s", count, output,
+                input.length() / 1024 / 1024, ms, input.length() / 1024 * 1000 / 1024 / ms);
+    }
+}
@@ -0,0 +1,151 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NalIndexerTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    private static final byte[] TYPES = {0x67, 0x68, 0x06, 0x65, 0x41, 0x41, 0x41};
+
+    @Test
+    public void testScanAllChunkSizes() throws Exception {
+        List<int[]> units = new ArrayList<>();
+        byte[] data = generate(new Random(1), 200, 40, units);
+        File file = writeFile(data);
+        long[] expected = scanSequential(data);
+
+        // Every boundary offset in CSD and zero runs is covered
+        for (int chunk = 1; chunk <= 24; chunk++) {
+            long[] csds = new NalIndexer(file).setChunkSize(chunk).scan();
+            assertArrayEquals("chunk:" + chunk, expected, csds);
+        }
+        assertEquals(units.size(), countNals(units, data.length));
+    }
+
+    @Test
+    public void testWriteIndex() throws Exception {
+        List<int[]> units = new ArrayList<>();
+        byte[] data = generate(new Random(2), 20000, 400, units);
+        File file = writeFile(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = new NalIndexer(file).setChunkSize(64 * 1024).writeIndex(out);
+
+        // Nal type and size by the generator, SPS and SEI merged to the next nal
+        List<Integer> expected = new ArrayList<>();
+        int size = 0;
+        for (int i = 0; i < units.size(); i++) {
+            size += units.get(i)[1];
+            int type = units.get(i)[0] & 0x1F;
+            if ((type == 7 || type == 6) && i + 1 < units.size()) continue;
+            expected.add(size);
+            size = 0;
+        }
+        assertEquals(expected.size(), count);
+
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < count; i++) {
+            assertEquals((int) expected.get(i), index.readInt());
+            assertEquals(i * (1000000 / 60), index.readLong());
+        }
+        assertEquals(0, index.available());
+    }
+
+    @Test
+    public void testInvalidStart() throws Exception {
+        File file = writeFile(new byte[] {0x01, 0x02, 0x00, 0x00, 0x01, 0x65, 0x11});
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        new NalIndexer(file).writeIndex(new ByteArrayOutputStream());
+    }
+
+    // Nals with random CSD length, payload may contain zero runs and long zero runs end with 0x01, not a CSD
+    private static byte[] generate(Random random, int count, int maxPayload, List<int[]> units) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            int start = out.size();
+            int zeros = 2 + random.nextInt(NalParser.CSD_MAX - 2);
+            for (int j = 0; j < zeros; j++) {
+                out.write(0);
+            }
+            out.write(1);
+            byte type = TYPES[random.nextInt(TYPES.length)];
+            out.write(type);
+            int payload = 1 + random.nextInt(maxPayload);
+            for (int j = 0; j < payload; j++) {
+                int r = random.nextInt(100);
+                if (r < 3) {
+                    for (int k = 0; k < NalParser.CSD_MAX + random.nextInt(8); k++) {
+                        out.write(0);
+                    }
+                    out.write(1);
+                } else if (r < 6) {
+                    out.write(0);
+                    out.write(0);
+                    out.write(2 + random.nextInt(254));
+                } else {
+                    out.write(2 + random.nextInt(254));
+                }
+            }
+            units.add(new int[] {type, out.size() - start});
+        }
+        return out.toByteArray();
+    }
+
+    private static long[] scanSequential(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+        NalParser.StartCode csd = new NalParser.StartCode();
+        List<Long> found = new ArrayList<>();
+        int offset = 0;
+        while (NalScanner.find(buffer, offset, data.length - offset, csd)) {
+            int headerPos = csd.pos + csd.length;
+            byte header = (headerPos < data.length) ? data[headerPos] : 0;
+            found.add(((long) csd.pos << 16) | (csd.length << 8) | (header & 0xFF));
+            offset = csd.pos + csd.length;
+        }
+        long[] result = new long[found.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = found.get(i);
+        }
+        return result;
+    }
+
+    private static int countNals(List<int[]> units, int length) {
+        int total = 0;
+        for (int[] unit : units) {
+            total += unit[1];
+        }
+        assertEquals(length, total);
+        return units.size();
+    }
+
+    private File writeFile(byte[] data) throws IOException {
+        File file = mTempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,186 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NalParserAvccTest {
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    private static final byte[] TYPES = {0x67, 0x68, 0x06, 0x65, 0x41, 0x41, 0x01, 0x09};
+
+    @Test
+    public void testParseAll() throws Exception {
+        List<byte[]> nals = NalParserTest.generateNals(300, 1, 5000);
+        byte[] avcc = toAvcc(NalParserTest.concat(nals), 4);
+
+        NalParserAvcc parser = new NalParserAvcc(new ByteArrayInputStream(avcc), 4);
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (byte[] nal : nals) {
+            ByteBuffer view = parser.parseView(header);
+            byte[] expected = withStartCode(nal);
+            assertEquals(expected.length, header.size);
+            assertEquals(NalParser.NalType.NAL_IDR_SLICE, header.type);
+            assertArrayEquals(expected, NalParserTest.toArray(view));
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+        parser.close();
+    }
+
+    @Test
+    public void testLengthSize() throws Exception {
+        List<byte[]> nals = NalParserTest.generateNals(100, 1, 200);
+        for (int lengthSize : new int[] {1, 2, 4}) {
+            byte[] avcc = toAvcc(NalParserTest.concat(nals), lengthSize);
+            NalParserAvcc parser = new NalParserAvcc(new ByteArrayInputStream(avcc), lengthSize);
+            for (byte[] nal : nals) {
+                assertArrayEquals(withStartCode(nal), NalParserTest.toArray(parser.parse()));
+            }
+            assertNull(parser.parse());
+        }
+    }
+
+    @Test
+    public void testSameAsNalParser() throws Exception {
+        // Same access units from both parsers by the policies merging nals
+        byte[] annexB = generateStream(new Random(1), 500);
+        NalPolicy.Factory[] factories = {
+                new NalPolicy.Factory() {
+                    @Override
+                    public NalPolicy create() {
+                        return new NalPolicy() {
+                            @Override
+                            public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+                                if (NalParser.NalType.NAL_SPS == hdr.type) return Policy.CONTINUE; // Merge SPS with PPS
+                                if (NalParser.NalType.NAL_SEI == hdr.type) return Policy.CONTINUE; // Merge SEI with IDR
+                                if (NalParser.NalType.NAL_AUD == hdr.type) return Policy.SKIP;
+                                return Policy.CUT;
+                            }
+                        };
+                    }
+                },
+                new NalPolicy.Factory() {
+                    @Override
+                    public NalPolicy create() {
+                        return new NalPolicyAccessUnit();
+                    }
+                }
+        };
+        for (NalPolicy.Factory factory : factories) {
+            NalParser expected = new NalParser(new ByteArrayInputStream(annexB), factory.create());
+            NalParser parser = new NalParserAvcc(new ByteArrayInputStream(toAvcc(annexB, 4)), 4, factory.create());
+            NalParser.NalHeader expectedHeader = new NalParser.NalHeader();
+            NalParser.NalHeader header = new NalParser.NalHeader();
+            int count = 0;
+            ByteBuffer unit;
+            while ((unit = expected.parse(expectedHeader)) != null) {
+                ByteBuffer view = parser.parseView(header);
+                assertEquals(expectedHeader.type, header.type);
+                assertEquals(expectedHeader.size, header.size);
+                assertArrayEquals(NalParserTest.toArray(unit), NalParserTest.toArray(view));
+                parser.release(view);
+                count++;
+            }
+            assertNull(parser.parseView(header));
+            assertEquals(true, count > 100);
+        }
+    }
+
+    @Test
+    public void testConvertRoundTrip() throws Exception {
+        byte[] annexB = generateStream(new Random(2), 200);
+        for (int lengthSize : new int[] {2, 4}) {
+            ByteBuffer avcc = ByteBuffer.allocate(annexB.length);
+            NalConverter.toLengthPrefixed(ByteBuffer.wrap(annexB), lengthSize, avcc);
+            avcc.flip();
+            ByteBuffer back = ByteBuffer.allocate(annexB.length);
+            assertEquals(annexB.length, NalConverter.toAnnexB(avcc, lengthSize, back));
+            assertArrayEquals(annexB, back.array());
+        }
+    }
+
+    @Test
+    public void testAvcConfig() throws Exception {
+        byte[] sps = {0x67, 0x64, 0x00, 0x2a, (byte) 0xac};
+        byte[] pps = {0x68, (byte) 0xeb, (byte) 0xe3};
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(new byte[] {0x01, 0x64, 0x00, 0x2a, (byte) 0xFF, (byte) 0xE1}, 0, 6); // Length size 4, one SPS
+        record.write(0x00);
+        record.write(sps.length);
+        record.write(sps, 0, sps.length);
+        record.write(0x01);
+        record.write(0x00);
+        record.write(pps.length);
+        record.write(pps, 0, pps.length);
+
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        assertEquals(4, NalConverter.readAvcConfig(ByteBuffer.wrap(record.toByteArray()), dst));
+        dst.flip();
+        byte[] expected = {
+                0x00, 0x00, 0x00, 0x01, 0x67, 0x64, 0x00, 0x2a, (byte) 0xac,
+                0x00, 0x00, 0x00, 0x01, 0x68, (byte) 0xeb, (byte) 0xe3
+        };
+        assertArrayEquals(expected, NalParserTest.toArray(dst));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] avcc = toAvcc(NalParserTest.concat(NalParserTest.generateNals(10, 10, 100)), 4);
+        NalParserAvcc parser = new NalParserAvcc(new ByteArrayInputStream(Arrays.copyOf(avcc, avcc.length - 5)), 4);
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        while (parser.parse() != null) {
+        }
+    }
+
+    private static byte[] toAvcc(byte[] annexB, int lengthSize) throws Exception {
+        ByteBuffer dst = ByteBuffer.allocate(annexB.length * 2);
+        NalConverter.toLengthPrefixed(ByteBuffer.wrap(annexB), lengthSize, dst);
+        return Arrays.copyOf(dst.array(), dst.position());
+    }
+
+    // The nal payload led by a 4 bytes CSD
+    private static byte[] withStartCode(byte[] nal) {
+        int csd = 0;
+        while (nal[csd] == 0x00) {
+            csd++;
+        }
+        csd++;
+        byte[] data = new byte[4 + nal.length - csd];
+        data[3] = 0x01;
+        System.arraycopy(nal, csd, data, 4, nal.length - csd);
+        return data;
+    }
+
+    // Nals with 4 bytes CSD, single and multi-slice pictures
+    private static byte[] generateStream(Random random, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+            byte type = TYPES[random.nextInt(TYPES.length)];
+            if ((type & 0x1F) <= 5) {
+                w.ue(random.nextBoolean() ? 0 : 1 + random.nextInt(100)); // first_mb_in_slice
+            }
+            int size = 1 + random.nextInt(1000);
+            for (int j = 0; j < size; j++) {
+                w.bits(2 + random.nextInt(254), 8);
+            }
+            byte[] nal = w.toNal(type);
+            out.write(nal, 0, nal.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,180 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NalParserHevcTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    // HEVC nal_unit_type
+    private static final int TRAIL_R    = 1;
+    private static final int RASL_N     = 8;
+    private static final int IDR_W_RADL = 19;
+    private static final int CRA        = 21;
+    private static final int VPS        = 32;
+    private static final int SPS        = 33;
+    private static final int PPS        = 34;
+    private static final int AUD        = 35;
+    private static final int SEI_PREFIX = 39;
+    private static final int SEI_SUFFIX = 40;
+
+    private static final int[] STREAM = {
+            VPS, SPS, PPS, SEI_PREFIX, IDR_W_RADL, TRAIL_R, TRAIL_R, SEI_SUFFIX,
+            AUD, CRA, RASL_N, TRAIL_R, VPS, SPS, PPS, IDR_W_RADL, TRAIL_R
+    };
+
+    @Test
+    public void testNalType() {
+        assertEquals(NalParser.NalType.NAL_SLICE, NalParser.parseHevcNalType(header(0)));
+        assertEquals(NalParser.NalType.NAL_SLICE, NalParser.parseHevcNalType(header(TRAIL_R)));
+        assertEquals(NalParser.NalType.NAL_SLICE, NalParser.parseHevcNalType(header(RASL_N)));
+        assertEquals(NalParser.NalType.NAL_IRAP_SLICE, NalParser.parseHevcNalType(header(16)));
+        assertEquals(NalParser.NalType.NAL_IRAP_SLICE, NalParser.parseHevcNalType(header(CRA)));
+        assertEquals(NalParser.NalType.NAL_IDR_SLICE, NalParser.parseHevcNalType(header(IDR_W_RADL)));
+        assertEquals(NalParser.NalType.NAL_IDR_SLICE, NalParser.parseHevcNalType(header(20)));
+        assertEquals(NalParser.NalType.NAL_VPS, NalParser.parseHevcNalType(header(VPS)));
+        assertEquals(NalParser.NalType.NAL_SPS, NalParser.parseHevcNalType(header(SPS)));
+        assertEquals(NalParser.NalType.NAL_PPS, NalParser.parseHevcNalType(header(PPS)));
+        assertEquals(NalParser.NalType.NAL_AUD, NalParser.parseHevcNalType(header(AUD)));
+        assertEquals(NalParser.NalType.NAL_SEI, NalParser.parseHevcNalType(header(SEI_PREFIX)));
+        assertEquals(NalParser.NalType.NAL_SEI_SUFFIX, NalParser.parseHevcNalType(header(SEI_SUFFIX)));
+        assertEquals(NalParser.NalType.NAL_UNKNOWN, NalParser.parseHevcNalType(header(12)));
+        assertEquals(NalParser.NalType.NAL_UNKNOWN, NalParser.parseHevcNalType(header(48)));
+
+        // Same byte differs by codec, 0x40 is H264 type 0 but HEVC VPS
+        assertEquals(NalParser.NalType.NAL_UNKNOWN, NalParser.parseNalType((byte) 0x40, NalParser.Codec.H264));
+        assertEquals(NalParser.NalType.NAL_VPS, NalParser.parseNalType((byte) 0x40, NalParser.Codec.HEVC));
+    }
+
+    @Test
+    public void testGuessCodec() {
+        assertEquals(NalParser.Codec.HEVC, NalParser.guessCodec("video.h265"));
+        assertEquals(NalParser.Codec.HEVC, NalParser.guessCodec("video.HEVC"));
+        assertEquals(NalParser.Codec.H264, NalParser.guessCodec("video.h264"));
+        assertEquals(NalParser.Codec.H264, NalParser.guessCodec("video"));
+    }
+
+    @Test
+    public void testParseAll() throws Exception {
+        List<byte[]> nals = generateNals(STREAM);
+        NalParser parser = new NalParser(new ByteArrayInputStream(NalParserTest.concat(nals)));
+        parser.setCodec(NalParser.Codec.HEVC);
+        verifyNals(nals, parser);
+    }
+
+    @Test
+    public void testParseMapped() throws Exception {
+        List<byte[]> nals = generateNals(STREAM);
+        File file = mTempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(NalParserTest.concat(nals));
+        out.close();
+
+        NalParserMapped parser = new NalParserMapped(file).setWindowSize(4096);
+        parser.setCodec(NalParser.Codec.HEVC);
+        verifyNals(nals, parser);
+    }
+
+    @Test
+    public void testMergeConfig() throws Exception {
+        // Parameter sets merged into one codec config buffer, prefix SEI with the picture
+        List<byte[]> nals = generateNals(STREAM);
+        NalParser parser = new NalParser(new ByteArrayInputStream(NalParserTest.concat(nals)), new NalPolicy() {
+            @Override
+            public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+                switch (hdr.type) {
+                case NAL_VPS:
+                case NAL_SPS:
+                case NAL_SEI:
+                case NAL_AUD:
+                    return Policy.CONTINUE;
+                default:
+                    return Policy.CUT;
+                }
+            }
+        });
+        parser.setCodec(NalParser.Codec.HEVC);
+
+        NalParser.NalType[] expected = {
+                NalParser.NalType.NAL_VPS, NalParser.NalType.NAL_SEI, NalParser.NalType.NAL_SLICE,
+                NalParser.NalType.NAL_SLICE, NalParser.NalType.NAL_SEI_SUFFIX, NalParser.NalType.NAL_AUD,
+                NalParser.NalType.NAL_SLICE, NalParser.NalType.NAL_SLICE, NalParser.NalType.NAL_VPS,
+                NalParser.NalType.NAL_IDR_SLICE, NalParser.NalType.NAL_SLICE
+        };
+        int[] sizes = {
+                size(nals, 0, 3), size(nals, 3, 5), size(nals, 5, 6), size(nals, 6, 7), size(nals, 7, 8),
+                size(nals, 8, 10), size(nals, 10, 11), size(nals, 11, 12), size(nals, 12, 15), size(nals, 15, 16),
+                size(nals, 16, 17)
+        };
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (int i = 0; i < expected.length; i++) {
+            ByteBuffer view = parser.parseView(header);
+            assertEquals("unit:" + i, expected[i], header.type);
+            assertEquals("unit:" + i, sizes[i], view.remaining());
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    private static void verifyNals(List<byte[]> nals, NalParser parser) throws Exception {
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (byte[] nal : nals) {
+            ByteBuffer view = parser.parseView(header);
+            int csd = (nal[2] == 0x01) ? 3 : 4;
+            assertEquals(NalParser.parseHevcNalType(nal[csd]), header.type);
+            assertArrayEquals(nal, NalParserTest.toArray(view));
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    private static int size(List<byte[]> nals, int from, int to) {
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            size += nals.get(i).length;
+        }
+        return size;
+    }
+
+    private static byte header(int type) {
+        return (byte) (type << 1);
+    }
+
+    // HEVC nals with the two bytes header, layer 0 and temporal id 1, payload never emulates CSD
+    static List<byte[]> generateNals(int[] types) {
+        Random random = new Random(types.length);
+        List<byte[]> nals = new ArrayList<>();
+        for (int type : types) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int csd = 3 + random.nextInt(2);
+            for (int i = 0; i < csd - 1; i++) {
+                out.write(0x00);
+            }
+            out.write(0x01);
+            out.write(header(type));
+            out.write(0x01);
+            int size = 10 + random.nextInt(3000);
+            for (int i = 0; i < size; i++) {
+                out.write(2 + random.nextInt(254));
+            }
+            nals.add(out.toByteArray());
+        }
+        return nals;
+    }
+}
@@ -0,0 +1,384 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NalParserIndexedTest {
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private static final byte[] CONFIG_A = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, 0x0a, 0x00, 0x00, 0x01, 0x68, 0x0b};
+    private static final byte[] CONFIG_B = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, 0x0c, 0x00, 0x00, 0x01, 0x68, 0x0d};
+    private static final byte[] IDR = {0x00, 0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x11};
+    private static final byte[] SEI_IDR = {0x00, 0x00, 0x01, 0x06, 0x05, 0x01, (byte) 0x80, 0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x12};
+    private static final byte[] CONFIG_IDR = {0x00, 0x00, 0x01, 0x67, 0x42, 0x0e, 0x00, 0x00, 0x01, 0x68, 0x0f, 0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x13};
+    private static final byte[] P = {0x00, 0x00, 0x00, 0x01, 0x41, (byte) 0x9a, 0x14};
+
+    @Test
+    public void testParseAll() throws Exception {
+        List<byte[]> nals = NalParserTest.generateNals(200, 1, 10000);
+        long[] pts = new long[nals.size()];
+        for (int i = 0; i < pts.length; i++) pts[i] = i * 16667;
+        byte[] index = writeIndex(nals, pts);
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(nals)), new ByteArrayInputStream(index));
+        for (int i = 0; i < nals.size(); i++) {
+            ByteBuffer view = parser.parseView(header);
+            assertTrue(view.isReadOnly());
+            assertEquals(nals.get(i).length, header.size);
+            assertEquals(NalParser.NalType.NAL_IDR_SLICE, header.type);
+            assertEquals(pts[i], header.pts);
+            assertArrayEquals(nals.get(i), NalParserTest.toArray(view));
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    @Test
+    public void testMatchPolicyIndex() throws Exception {
+        // Index merge SPS with PPS, SEI with IDR, should get the same as NalPolicyIndex
+        byte[] buffer = new byte[] {
+                // SPS 14 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x67, (byte)0x42, (byte)0x80, (byte)0x29,
+                (byte)0x95, (byte)0xa0, (byte)0x14, (byte)0x01, (byte)0x6c, (byte)0x40,
+                // PPS 7 bytes
+                (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x68, (byte)0xce, (byte)0x3c, (byte)0x80,
+                // SEI 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x06, (byte)0x05, (byte)0x02, (byte)0x80,
+                // IDR 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x65, (byte)0xb8, (byte)0x20, (byte)0x02,
+        };
+        byte[] index = writeIndex(Arrays.asList(new byte[21], new byte[16]), new long[] { 1, 2 });
+
+        NalParser.NalHeader expected = new NalParser.NalHeader();
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser reference = new NalParser(new ByteArrayInputStream(buffer),
+                new NalPolicyIndex(new ByteArrayInputStream(index)).setPtsType(NalPolicyIndex.PtsType.MILLISECOND));
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(buffer), new ByteArrayInputStream(index))
+                .setPtsType(NalPolicyIndex.PtsType.MILLISECOND);
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer data = reference.parse(expected);
+            assertEquals(data, parser.parse(header));
+            assertEquals(expected.type, header.type);
+            assertEquals(expected.size, header.size);
+            assertEquals(expected.pts, header.pts);
+        }
+        assertEquals(NalParser.NalType.NAL_SEI, header.type);
+        assertEquals(2000, header.pts);
+        assertNull(reference.parse(expected));
+        assertNull(parser.parse(header));
+    }
+
+    @Test
+    public void testPolicy() throws Exception {
+        // Policy called once per access unit, skip the odd ones and overwrite pts
+        List<byte[]> nals = NalParserTest.generateNals(10, 10, 100);
+        byte[] index = writeIndex(nals, new long[nals.size()]);
+
+        final int[] count = new int[1];
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(nals)), new ByteArrayInputStream(index));
+        parser.setPolicy(new NalPolicy() {
+            @Override
+            public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+                assertEquals(hdr.size, len);
+                assertEquals(len, buffer.remaining());
+                hdr.pts = count[0];
+                return (count[0]++ % 2 == 0) ? Policy.CUT : Policy.SKIP;
+            }
+        });
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (int i = 0; i < nals.size(); i += 2) {
+            assertArrayEquals(nals.get(i), NalParserTest.toArray(parser.parse(header)));
+            assertEquals(i, header.pts);
+        }
+        assertNull(parser.parse(header));
+        assertEquals(nals.size(), count[0]);
+    }
+
+    @Test
+    public void testInvalidCsd() throws Exception {
+        // Index size mismatch the stream, the second access unit not started with CSD
+        List<byte[]> nals = NalParserTest.generateNals(2, 10, 100);
+        byte[] index = writeIndex(Arrays.asList(new byte[nals.get(0).length + 1], nals.get(1)), new long[2]);
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(nals)), new ByteArrayInputStream(index));
+        parser.parse();
+
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        parser.parse();
+        fail(); // Should not reach
+    }
+
+    @Test
+    public void testStreamShorterThanIndex() throws Exception {
+        List<byte[]> nals = NalParserTest.generateNals(2, 10, 100);
+        byte[] index = writeIndex(Arrays.asList(nals.get(0), new byte[nals.get(1).length + 1]), new long[2]);
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(nals)), new ByteArrayInputStream(index));
+        parser.parse();
+
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        parser.parse();
+        fail(); // Should not reach
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        List<byte[]> units = seekUnits();
+        long[] pts = new long[units.size()];
+        for (int i = 0; i < pts.length; i++) pts[i] = i * 100;
+        NalParserIndexed parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(units)),
+                new ByteArrayInputStream(writeIndex(units, pts)));
+        verifySeek(parser, units);
+    }
+
+    @Test
+    public void testSeekFile() throws Exception {
+        // Repositioned by the file channel, the stream starts after a header in file
+        List<byte[]> units = seekUnits();
+        long[] pts = new long[units.size()];
+        for (int i = 0; i < pts.length; i++) pts[i] = i * 100;
+        File data = mTempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(data);
+        out.write(new byte[100]);
+        out.write(NalParserTest.concat(units));
+        out.close();
+        File index = mTempFolder.newFile();
+        out = new FileOutputStream(index);
+        out.write(writeIndex(units, pts));
+        out.close();
+
+        FileInputStream stream = new FileInputStream(data);
+        assertEquals(100, stream.skip(100));
+        NalParserIndexed parser = new NalParserIndexed(stream, new FileInputStream(index));
+        verifySeek(parser, units);
+        parser.close();
+    }
+
+    @Test
+    public void testSeekShippedIndex() throws Exception {
+        // The v2 index shipped next to the v1 one, current and with the keyframes, so a far seek reads no stream ahead
+        String[][] assets = {
+                {"benchmark", "twitch_sync_footage_v1.index", "twitch_sync_footage_v1.h264"},
+                {"m1", "m1.index", "m1.h264"},
+        };
+        for (String[] asset : assets) {
+            File dir = new File("src/" + asset[0] + "/assets");
+            File index = new File(dir, asset[1]);
+            File indexV2 = new File(dir, asset[1] + NalIndex.SUFFIX);
+            File data = new File(dir, asset[2]);
+            ByteArrayOutputStream converted = new ByteArrayOutputStream();
+            new NalIndexConverter().convert(new FileInputStream(index), new BufferedInputStream(new FileInputStream(data)), converted);
+            byte[] shipped = new byte[(int) indexV2.length()];
+            new DataInputStream(new FileInputStream(indexV2)).readFully(shipped);
+            assertArrayEquals(indexV2.getPath(), converted.toByteArray(), shipped);
+
+            NalIndex v2 = NalIndex.read(new FileInputStream(indexV2));
+            assertTrue(v2.getKeyframeCount() > 0);
+            int last = v2.getKeyframeCount() - 1;
+            long lastPts = v2.getKeyframePts(last);
+
+            CountingFileInputStream stream = new CountingFileInputStream(data);
+            NalParserIndexed parser = new NalParserIndexed(stream, v2);
+            assertEquals(lastPts, parser.seek(Long.MAX_VALUE));
+            assertTrue(indexV2.getPath() + " read:" + stream.mRead, stream.mRead <= v2.getConfigSize(last));
+            parser.close();
+
+            // The v1 index scans the stream past the keyframe sought, to the end if none later
+            stream = new CountingFileInputStream(data);
+            parser = new NalParserIndexed(stream, new FileInputStream(index));
+            assertEquals(lastPts, parser.seek(Long.MAX_VALUE));
+            assertTrue(index.getPath() + " read:" + stream.mRead, stream.mRead > v2.getKeyframeOffset(last));
+            parser.close();
+        }
+    }
+
+    // Bytes read from the file, the repositions by the file channel not counted
+    static class CountingFileInputStream extends FileInputStream {
+        long mRead;
+
+        CountingFileInputStream(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            mRead += (b >= 0) ? 1 : 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            mRead += Math.max(n, 0);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mRead += skipped;
+            return skipped;
+        }
+    }
+
+    @Test
+    public void testSeekScanned() throws Exception {
+        // Keyframes scanned only up to the pts sought, the slice found after a large SEI
+        List<byte[]> units = new ArrayList<>(seekUnits());
+        units.set(5, NalParserTest.concat(Arrays.asList(NalIndexTest.sei(690), IDR)));
+        long[] pts = new long[units.size()];
+        for (int i = 0; i < pts.length; i++) pts[i] = i * 100;
+        CountingInputStream stream = new CountingInputStream(NalParserTest.concat(units));
+        NalParserIndexed parser = new NalParserIndexed(stream, new ByteArrayInputStream(writeIndex(units, pts)));
+
+        assertEquals(500, parser.seek(550));
+        assertEquals(2, parser.getKeyframeCount());
+        long read = stream.mRead;
+        assertTrue("read:" + read, read <= NalParserTest.concat(units.subList(0, 7)).length); // Up to the unit at 600
+        assertEquals(100, parser.seek(0)); // Scanned already
+        assertEquals(2, parser.getKeyframeCount());
+        assertEquals(1400, parser.seek(Long.MAX_VALUE));
+        assertEquals(5, parser.getKeyframeCount());
+        assertArrayEquals(Arrays.copyOf(CONFIG_IDR, 11), NalParserTest.toArray(parser.parse(null)));
+        verifyFrom(parser, units, 14);
+
+        assertEquals(500, parser.seek(599));
+        assertArrayEquals(CONFIG_A, NalParserTest.toArray(parser.parse(null)));
+        verifyFrom(parser, units, 5);
+    }
+
+    @Test
+    public void testSeekFirstUnit() throws Exception {
+        // Keyframe with own config as the first unit, no config unit before it
+        List<byte[]> units = Arrays.asList(CONFIG_IDR, P, P, IDR, P);
+        long[] pts = {0, 100, 200, 300, 400};
+        NalParserIndexed parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(units)),
+                new ByteArrayInputStream(writeIndex(units, pts)));
+        assertEquals(0, parser.seek(100));
+        verifyFrom(parser, units, 0);
+        assertEquals(300, parser.seek(300));
+        assertArrayEquals(Arrays.copyOf(CONFIG_IDR, 11), NalParserTest.toArray(parser.parse(null)));
+        verifyFrom(parser, units, 3);
+    }
+
+    // Count the bytes read, skipped ones not counted
+    static class CountingInputStream extends ByteArrayInputStream {
+        long mRead;
+
+        CountingInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read() {
+            int b = super.read();
+            mRead += (b >= 0) ? 1 : 0;
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            mRead += Math.max(n, 0);
+            return n;
+        }
+    }
+
+    @Test
+    public void testSeekNotSupported() throws Exception {
+        List<byte[]> units = seekUnits();
+        NalParserIndexed parser = new NalParserIndexed(new BufferedInputStream(new ByteArrayInputStream(NalParserTest.concat(units))),
+                new ByteArrayInputStream(writeIndex(units, new long[units.size()])));
+        mExpected.expect(IOException.class);
+        parser.seek(0);
+    }
+
+    // Keyframes at 1 with adjacent config A, at 5 with config A not adjacent, at 10 with adjacent config B,
+    // at 12 with own config, at 14 with the config of 12
+    static List<byte[]> seekUnits() {
+        return Arrays.asList(CONFIG_A, IDR, P, P, P, SEI_IDR, P, P, P, CONFIG_B, IDR, P, CONFIG_IDR, P, IDR, P);
+    }
+
+    static void verifySeek(NalParserIndexed parser, List<byte[]> units) throws Exception {
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        // Parse a few before seek
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(units.get(i), NalParserTest.toArray(parser.parse(header)));
+        }
+
+        assertEquals(500, parser.seek(550));
+        assertArrayEquals(CONFIG_A, NalParserTest.toArray(parser.parse(header)));
+        assertEquals(NalParser.NalType.NAL_SPS, header.type);
+        assertEquals(500, header.pts);
+        verifyFrom(parser, units, 5);
+
+        assertEquals(100, parser.seek(0)); // All after, the first keyframe
+        verifyFrom(parser, units, 0);
+
+        assertEquals(1000, parser.seek(1199));
+        verifyFrom(parser, units, 9);
+
+        assertEquals(1200, parser.seek(1399));
+        verifyFrom(parser, units, 12);
+
+        assertEquals(1400, parser.seek(Long.MAX_VALUE));
+        assertArrayEquals(Arrays.copyOf(CONFIG_IDR, 11), NalParserTest.toArray(parser.parse(header)));
+        assertEquals(1400, header.pts);
+        verifyFrom(parser, units, 14);
+
+        assertEquals(500, parser.seek(500)); // Seek again before parsed
+        assertEquals(500, parser.seek(500));
+        assertArrayEquals(CONFIG_A, NalParserTest.toArray(parser.parse(header)));
+    }
+
+    private static void verifyFrom(NalParser parser, List<byte[]> units, int start) throws Exception {
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (int i = start; i < units.size(); i++) {
+            ByteBuffer view = parser.parseView(header);
+            assertArrayEquals(units.get(i), NalParserTest.toArray(view));
+            assertEquals(i * 100, header.pts);
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    // Index entry: int size, long pts
+    static byte[] writeIndex(List<byte[]> units, long[] pts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        for (int i = 0; i < units.size(); i++) {
+            data.writeInt(units.get(i).length);
+            data.writeLong(pts[i]);
+        }
+        data.close();
+        return out.toByteArray();
+    }
+}
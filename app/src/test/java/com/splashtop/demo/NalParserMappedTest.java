@@ -0,0 +1,154 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NalParserMappedTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    @Test
+    public void testParseAll() throws Exception {
+        List<byte[]> nals = NalParserTest.generateNals(300, 1, 5000);
+        File file = writeFile(NalParserTest.concat(nals));
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParserMapped parser = new NalParserMapped(file);
+        long position = 0;
+        for (byte[] nal : nals) {
+            ByteBuffer view = parser.parseView(header);
+            assertTrue(view.isReadOnly());
+            assertEquals(nal.length, header.size);
+            assertEquals(NalParser.NalType.NAL_IDR_SLICE, header.type);
+            assertEquals(position, parser.position());
+            assertArrayEquals(nal, NalParserTest.toArray(view));
+            position += nal.length;
+        }
+        assertNull(parser.parseView(header));
+        parser.close();
+    }
+
+    @Test
+    public void testSlideWindow() throws Exception {
+        // Window smaller than nal, force slide and grow the window
+        List<byte[]> nals = NalParserTest.generateNals(200, 1, 3000);
+        File file = writeFile(NalParserTest.concat(nals));
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParserMapped parser = new NalParserMapped(file).setWindowSize(1024);
+        ByteBuffer last = null;
+        byte[] lastNal = null;
+        for (byte[] nal : nals) {
+            ByteBuffer view = parser.parse(header);
+            assertEquals(nal.length, header.size);
+            assertArrayEquals(nal, NalParserTest.toArray(view));
+
+            // Previous slice should keep valid after window slided
+            if (last != null) {
+                assertArrayEquals(lastNal, NalParserTest.toArray(last));
+            }
+            last = view;
+            lastNal = nal;
+        }
+        assertNull(parser.parse(header));
+        parser.close();
+    }
+
+    @Test
+    public void testPolicy() throws Exception {
+        byte[] buffer = new byte[] {
+                // SPS 14 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x67, (byte)0x42, (byte)0x80, (byte)0x29,
+                (byte)0x95, (byte)0xa0, (byte)0x14, (byte)0x01, (byte)0x6c, (byte)0x40,
+
+                // PPS 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x68, (byte)0xce, (byte)0x3c, (byte)0x80,
+
+                // IDR 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x65, (byte)0xb8, (byte)0x20, (byte)0x02,
+        };
+        File file = writeFile(buffer);
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParserMapped parser = new NalParserMapped(file, new NalPolicy() {
+            @Override
+            public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+                assertEquals(hdr.size, len);
+                assertEquals(len, buffer.remaining());
+                if (NalParser.NalType.NAL_SPS == hdr.type) return Policy.CONTINUE; // Merge SPS with PPS
+                return Policy.CUT;
+            }
+        });
+
+        parser.parseView(header);
+        assertEquals(NalParser.NalType.NAL_SPS, header.type);
+        assertEquals(22, header.size);
+
+        parser.parseView(header);
+        assertEquals(NalParser.NalType.NAL_IDR_SLICE, header.type);
+        assertEquals(8, header.size);
+
+        assertNull(parser.parseView(header));
+        parser.close();
+    }
+
+    @Test
+    public void testChannelRegion() throws Exception {
+        // Stream embedded in a larger file, like uncompressed asset in APK
+        List<byte[]> nals = NalParserTest.generateNals(20, 10, 100);
+        byte[] stream = NalParserTest.concat(nals);
+        byte[] data = new byte[stream.length + 200];
+        System.arraycopy(stream, 0, data, 100, stream.length);
+        File file = writeFile(data);
+
+        FileChannel channel = new FileInputStream(file).getChannel();
+        NalParserMapped parser = new NalParserMapped(channel, 100, stream.length, null);
+        for (byte[] nal : nals) {
+            assertArrayEquals(nal, NalParserTest.toArray(parser.parseView(null)));
+        }
+        assertNull(parser.parseView(null));
+        parser.close();
+        assertTrue(channel.isOpen()); // Not owned by parser
+        channel.close();
+    }
+
+    @Test
+    public void testInvalidSlice() throws Exception {
+        File file = writeFile(new byte[] {
+                (byte)0x68, (byte)0xce, (byte)0x3c, (byte)0x80, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01
+        });
+        NalParserMapped parser = new NalParserMapped(file);
+
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        parser.parseView(null);
+        fail(); // Should not reach
+    }
+
+    private File writeFile(byte[] data) throws IOException {
+        File file = mTempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+}
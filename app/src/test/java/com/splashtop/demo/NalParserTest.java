@@ -5,11 +5,23 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class NalParserTest {
@@ -184,4 +196,373 @@ public class NalParserTest {
         parser.parse(header);
         fail(); // Should not reach
     }
+
+    @Test
+    public void testParseView() throws Exception {
+        byte[] buffer = new byte[] {
+                // SPS 14 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x67, (byte)0x42, (byte)0x80, (byte)0x29,
+                (byte)0x95, (byte)0xa0, (byte)0x14, (byte)0x01, (byte)0x6c, (byte)0x40,
+
+                // PPS 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x68, (byte)0xce, (byte)0x3c, (byte)0x80
+        };
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser(new ByteArrayInputStream(buffer));
+
+        ByteBuffer sps = parser.parseView(header);
+        assertEquals(NalParser.NalType.NAL_SPS, header.type);
+        assertEquals(14, header.size);
+        assertEquals(header.size, sps.remaining());
+        assertTrue(sps.isReadOnly());
+        assertEquals((byte) 0x67, sps.get(sps.position() + 4));
+
+        // Hold the SPS view, PPS view should not overlap
+        ByteBuffer pps = parser.parseView(header);
+        assertEquals(NalParser.NalType.NAL_PPS, header.type);
+        assertEquals(8, header.size);
+        assertEquals(header.size, pps.remaining());
+        assertEquals((byte) 0x67, sps.get(sps.position() + 4));
+        assertEquals((byte) 0x68, pps.get(pps.position() + 4));
+
+        parser.release(pps);
+        parser.release(sps);
+        assertNull(parser.parseView(header));
+
+        mExpected.expect(ReadOnlyBufferException.class);
+        sps.put(0, (byte) 0x00);
+    }
+
+    @Test
+    public void testParseViewRingWrap() throws Exception {
+        List<byte[]> nals = generateNals(500, 1, 3000);
+        byte[] stream = concat(nals);
+
+        // Small ring and chunked stream, force the ring wrap and grow with views outstanding
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser(new ChunkedInputStream(stream, 1000));
+        parser.setCapacity(2048);
+
+        List<ByteBuffer> holding = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < nals.size(); i++) {
+            ByteBuffer view = parser.parseView(header);
+            assertEquals(nals.get(i).length, header.size);
+            assertArrayEquals(nals.get(i), toArray(view));
+            holding.add(view);
+            expected.add(nals.get(i));
+            if (holding.size() == 3) {
+                // Release out of order
+                parser.release(holding.remove(1));
+                parser.release(holding.remove(0));
+                expected.remove(1);
+                expected.remove(0);
+            }
+            // Holding views should keep the content after the ring wrapped
+            for (int j = 0; j < holding.size(); j++) {
+                assertArrayEquals(expected.get(j), toArray(holding.get(j)));
+            }
+        }
+        for (ByteBuffer hold : holding) {
+            parser.release(hold);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    @Test
+    public void testParseViewExhausted() throws Exception {
+        byte[] stream = concat(generateNals(8, 10, 20));
+        NalParser parser = new NalParser(new ByteArrayInputStream(stream));
+
+        // Views not released
+        for (int i = 0; i < 4; i++) {
+            parser.parseView(null);
+        }
+        mExpected.expect(IllegalStateException.class);
+        parser.parseView(null);
+    }
+
+    @Test
+    public void testParseCopyMatchView() throws Exception {
+        List<byte[]> nals = generateNals(300, 1, 10000);
+        byte[] stream = concat(nals);
+
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser(new ChunkedInputStream(stream, 777));
+        for (int i = 0; i < nals.size(); i++) {
+            ByteBuffer out = parser.parse(header);
+            assertEquals(nals.get(i).length, header.size);
+            assertArrayEquals(nals.get(i), toArray(out));
+        }
+        assertNull(parser.parse(header));
+    }
+
+    @Test
+    public void testParseInto() throws Exception {
+        List<byte[]> nals = generateNals(100, 1, 5000);
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser(new ChunkedInputStream(concat(nals), 1500));
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(8192);
+        for (byte[] nal : nals) {
+            dst.clear();
+            assertEquals(nal.length, parser.parseInto(dst, header));
+            assertEquals(nal.length, header.size);
+            assertEquals(NalParser.NalType.NAL_IDR_SLICE, header.type);
+            assertEquals(nal.length, dst.position());
+            dst.flip();
+            assertArrayEquals(nal, toArray(dst));
+        }
+        dst.clear();
+        assertEquals(-1, parser.parseInto(dst, header));
+    }
+
+    @Test
+    public void testParseIntoTooSmall() throws Exception {
+        List<byte[]> nals = generateNals(3, 100, 200);
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser(new ByteArrayInputStream(concat(nals)));
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(1024);
+        dst.position(1000);
+        try {
+            parser.parseInto(dst, header);
+            fail(); // Should not reach
+        } catch (BufferOverflowException ex) {
+            // Nothing written, header tell required size
+            assertEquals(1000, dst.position());
+            assertEquals(nals.get(0).length, header.size);
+        }
+
+        // Next call with enough room should get the same access unit, nothing lost
+        for (byte[] nal : nals) {
+            dst.clear();
+            assertEquals(nal.length, parser.parseInto(dst, header));
+            dst.flip();
+            assertArrayEquals(nal, toArray(dst));
+        }
+        assertEquals(-1, parser.parseInto(dst, header));
+    }
+
+    @Test
+    public void testParseIntoSkip() throws Exception {
+        // Access unit too large for the destination dropped, the next one delivered
+        List<byte[]> nals = generateNals(3, 100, 200);
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser(new ByteArrayInputStream(concat(nals)));
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(10);
+        assertFalse(parser.skipUndelivered());
+        try {
+            parser.parseInto(dst, header);
+            fail(); // Should not reach
+        } catch (BufferOverflowException ex) {
+            assertTrue(parser.skipUndelivered());
+        }
+        dst = ByteBuffer.allocateDirect(1024);
+        assertEquals(nals.get(1).length, parser.parseInto(dst, header));
+        dst.flip();
+        assertArrayEquals(nals.get(1), toArray(dst));
+    }
+
+    @Test
+    public void testFeedChunks() throws Exception {
+        // Feed in random chunks, CSD split across chunks
+        List<byte[]> nals = generateNals(300, 1, 3000);
+        byte[] data = concat(nals);
+        Random random = new Random(5);
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser();
+        parser.setPolicy(new NalParser.SimpleNalPolicy());
+
+        List<byte[]> parsed = new ArrayList<>();
+        int offset = 0;
+        while (offset < data.length) {
+            int len = Math.min(data.length - offset, 1 + random.nextInt(random.nextBoolean() ? 8 : 4000));
+            parser.feed(ByteBuffer.wrap(data, offset, len));
+            offset += len;
+            ByteBuffer view;
+            while ((view = parser.parseView(header)) != null) {
+                assertEquals(header.size, view.remaining());
+                parsed.add(toArray(view));
+                parser.release(view);
+            }
+        }
+        // Last one not delivered until EOS, the end can not be told without next CSD
+        assertEquals(nals.size() - 1, parsed.size());
+        assertFalse(parser.isDrained());
+        parser.feedEos();
+        parsed.add(toArray(parser.parse(header)));
+        assertNull(parser.parse(header));
+        assertTrue(parser.isDrained());
+
+        assertEquals(nals.size(), parsed.size());
+        for (int i = 0; i < nals.size(); i++) {
+            assertArrayEquals(nals.get(i), parsed.get(i));
+        }
+    }
+
+    @Test
+    public void testFeedSplitCsd() throws Exception {
+        byte[] buffer = new byte[] {
+                // IDR 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x65, (byte)0xb8, (byte)0x20, (byte)0x02,
+                // IDR 8 bytes
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x65, (byte)0xb8, (byte)0x20, (byte)0x03,
+        };
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        NalParser parser = new NalParser();
+
+        // Split inside the second CSD, 00 00 | 00 01
+        parser.feed(ByteBuffer.wrap(buffer, 0, 10));
+        assertNull(parser.parseView(header));
+        assertFalse(parser.isDrained());
+
+        // CSD completed, still need the nal header byte
+        parser.feed(ByteBuffer.wrap(buffer, 10, 2));
+        assertNull(parser.parseView(header));
+
+        parser.feed(ByteBuffer.wrap(buffer, 12, 4));
+        assertEquals(ByteBuffer.wrap(buffer, 0, 8), parser.parse(header));
+        assertEquals(NalParser.NalType.NAL_IDR_SLICE, header.type);
+        assertNull(parser.parse(header));
+
+        parser.feedEos();
+        assertEquals(ByteBuffer.wrap(buffer, 8, 8), parser.parse(header));
+        assertNull(parser.parse(header));
+    }
+
+    @Test
+    public void testFeedStreamParser() {
+        NalParser parser = new NalParser(new ByteArrayInputStream(new byte[0]));
+        mExpected.expect(IllegalStateException.class);
+        parser.feed(ByteBuffer.allocate(1));
+    }
+
+    @Test
+    public void testSteadyStateNoAllocation() throws Exception {
+        // Nothing allocated per frame once the buffers grown, parse by CSD with index policy, or by index only
+        List<byte[]> nals = generateNals(1000, 1, 5000);
+        byte[] data = concat(nals);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(index);
+        for (int i = 0; i < nals.size(); i++) {
+            out.writeInt(nals.get(i).length);
+            out.writeLong(i * 1000L);
+        }
+
+        NalParser[] parsers = new NalParser[] {
+                new NalParser(new ByteArrayInputStream(data), new NalPolicyIndex(new ByteArrayInputStream(index.toByteArray()))),
+                new NalParserIndexed(new ByteArrayInputStream(data), new ByteArrayInputStream(index.toByteArray())),
+        };
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        ByteBuffer dst = ByteBuffer.allocateDirect(8192);
+        for (NalParser parser : parsers) {
+            // Warm up, grow the buffers
+            int frame = 0;
+            for (; frame < 200; frame++) {
+                dst.clear();
+                parser.parseInto(dst, header);
+            }
+
+            // JIT may allocate once in a while, take the best of several rounds
+            long overhead = allocatedBytes() - allocatedBytes();
+            long allocated = Long.MAX_VALUE;
+            for (int round = 0; round < 8; round++) {
+                long begin = allocatedBytes();
+                for (int i = 0; i < 100; i++, frame++) {
+                    dst.clear();
+                    assertEquals(nals.get(frame).length, parser.parseInto(dst, header));
+                }
+                allocated = Math.min(allocated, allocatedBytes() - begin + overhead);
+            }
+            assertEquals(parser.getClass().getSimpleName(), 0, allocated);
+        }
+    }
+
+    @Test
+    public void testBufferPool() throws Exception {
+        // Large access units first, the buffer shrinks after small ones for a while
+        List<byte[]> nals = generateNals(10, 100000, 200000);
+        nals.addAll(generateNals(12000, 100, 1000));
+        BufferPool pool = new BufferPool(16 * 1024 * 1024, 10000);
+        NalParser parser = new NalParser(new ByteArrayInputStream(concat(nals)));
+        parser.setBufferPool(pool);
+
+        for (byte[] nal : nals) {
+            assertArrayEquals(nal, toArray(parser.parse()));
+        }
+        assertNull(parser.parse());
+        assertTrue(pool.getRetainedBytes() >= 512 * 1024); // Large buffer returned after shrink
+
+        // Small buffer returned after close
+        long retained = pool.getRetainedBytes();
+        parser.close();
+        assertEquals(4096, pool.getRetainedBytes() - retained);
+    }
+
+    // Bytes allocated by the current thread so far
+    private static long allocatedBytes() {
+        return allocatedBytes(Thread.currentThread());
+    }
+
+    static long allocatedBytes(Thread thread) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(thread.getId());
+    }
+
+    // Generate IDR nals with random payload, the payload never contains 0x00 or 0x01 to avoid CSD emulation
+    static List<byte[]> generateNals(int count, int minSize, int maxSize) {
+        Random random = new Random(count);
+        List<byte[]> nals = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int csd = 3 + random.nextInt(2);
+            byte[] nal = new byte[csd + 1 + minSize + random.nextInt(maxSize - minSize + 1)];
+            nal[csd - 1] = 0x01;
+            nal[csd] = 0x65;
+            for (int j = csd + 1; j < nal.length; j++) {
+                nal[j] = (byte) (2 + random.nextInt(254));
+            }
+            nals.add(nal);
+        }
+        return nals;
+    }
+
+    static byte[] concat(List<byte[]> nals) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] nal : nals) {
+            out.write(nal, 0, nal.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    // Return data no more than chunk size each read, simulate network stream
+    static class ChunkedInputStream extends InputStream {
+        private final byte[] mData;
+        private final int mChunk;
+        private int mPos;
+        ChunkedInputStream(byte[] data, int chunk) {
+            mData = data;
+            mChunk = chunk;
+        }
+        @Override
+        public int read() throws IOException {
+            return (mPos < mData.length) ? (mData[mPos++] & 0xFF) : -1;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mPos >= mData.length) return -1;
+            int size = Math.min(Math.min(len, mChunk), mData.length - mPos);
+            System.arraycopy(mData, mPos, b, off, size);
+            mPos += size;
+            return size;
+        }
+    }
 }
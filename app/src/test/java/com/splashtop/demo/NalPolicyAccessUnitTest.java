@@ -0,0 +1,127 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NalPolicyAccessUnitTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private final Random mRandom = new Random(1);
+
+    @Test
+    public void testMultiSlice() throws Exception {
+        List<List<byte[]>> units = generateUnits();
+        byte[] data = concatUnits(units);
+
+        NalParser parser = new NalParser(new ByteArrayInputStream(data), new NalPolicyAccessUnit());
+        verifyUnits(units, parser);
+    }
+
+    @Test
+    public void testMultiSliceMapped() throws Exception {
+        List<List<byte[]>> units = generateUnits();
+        File file = mTempFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(concatUnits(units));
+        out.close();
+
+        NalParserMapped parser = new NalParserMapped(file, new NalPolicyAccessUnit()).setWindowSize(4096);
+        verifyUnits(units, parser);
+    }
+
+    @Test
+    public void testFeed() throws Exception {
+        List<List<byte[]>> units = generateUnits();
+        byte[] data = concatUnits(units);
+
+        // The pending access unit delivered once the first nal of next one parsed
+        NalParser parser = new NalParser();
+        parser.setPolicy(new NalPolicyAccessUnit());
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        int start = 0;
+        int delivered = 0;
+        for (int i = 0; i < units.size(); i++) {
+            int size = NalParserTest.concat(units.get(i)).length;
+            parser.feed(ByteBuffer.wrap(data, start, size));
+            start += size;
+            ByteBuffer view;
+            while ((view = parser.parse(header)) != null) {
+                assertArrayEquals(NalParserTest.concat(units.get(delivered++)), NalParserTest.toArray(view));
+            }
+            assertTrue(delivered >= i - 1);
+        }
+        parser.feedEos();
+        ByteBuffer view;
+        while ((view = parser.parse(header)) != null) {
+            assertArrayEquals(NalParserTest.concat(units.get(delivered++)), NalParserTest.toArray(view));
+        }
+        assertEquals(units.size(), delivered);
+    }
+
+    private void verifyUnits(List<List<byte[]>> units, NalParser parser) throws Exception {
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (List<byte[]> unit : units) {
+            ByteBuffer view = parser.parseView(header);
+            byte[] expected = NalParserTest.concat(unit);
+            assertEquals(expected.length, header.size);
+            assertEquals(NalParser.parseNalType(unit.get(0)[4]), header.type);
+            assertArrayEquals(expected, NalParserTest.toArray(view));
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    // Access units of the parameter sets, SEI, AUD, multi-slice pictures and end of sequence
+    private List<List<byte[]>> generateUnits() {
+        List<List<byte[]>> units = new ArrayList<>();
+        units.add(Arrays.asList(nal(0x67, -1), nal(0x68, -1), nal(0x06, -1), nal(0x65, 0), nal(0x65, 40), nal(0x65, 80)));
+        units.add(Arrays.asList(nal(0x41, 0), nal(0x41, 40), nal(0x41, 80)));
+        units.add(Arrays.asList(nal(0x41, 0)));
+        units.add(Arrays.asList(nal(0x01, 0), nal(0x0C, -1))); // Non-reference picture, filler
+        units.add(Arrays.asList(nal(0x09, -1), nal(0x41, 0), nal(0x41, 60)));
+        units.add(Arrays.asList(nal(0x09, -1), nal(0x06, -1), nal(0x41, 0), nal(0x0A, -1)));
+        units.add(Arrays.asList(nal(0x67, -1), nal(0x68, -1), nal(0x65, 0)));
+        for (int i = 0; i < 30; i++) {
+            units.add(Arrays.asList(nal(0x41, 0), nal(0x41, 1 + mRandom.nextInt(100)), nal(0x41, 100 + mRandom.nextInt(100))));
+        }
+        return units;
+    }
+
+    // Slice with the first_mb_in_slice, other nals random payload if firstMb is negative
+    private byte[] nal(int header, int firstMb) {
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        if (firstMb >= 0) {
+            w.ue(firstMb);
+        }
+        int size = 10 + mRandom.nextInt(2000);
+        for (int i = 0; i < size; i++) {
+            w.bits(1 + mRandom.nextInt(255), 8);
+        }
+        return w.toNal(header);
+    }
+
+    private static byte[] concatUnits(List<List<byte[]>> units) {
+        List<byte[]> all = new ArrayList<>();
+        for (List<byte[]> unit : units) {
+            all.addAll(unit);
+        }
+        return NalParserTest.concat(all);
+    }
+}
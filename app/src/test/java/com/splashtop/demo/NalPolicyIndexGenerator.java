@@ -12,6 +12,7 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+// NalIndexer generates the same index by parallel scanning, use this one to adjust the policy
 // Step to generate index file
 // 1. Put h264 file in src/test/resources folder
 // 2. Update H264_FILE with h264 resource file name
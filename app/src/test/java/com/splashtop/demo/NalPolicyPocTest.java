@@ -0,0 +1,179 @@
+package com.splashtop.demo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NalPolicyPocTest {
+
+    private static final long INTERVAL = 100000; // 10fps
+
+    private static final int IDR = 0x65;
+    private static final int REF = 0x41;    // nal_ref_idc 2
+    private static final int NON_REF = 0x01;
+
+    @Test
+    public void testPocType0() throws Exception {
+        // I0 P6 B2 B4 P12 B8 B10, then a new IDR
+        NalPolicyPoc policy = new NalPolicyPoc(null, 10);
+        feed(policy, sps(0, 8), pps(false));
+        long[] pts = feedSlices(policy, 0, 8, new int[][] {
+                {IDR, 0, 0}, {REF, 1, 6}, {NON_REF, 2, 2}, {NON_REF, 2, 4},
+                {REF, 2, 12}, {NON_REF, 3, 8}, {NON_REF, 3, 10},
+                {IDR, 0, 0}, {REF, 1, 2}
+        });
+        assertArrayEquals(new long[] {1, 4, 2, 3, 7, 5, 6, 8, 9}, toFrames(pts));
+    }
+
+    @Test
+    public void testPocType0Wrap() throws Exception {
+        // pic_order_cnt_lsb of 4 bits wraps each 8 frames
+        NalPolicyPoc policy = new NalPolicyPoc(null, 10);
+        feed(policy, sps(0, 4), pps(false));
+        int[][] slices = new int[20][];
+        slices[0] = new int[] {IDR, 0, 0};
+        for (int i = 1; i < slices.length; i++) {
+            slices[i] = new int[] {REF, i % 16, (i * 2) % 16};
+        }
+        long[] pts = feedSlices(policy, 0, 4, slices);
+        for (int i = 0; i < slices.length; i++) {
+            assertEquals(i + 1, pts[i] / INTERVAL);
+        }
+        assertEquals(38, policy.getPoc());
+    }
+
+    @Test
+    public void testPocType1() throws Exception {
+        // Ref frames step POC by 4, non-ref frames 2 before: I0 P4 B2 P8 B6
+        NalPolicyPoc policy = new NalPolicyPoc(null, 10);
+        feed(policy, sps(1, 0), pps(false));
+        long[] pts = feedSlices(policy, 1, 0, new int[][] {
+                {IDR, 0}, {REF, 1}, {NON_REF, 2}, {REF, 2}, {NON_REF, 3}
+        });
+        assertArrayEquals(new long[] {1, 3, 2, 5, 4}, toFrames(pts));
+    }
+
+    @Test
+    public void testPocType2() throws Exception {
+        // Output order is decode order, POC by frame_num
+        NalPolicyPoc policy = new NalPolicyPoc(null, 10);
+        feed(policy, sps(2, 0), pps(false));
+        int[][] slices = {{IDR, 0}, {REF, 1}, {NON_REF, 2}, {REF, 2}, {NON_REF, 3}};
+        int[] pocs = {0, 2, 3, 4, 5};
+        for (int i = 0; i < slices.length; i++) {
+            assertEquals(i + 1, feed(policy, slice(2, 0, slices[i], 0)) / INTERVAL);
+            assertEquals(pocs[i], policy.getPoc());
+        }
+    }
+
+    @Test
+    public void testParseUnits() throws Exception {
+        // Multi-slice access units by NalPolicyAccessUnit, pts of each unit in presentation order
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, sps(0, 8));
+        write(out, pps(false));
+        int[][] pictures = {{IDR, 0, 0}, {REF, 1, 4}, {NON_REF, 2, 2}, {REF, 2, 8}, {NON_REF, 3, 6}};
+        for (int[] picture : pictures) {
+            write(out, slice(0, 8, picture, 0));
+            write(out, slice(0, 8, picture, 10));
+        }
+        NalParser parser = new NalParser(new ByteArrayInputStream(out.toByteArray()),
+                new NalPolicyPoc(new NalPolicyAccessUnit(), 10));
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        long[] expected = {1, 3, 2, 5, 4};
+        for (long frame : expected) {
+            ByteBuffer view = parser.parseView(header);
+            assertEquals(frame * INTERVAL, header.pts);
+            parser.release(view);
+        }
+        assertNull(parser.parseView(header));
+    }
+
+    private static long[] feedSlices(NalPolicy policy, int pocType, int log2MaxPocLsb, int[][] slices) {
+        long[] pts = new long[slices.length];
+        for (int i = 0; i < slices.length; i++) {
+            pts[i] = feed(policy, slice(pocType, log2MaxPocLsb, slices[i], 0));
+        }
+        return pts;
+    }
+
+    private static long[] toFrames(long[] pts) {
+        long[] frames = new long[pts.length];
+        for (int i = 0; i < pts.length; i++) {
+            frames[i] = pts[i] / INTERVAL;
+        }
+        return frames;
+    }
+
+    private static long feed(NalPolicy policy, byte[]... nals) {
+        NalParser.NalHeader header = new NalParser.NalHeader();
+        for (byte[] nal : nals) {
+            header.type = NalParser.parseNalType(nal[4]);
+            header.size = nal.length;
+            header.pts = 0;
+            policy.onNal(header, ByteBuffer.wrap(nal), 0, nal.length);
+        }
+        return header.pts;
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] nal) {
+        out.write(nal, 0, nal.length);
+    }
+
+    // Baseline SPS of 320x240 frames, log2_max_frame_num 4
+    private static byte[] sps(int pocType, int log2MaxPocLsb) {
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        w.bits(66, 8).bits(0, 8).bits(30, 8);
+        w.ue(0);       // seq_parameter_set_id
+        w.ue(0);       // log2_max_frame_num_minus4
+        w.ue(pocType);
+        if (pocType == 0) {
+            w.ue(log2MaxPocLsb - 4);
+        } else if (pocType == 1) {
+            w.bit(0);  // delta_pic_order_always_zero_flag
+            w.se(-2);  // offset_for_non_ref_pic
+            w.se(0);   // offset_for_top_to_bottom_field
+            w.ue(1);   // num_ref_frames_in_pic_order_cnt_cycle
+            w.se(4);   // offset_for_ref_frame[0]
+        }
+        w.ue(2);       // max_num_ref_frames
+        w.bit(0);      // gaps_in_frame_num_value_allowed_flag
+        w.ue(19).ue(14);
+        w.bit(1);      // frame_mbs_only_flag
+        w.bit(1);      // direct_8x8_inference_flag
+        w.bit(0);      // frame_cropping_flag
+        w.bit(0);      // vui_parameters_present_flag
+        return w.toNal(0x67);
+    }
+
+    private static byte[] pps(boolean bottomFieldPicOrder) {
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        w.ue(0).ue(0).bit(0).bit(bottomFieldPicOrder ? 1 : 0);
+        return w.toNal(0x68);
+    }
+
+    // Slice header up to the POC fields, {header, frame_num, pic_order_cnt_lsb}
+    private static byte[] slice(int pocType, int log2MaxPocLsb, int[] slice, int firstMb) {
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        w.ue(firstMb);
+        w.ue(slice[0] == NON_REF ? 1 : 0); // slice_type B or P
+        w.ue(0);                           // pic_parameter_set_id
+        w.bits(slice[1], 4);               // frame_num
+        if (slice[0] == IDR) {
+            w.ue(0);                       // idr_pic_id
+        }
+        if (pocType == 0) {
+            w.bits(slice[2], log2MaxPocLsb);
+        } else if (pocType == 1) {
+            w.se(0);                       // delta_pic_order_cnt[0]
+        }
+        w.bits(0x5A5A, 16);                // Rest of slice
+        return w.toNal(slice[0]);
+    }
+}
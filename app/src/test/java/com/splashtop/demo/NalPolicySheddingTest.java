@@ -0,0 +1,221 @@
+package com.splashtop.demo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class NalPolicySheddingTest {
+
+    private static final int SPS = 0x67;
+    private static final int PPS = 0x68;
+    private static final int SEI = 0x06;
+    private static final int IDR = 0x65;
+    private static final int P   = 0x41; // nal_ref_idc 2
+    private static final int B   = 0x01; // nal_ref_idc 0
+
+    private static final int[] STREAM = {SPS, PPS, IDR, P, B, B, P, B, B, P, SPS, PPS, IDR, P, B, P};
+
+    // Load changed by the test
+    private static class Load implements NalPolicyShedding.LoadSignal {
+        int level = NalPolicyShedding.LEVEL_NONE;
+        @Override
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    @Test
+    public void testNoLoad() throws Exception {
+        NalPolicyShedding policy = new NalPolicyShedding(null, new Load());
+        assertEquals(STREAM.length, parse(STREAM, policy, null).size());
+        assertEquals(12, policy.getPassed());
+        assertEquals(0, policy.getShedNonRef());
+        assertEquals(0, policy.getShedRef());
+    }
+
+    @Test
+    public void testShedNonRef() throws Exception {
+        Load load = new Load();
+        load.level = NalPolicyShedding.LEVEL_NON_REF;
+        NalPolicyShedding policy = new NalPolicyShedding(null, load);
+        List<Integer> units = parse(STREAM, policy, null);
+        assertEquals(STREAM.length - 5, units.size());
+        assertEquals(false, units.contains(B));
+        assertEquals(7, policy.getPassed());
+        assertEquals(5, policy.getShedNonRef());
+        assertEquals(0, policy.getShedRef());
+    }
+
+    @Test
+    public void testIdrOnly() throws Exception {
+        // Heavy load for the second P only, the pictures after it skipped until next IDR
+        final Load load = new Load();
+        NalPolicyShedding policy = new NalPolicyShedding(null, load);
+        List<Integer> units = parse(STREAM, policy, new Runnable() {
+            private int mSlices = 0;
+            @Override
+            public void run() {
+                mSlices++;
+                load.level = (mSlices == 5) ? NalPolicyShedding.LEVEL_IDR_ONLY : NalPolicyShedding.LEVEL_NONE;
+            }
+        });
+        int[] expected = {SPS, PPS, IDR, P, B, B, SPS, PPS, IDR, P, B, P};
+        assertEquals(expected.length, units.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("unit:" + i, expected[i], (int) units.get(i));
+        }
+        assertEquals(8, policy.getPassed());
+        assertEquals(0, policy.getShedNonRef());
+        assertEquals(4, policy.getShedRef());
+    }
+
+    @Test
+    public void testMergedUnit() throws Exception {
+        // SEI merged with the picture skipped together, the parameter sets never skipped
+        // While waiting for IDR, the parameter sets delivered at once, not merged with the picture
+        Load load = new Load();
+        load.level = NalPolicyShedding.LEVEL_IDR_ONLY;
+        NalPolicy merge = new NalPolicy() {
+            @Override
+            public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+                switch (hdr.type) {
+                case NAL_SPS:
+                case NAL_PPS:
+                case NAL_SEI:
+                    return Policy.CONTINUE;
+                default:
+                    return Policy.CUT;
+                }
+            }
+        };
+        NalPolicyShedding policy = new NalPolicyShedding(merge, load);
+        List<Integer> units = parse(new int[] {SPS, PPS, SEI, IDR, SEI, P, SEI, B, SPS, PPS, IDR}, policy, null);
+        assertEquals(4, units.size());
+        assertEquals(SPS, (int) units.get(0));
+        assertEquals(SPS, (int) units.get(1));
+        assertEquals(PPS, (int) units.get(2));
+        assertEquals(IDR, (int) units.get(3));
+        assertEquals(2, policy.getPassed());
+        assertEquals(0, policy.getShedNonRef());
+        assertEquals(2, policy.getShedRef()); // B after the skipped P
+    }
+
+    @Test
+    public void testAccessUnit() throws Exception {
+        // Access unit end known by the next one, the skipped picture dropped by SKIP_BEFORE
+        final Load load = new Load();
+        NalPolicyShedding policy = new NalPolicyShedding(new NalPolicyAccessUnit(), load);
+        List<String> units = parseUnits(new int[] {SPS, PPS, IDR, P, B, P, SPS, PPS, P, B, SPS, PPS, IDR, P}, policy, new Runnable() {
+            private int mSlices = 0;
+            @Override
+            public void run() {
+                mSlices++;
+                load.level = (mSlices == 4) ? NalPolicyShedding.LEVEL_IDR_ONLY : NalPolicyShedding.LEVEL_NONE;
+            }
+        });
+        // The parameter sets before the P skipped delivered alone
+        assertEquals("[67 68 65, 41, 01, 67 68, 67 68, 65, 41]", units.toString());
+        assertEquals(5, policy.getPassed());
+        assertEquals(3, policy.getShedRef());
+    }
+
+    @Test
+    public void testAccessUnitNonRef() throws Exception {
+        // The parameter sets split from the skipped non-reference picture by CUT_BEFORE
+        Load load = new Load();
+        load.level = NalPolicyShedding.LEVEL_NON_REF;
+        NalPolicyShedding policy = new NalPolicyShedding(new NalPolicyAccessUnit(), load);
+        List<String> units = parseUnits(new int[] {SPS, PPS, IDR, B, SEI, B, P, SPS, PPS, B, P}, policy, null);
+        assertEquals("[67 68 65, 41, 67 68, 41]", units.toString());
+        assertEquals(3, policy.getPassed());
+        assertEquals(3, policy.getShedNonRef());
+    }
+
+    @Test
+    public void testIndexed() throws Exception {
+        // Whole unit by index, the parameter sets of a skipped picture delivered by a smaller header size
+        NalPolicyShedding policy = new NalPolicyShedding(null, new NalPolicyShedding.LoadSignal() {
+            private int mCount = 0;
+            @Override
+            public int getLevel() {
+                return (++mCount == 2) ? NalPolicyShedding.LEVEL_IDR_ONLY : NalPolicyShedding.LEVEL_NONE;
+            }
+        });
+        int[][] input = {{SPS, PPS, IDR}, {P}, {P}, {SPS, PPS, P}, {B}, {SPS, PPS, IDR}};
+        List<byte[]> stream = new ArrayList<>();
+        for (int[] unit : input) {
+            stream.add(write(unit));
+        }
+        NalParser parser = new NalParserIndexed(new ByteArrayInputStream(NalParserTest.concat(stream)),
+                new ByteArrayInputStream(NalParserIndexedTest.writeIndex(stream, new long[stream.size()])));
+        parser.setPolicy(policy);
+        List<String> units = new ArrayList<>();
+        ByteBuffer view;
+        while ((view = parser.parseView(null)) != null) {
+            units.add(headers(view));
+            parser.release(view);
+        }
+        assertEquals("[67 68 65, 41, 67 68, 67 68 65]", units.toString());
+        assertEquals(3, policy.getPassed());
+        assertEquals(3, policy.getShedRef());
+    }
+
+    // Return the header of the first nal in each unit, the callback run before each slice
+    private static List<Integer> parse(int[] headers, final NalPolicy policy, final Runnable onSlice) throws Exception {
+        List<Integer> units = new ArrayList<>();
+        NalParser parser = parser(headers, policy, onSlice);
+        ByteBuffer view;
+        while ((view = parser.parseView(null)) != null) {
+            units.add(view.get(view.position() + 4) & 0xFF);
+            parser.release(view);
+        }
+        return units;
+    }
+
+    // Return the headers of all the nals in each unit
+    private static List<String> parseUnits(int[] headers, final NalPolicy policy, final Runnable onSlice) throws Exception {
+        List<String> units = new ArrayList<>();
+        NalParser parser = parser(headers, policy, onSlice);
+        ByteBuffer view;
+        while ((view = parser.parseView(null)) != null) {
+            units.add(headers(view));
+            parser.release(view);
+        }
+        return units;
+    }
+
+    // Each nal of 9 bytes, the header after a 4 bytes start code
+    private static String headers(ByteBuffer view) {
+        StringBuilder b = new StringBuilder();
+        for (int pos = view.position() + 4; pos < view.limit(); pos += 9) {
+            b.append(b.length() > 0 ? " " : "").append(String.format("%02x", view.get(pos) & 0xFF));
+        }
+        return b.toString();
+    }
+
+    private static byte[] write(int[] headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int header : headers) {
+            out.write(new byte[] {0x00, 0x00, 0x00, 0x01, (byte) header, (byte) 0x88, 0x20, 0x10, 0x55}, 0, 9);
+        }
+        return out.toByteArray();
+    }
+
+    private static NalParser parser(int[] headers, final NalPolicy policy, final Runnable onSlice) {
+        return new NalParser(new ByteArrayInputStream(write(headers)), new NalPolicy() {
+            @Override
+            public Policy onNal(NalParser.NalHeader hdr, ByteBuffer buffer, int offset, int len) {
+                if (onSlice != null && (hdr.type == NalParser.NalType.NAL_SLICE || hdr.type == NalParser.NalType.NAL_IDR_SLICE)) {
+                    onSlice.run();
+                }
+                return policy.onNal(hdr, buffer, offset, len);
+            }
+        });
+    }
+}
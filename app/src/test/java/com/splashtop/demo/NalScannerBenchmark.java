@@ -0,0 +1,64 @@
+package com.splashtop.demo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+// Compare the CSD search throughput of NalScanner with byte by byte searching on desktop, plain JVM only
+// Kept out of the unit tests, the result depends on the JIT and the machine, not a pass or fail
+// Both loops are run for the warm-up rounds before timed, so compiled, the best timed round of each taken
+// Usage: java -cp <classes>:<test classes> com.splashtop.demo.NalScannerBenchmark [MB] [warm-up rounds] [timed rounds]
+public class NalScannerBenchmark {
+
+    private static final Logger sLogger = LoggerFactory.getLogger("ST-Test");
+
+    private static final int SIZE_MB = 8;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int TIMED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : SIZE_MB;
+        int warmup = (args.length > 1) ? Integer.parseInt(args[1]) : WARMUP_ROUNDS;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : TIMED_ROUNDS;
+
+        // Typical slice data, CSD every 100KB
+        byte[] buffer = NalScannerTest.generate(size << 20, 100 * 1024, new Random(4));
+        ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+        NalParser.StartCode csd = new NalParser.StartCode();
+
+        long bytewise = Long.MAX_VALUE;
+        long wordwise = Long.MAX_VALUE;
+        int found = 0;
+        for (int round = 0; round < warmup + rounds; round++) {
+            long t = System.nanoTime();
+            for (int offset = 0; ; offset = csd.pos + csd.length) {
+                csd = NalScannerTest.findReference(buffer, offset, buffer.length - offset);
+                if (!csd.valid()) break;
+                found++;
+            }
+            long bytewiseNs = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            for (int offset = 0; ; offset = csd.pos + csd.length) {
+                if (!NalScanner.find(words, offset, buffer.length - offset, csd)) break;
+                found--;
+            }
+            long wordwiseNs = System.nanoTime() - t;
+            if (round >= warmup) {
+                bytewise = Math.min(bytewise, bytewiseNs);
+                wordwise = Math.min(wordwise, wordwiseNs);
+            }
+        }
+        if (found != 0) {
+            sLogger.error("CSD found differ by {}", found);
+            System.exit(1);
+        }
+        sLogger.info("Scan {}MB bytewise:{}MB/s wordwise:{}MB/s speedup:{}", size,
+                (buffer.length * 1000L) / Math.max(bytewise, 1),
+                (buffer.length * 1000L) / Math.max(wordwise, 1),
+                String.format("%.2f", (double) bytewise / Math.max(wordwise, 1)));
+    }
+}
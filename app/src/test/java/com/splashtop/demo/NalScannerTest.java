@@ -0,0 +1,145 @@
+package com.splashtop.demo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NalScannerTest {
+
+    @Test
+    public void testCsdAfterOne() {
+        // 0x01 at the tail of previous nal should not be counted into the CSD
+        byte[] buffer = new byte[] {
+                (byte)0x02, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x01, (byte)0x65, (byte)0x02, (byte)0x03
+        };
+        NalParser.StartCode csd = NalParser.findStartCode(buffer, 0, buffer.length);
+        assertEquals(2, csd.pos);
+        assertEquals(3, csd.length);
+    }
+
+    @Test
+    public void testWordBoundary() {
+        // CSD with any length at any alignment, crossing the word boundary
+        for (int length = 3; length <= 8; length++) {
+            for (int pos = 0; pos < 24; pos++) {
+                byte[] buffer = new byte[40];
+                for (int i = 0; i < buffer.length; i++) buffer[i] = (byte) 0xAA;
+                for (int i = 0; i < length - 1; i++) buffer[pos + i] = 0x00;
+                buffer[pos + length - 1] = 0x01;
+
+                NalParser.StartCode csd = new NalParser.StartCode();
+                assertTrue(NalScanner.find(ByteBuffer.wrap(buffer), 0, buffer.length, csd));
+                assertEquals(pos, csd.pos);
+                assertEquals(length, csd.length);
+
+                // Truncated before the 0x01, should not match
+                assertFalse(NalScanner.find(ByteBuffer.wrap(buffer), 0, pos + length - 1, csd));
+                assertFalse(csd.valid());
+            }
+        }
+    }
+
+    @Test
+    public void testMatchReference() {
+        byte[] buffer = generate(1 << 16, 64, new Random(1));
+        NalParser.StartCode csd = new NalParser.StartCode();
+        Random random = new Random(2);
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer words = ByteBuffer.wrap(buffer).order(order);
+            for (int i = 0; i < 2000; i++) {
+                int offset = random.nextInt(buffer.length);
+                int len = random.nextInt(buffer.length - offset);
+                NalParser.StartCode expected = findReference(buffer, offset, len);
+                NalScanner.find(words, offset, len, csd);
+                assertEquals(expected.pos, csd.pos);
+                assertEquals(expected.length, csd.length);
+            }
+        }
+    }
+
+    @Test
+    public void testResume() {
+        // Scan in small pieces and resume, should get the same CSD as scan the whole
+        byte[] buffer = generate(1 << 14, 300, new Random(3));
+        ByteBuffer words = ByteBuffer.wrap(buffer);
+        NalParser.StartCode csd = new NalParser.StartCode();
+        int offset = 0;
+        while (offset < buffer.length) {
+            NalParser.StartCode expected = findReference(buffer, offset, buffer.length - offset);
+            int scan = offset;
+            for (int end = offset + 5; ; end = Math.min(end + 5, buffer.length)) {
+                if (NalScanner.find(words, scan, end - scan, csd) || end == buffer.length) break;
+                scan = NalScanner.resume(scan, end - scan);
+            }
+            assertEquals(expected.pos, csd.pos);
+            assertEquals(expected.length, csd.length);
+            if (!csd.valid()) break;
+            offset = csd.pos + csd.length;
+        }
+    }
+
+    @Test
+    public void testSameAsReference() {
+        // Typical slice data, CSD every 100KB, the throughput compared by NalScannerBenchmark
+        byte[] buffer = generate(8 << 20, 100 * 1024, new Random(4));
+        ByteBuffer words = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+        NalParser.StartCode csd = new NalParser.StartCode();
+        int found = 0;
+        for (int offset = 0; ; offset = csd.pos + csd.length) {
+            NalParser.StartCode expected = findReference(buffer, offset, buffer.length - offset);
+            if (!NalScanner.find(words, offset, buffer.length - offset, csd)) {
+                assertFalse(expected.valid());
+                break;
+            }
+            assertEquals(expected.pos, csd.pos);
+            assertEquals(expected.length, csd.length);
+            found++;
+        }
+        assertTrue(found > 0);
+    }
+
+    // Random payload with the zero bytes density of compressed data, CSD inserted every interval bytes
+    static byte[] generate(int size, int interval, Random random) {
+        byte[] buffer = new byte[size];
+        random.nextBytes(buffer);
+        for (int pos = 0; pos + 8 < size; pos += 1 + random.nextInt(interval * 2)) {
+            int length = 3 + random.nextInt(6);
+            for (int i = 0; i < length - 1; i++) buffer[pos + i] = 0x00;
+            buffer[pos + length - 1] = 0x01;
+            pos += length;
+        }
+        return buffer;
+    }
+
+    // Byte by byte reference implementation
+    static NalParser.StartCode findReference(byte[] data, int offset, int len) {
+        NalParser.StartCode csd = new NalParser.StartCode();
+        int matched = 0;
+        for (int i = 0; i < len; i++) {
+            switch (data[offset + i]) {
+            case 0x00:
+                matched++;
+                break;
+            case 0x01:
+                matched++;
+                if (NalParser.CSD_MIN <= matched && matched <= NalParser.CSD_MAX) {
+                    csd.pos    = offset + i - matched + 1;
+                    csd.length = matched;
+                    return csd;
+                }
+                matched = 0;
+                break;
+            default:
+                matched = 0;
+                break;
+            }
+        }
+        return csd;
+    }
+}
@@ -0,0 +1,163 @@
+package com.splashtop.demo;
+
+import android.view.Surface;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class NalSeiTest {
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    private static final UUID OTHER = new UUID(0x0123456789ABCDEFL, 0x0000000000000001L);
+
+    @Test
+    public void testUserData() throws Exception {
+        // Timestamp emulates the CSD, read through the emulation prevention bytes
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        userData(w, OTHER, 0x1122334455667788L);
+        userData(w, NalSei.UUID_CAPTURE_TIME, 0x0000000100000002L);
+        byte[] nal = w.toNal(0x06);
+
+        NalSei sei = new NalSei().registerTimestamp(NalSei.UUID_CAPTURE_TIME);
+        sei.parse(ByteBuffer.wrap(nal), 0, nal.length, null);
+        assertEquals(0x0000000100000002L, sei.getTimestamp(NalSei.UUID_CAPTURE_TIME));
+        assertEquals(-1, sei.getTimestamp(OTHER)); // Not registered
+        assertEquals(-1, sei.getClockTimestampUs());
+
+        sei.registerTimestamp(OTHER).parse(ByteBuffer.wrap(nal), 0, nal.length, null);
+        assertEquals(0x1122334455667788L, sei.getTimestamp(OTHER));
+    }
+
+    @Test
+    public void testPicTiming() throws Exception {
+        NalSps sps = new NalSps();
+        sps.timingInfoPresent = true;
+        sps.numUnitsInTick = 1;
+        sps.timeScale = 60;
+        sps.cpbDpbDelaysPresent = true;
+        sps.cpbRemovalDelayLength = 24;
+        sps.dpbOutputDelayLength = 24;
+        sps.timeOffsetLength = 8;
+        sps.picStructPresent = true;
+
+        // 01:02:03 and 30 frames of 60Hz field-based ticks, time offset -6 ticks
+        NalSpsTest.BitWriter p = new NalSpsTest.BitWriter();
+        p.bits(100, 24).bits(200, 24);
+        p.bits(0, 4);              // pic_struct frame, one clock timestamp
+        p.bit(1).bits(0, 2).bit(1).bits(0, 5).bit(1).bits(0, 2).bits(30, 8);
+        p.bits(3, 6).bits(2, 6).bits(1, 5);
+        p.bits(-6, 8);
+        byte[] payload = p.toByteArray();
+
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        userData(w, OTHER, 1);
+        w.bits(NalSei.PAYLOAD_PIC_TIMING, 8).bits(payload.length, 8);
+        for (byte b : payload) {
+            w.bits(b, 8);
+        }
+        byte[] nal = w.toNal(0x06);
+
+        NalSei sei = new NalSei().parse(ByteBuffer.wrap(nal), 0, nal.length, sps);
+        assertEquals(3723000000L + 900000L, sei.getClockTimestampUs());
+
+        sei.parse(ByteBuffer.wrap(nal), 0, nal.length, null);
+        assertEquals(-1, sei.getClockTimestampUs());
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        userData(w, NalSei.UUID_CAPTURE_TIME, 1000);
+        byte[] aud = {0x00, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0};
+        byte[] sei = w.toNal(0x06);
+        byte[] idr = {0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x00, 0x00, 0x01, 0x06};
+        byte[] unit = NalParserTest.concat(Arrays.asList(aud, sei, idr));
+
+        NalSei parser = new NalSei().registerTimestamp(NalSei.UUID_CAPTURE_TIME);
+        int offset = parser.find(ByteBuffer.wrap(unit), 0, unit.length);
+        assertEquals(aud.length, offset);
+        parser.parse(ByteBuffer.wrap(unit), offset, unit.length - offset, null);
+        assertEquals(1000, parser.getTimestamp(NalSei.UUID_CAPTURE_TIME));
+
+        // SEI like bytes after the slice not searched
+        byte[] noSei = NalParserTest.concat(Arrays.asList(aud, idr));
+        assertEquals(-1, parser.find(ByteBuffer.wrap(noSei), 0, noSei.length));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        NalSpsTest.BitWriter w = new NalSpsTest.BitWriter();
+        userData(w, NalSei.UUID_CAPTURE_TIME, 1000);
+        byte[] nal = w.toNal(0x06);
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        new NalSei().parse(ByteBuffer.wrap(nal), 0, nal.length - 10, null);
+    }
+
+    @Test
+    public void testCaptureThroughDecoder() throws Exception {
+        // Capture time of input matched by pts on output, in any order
+        final Decoder.VideoBufferInfo in = new Decoder.VideoBufferInfo();
+        final Decoder.VideoBufferInfo[] out = new Decoder.VideoBufferInfo[1];
+        Decoder decoder = new Decoder() {
+            @Override public void attachSurface(Surface surface) {}
+            @Override public void detachSurface(Surface surface) {}
+            @Override public void start() {}
+            @Override public void stop() {}
+        };
+        decoder.setInput(new DecoderInput() {
+            @Override
+            public Decoder.VideoFormat readFormat(Decoder decoder) {
+                return null;
+            }
+            @Override
+            public Decoder.VideoBufferInfo readBuffer(Decoder decoder, ByteBuffer buffer) {
+                return in;
+            }
+        });
+        decoder.setOutput(new DecoderOutput.Wrapper(null) {
+            @Override
+            public boolean onBuffer(Decoder decoder, Decoder.VideoBufferInfo info, ByteBuffer buffer) {
+                out[0] = info;
+                return true;
+            }
+        });
+        for (int i = 1; i <= 3; i++) {
+            in.pts = i * 1000;
+            in.captureTimeUs = (i == 2) ? -1 : i * 10;
+            decoder.readInputBuffer(null);
+        }
+        long[] expected = {-1, 30, 10, -1};
+        long[] pts = {2000, 3000, 1000, 1000};
+        for (int i = 0; i < pts.length; i++) {
+            Decoder.VideoBufferInfo info = new Decoder.VideoBufferInfo();
+            info.pts = pts[i];
+            decoder.writeOutputBuffer(info, null);
+            assertEquals(expected[i], out[0].captureTimeUs);
+        }
+
+        LatencyStats stats = new LatencyStats();
+        assertEquals(-1, stats.add(-1, 100));
+        assertEquals(50, stats.add(10, 60));
+        assertEquals(30, stats.add(10, 40));
+        assertEquals(2, stats.getCount());
+        assertEquals(30, stats.getMinUs());
+        assertEquals(50, stats.getMaxUs());
+        assertEquals(40, stats.getAverageUs());
+    }
+
+    static void userData(NalSpsTest.BitWriter w, UUID uuid, long timestamp) {
+        w.bits(NalSei.PAYLOAD_USER_DATA_UNREGISTERED, 8).bits(24, 8);
+        w.bits((int) (uuid.getMostSignificantBits() >>> 32), 32).bits((int) uuid.getMostSignificantBits(), 32);
+        w.bits((int) (uuid.getLeastSignificantBits() >>> 32), 32).bits((int) uuid.getLeastSignificantBits(), 32);
+        w.bits((int) (timestamp >>> 32), 32).bits((int) timestamp, 32);
+    }
+}
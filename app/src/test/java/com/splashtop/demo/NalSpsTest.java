@@ -0,0 +1,280 @@
+package com.splashtop.demo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NalSpsTest {
+
+    @Rule
+    public ExpectedException mExpected = ExpectedException.none();
+
+    // SPS and PPS of the benchmark flavor video, 1920x1080 cropped from 1088, with emulation prevention bytes
+    private static final byte[] SPS_1080P = {
+            0x00, 0x00, 0x00, 0x01, 0x67, 0x64, 0x00, 0x2a, (byte) 0xac, (byte) 0xd9, 0x40, 0x78, 0x02, 0x27, (byte) 0xe5, (byte) 0x84,
+            0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00, 0x03, 0x01, (byte) 0xe0, 0x3c, 0x60, (byte) 0xc6, 0x58
+    };
+    private static final byte[] PPS_1080P = {
+            0x00, 0x00, 0x00, 0x01, 0x68, (byte) 0xeb, (byte) 0xe3, (byte) 0xcb, 0x22, (byte) 0xc0
+    };
+
+    @Test
+    public void testExpGolomb() throws Exception {
+        BitWriter w = new BitWriter();
+        for (int i = 0; i < 300; i++) {
+            w.ue(i);
+            w.se(i - 150);
+        }
+        w.bits(0xDEADBEEF, 32);
+        w.bit(1);
+
+        byte[] data = w.toByteArray();
+        BitReader r = new BitReader().reset(ByteBuffer.wrap(data), 0, data.length);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, r.readUE());
+            assertEquals(i - 150, r.readSE());
+        }
+        assertEquals(0xDEADBEEF, r.readBits(32));
+        assertTrue(r.readFlag());
+        assertEquals(7, r.bitsLeft());
+    }
+
+    @Test
+    public void testReadOverEnd() throws Exception {
+        BitReader r = new BitReader().reset(ByteBuffer.wrap(new byte[] {(byte) 0xFF, 0x00}), 0, 1);
+        r.readBits(8);
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        r.readBit();
+    }
+
+    @Test
+    public void testReadRbsp() throws Exception {
+        // Zero runs emulated by the values, the next nal follows
+        BitWriter w = new BitWriter();
+        for (int i = 0; i < 100; i++) {
+            w.bits(0, 16);
+            w.bits(i % 4, 8);
+            w.ue(i);
+        }
+        byte[] nal = NalParserTest.concat(Arrays.asList(w.toNal(0x06), new byte[] {0x00, 0x00, 0x01, 0x09, (byte) 0xF0}));
+        BitReader r = new BitReader().resetNal(ByteBuffer.wrap(nal), 0, nal.length);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, r.readBits(16));
+            assertEquals(i % 4, r.readBits(8));
+            assertEquals(i, r.readUE());
+        }
+        assertTrue(r.readFlag()); // Stop bit
+        r.skipBits(r.bitsLeft() % 8);
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        r.readBits(8); // Zeros of next CSD
+    }
+
+    @Test
+    public void testReadRbspLazy() throws Exception {
+        // Only the header bytes touched, the length over the buffer never reached
+        byte[] nal = {0x00, 0x00, 0x01, 0x65, (byte) 0x88, 0x00, 0x00, 0x03, 0x01};
+        BitReader r = new BitReader().resetNal(ByteBuffer.wrap(nal), 0, 1 << 30);
+        assertEquals(0, r.readUE());
+        assertEquals(0x1000, r.readBits(16));
+        assertEquals(0x0001, r.readBits(15)); // 0x03 skipped
+    }
+
+    @Test
+    public void testParseStream() throws Exception {
+        NalSps sps = new NalSps().parse(ByteBuffer.wrap(SPS_1080P), 0, SPS_1080P.length);
+        assertEquals(100, sps.profileIdc);
+        assertEquals(42, sps.levelIdc);
+        assertEquals(0, sps.spsId);
+        assertEquals(0, sps.picOrderCntType);
+        assertEquals(120, sps.picWidthInMbs);
+        assertEquals(68, sps.picHeightInMapUnits);
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+        assertEquals(60.0f, sps.getFrameRate(), 0.001f);
+        assertEquals(2, sps.maxNumReorderFrames);
+
+        Decoder.VideoFormat fmt = new Decoder.VideoFormat();
+        sps.toFormat(fmt);
+        assertEquals(1920, fmt.width);
+        assertEquals(1080, fmt.height);
+        assertEquals(100, fmt.profile);
+        assertEquals(42, fmt.level);
+        assertEquals(2, fmt.reorderFrames);
+
+        NalPps pps = new NalPps().parse(ByteBuffer.wrap(PPS_1080P), 0, PPS_1080P.length);
+        assertEquals(0, pps.ppsId);
+        assertEquals(0, pps.spsId);
+        assertTrue(pps.entropyCodingMode);
+    }
+
+    @Test
+    public void testParseMergedUnit() throws Exception {
+        // SPS and PPS in one access unit, parse stopped at the next CSD
+        byte[] unit = NalParserTest.concat(Arrays.asList(SPS_1080P, PPS_1080P));
+        ByteBuffer buffer = ByteBuffer.allocate(unit.length + 10);
+        buffer.position(10);
+        buffer.put(unit);
+        NalSps sps = new NalSps().parse(buffer, 10, unit.length);
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+    }
+
+    @Test
+    public void testParseInterlacedCropped() throws Exception {
+        // Baseline 352x288 field coded, cropped to 350x280, poc type 1, 25fps
+        BitWriter w = new BitWriter();
+        w.bits(66, 8);       // profile_idc
+        w.bits(0xC0, 8);     // constraint flags
+        w.bits(30, 8);       // level_idc
+        w.ue(3);             // sps id
+        w.ue(0);             // log2_max_frame_num_minus4
+        w.ue(1);             // pic_order_cnt_type
+        w.bit(0);            // delta_pic_order_always_zero_flag
+        w.se(-2);            // offset_for_non_ref_pic
+        w.se(1);             // offset_for_top_to_bottom_field
+        w.ue(2);             // num_ref_frames_in_pic_order_cnt_cycle
+        w.se(4);
+        w.se(-6);
+        w.ue(2);             // max_num_ref_frames
+        w.bit(0);            // gaps_in_frame_num_value_allowed_flag
+        w.ue(22 - 1);        // pic_width_in_mbs_minus1
+        w.ue(9 - 1);         // pic_height_in_map_units_minus1
+        w.bit(0);            // frame_mbs_only_flag
+        w.bit(1);            // mb_adaptive_frame_field_flag
+        w.bit(1);            // direct_8x8_inference_flag
+        w.bit(1);            // frame_cropping_flag
+        w.ue(0);
+        w.ue(1);             // right, 2 pixels
+        w.ue(0);
+        w.ue(2);             // bottom, 8 lines
+        w.bit(1);            // vui_parameters_present_flag
+        w.bit(1);            // aspect_ratio_info_present_flag
+        w.bits(255, 8);      // Extended_SAR
+        w.bits(0, 32);
+        w.bit(0);            // overscan_info_present_flag
+        w.bit(0);            // video_signal_type_present_flag
+        w.bit(0);            // chroma_loc_info_present_flag
+        w.bit(1);            // timing_info_present_flag
+        w.bits(1, 32);       // num_units_in_tick
+        w.bits(50, 32);      // time_scale
+        w.bit(1);            // fixed_frame_rate_flag
+        w.bit(1);            // nal_hrd_parameters_present_flag
+        w.ue(1);             // cpb_cnt_minus1
+        w.bits(0, 8);
+        for (int i = 0; i < 2; i++) {
+            w.ue(1000);
+            w.ue(2000);
+            w.bit(0);
+        }
+        w.bits(0, 20);
+        w.bit(0);            // vcl_hrd_parameters_present_flag
+        w.bit(0);            // low_delay_hrd_flag
+        w.bit(0);            // pic_struct_present_flag
+        w.bit(0);            // bitstream_restriction_flag
+        byte[] nal = w.toNal(0x67);
+
+        NalSps sps = new NalSps().parse(ByteBuffer.wrap(nal), 0, nal.length);
+        assertEquals(66, sps.profileIdc);
+        assertEquals(3, sps.spsId);
+        assertEquals(1, sps.picOrderCntType);
+        assertEquals(-2, sps.offsetForNonRefPic);
+        assertEquals(1, sps.offsetForTopToBottomField);
+        assertEquals(2, sps.numRefFramesInPocCycle);
+        assertEquals(4, sps.offsetForRefFrame[0]);
+        assertEquals(-6, sps.offsetForRefFrame[1]);
+        assertFalse(sps.frameMbsOnly);
+        assertTrue(sps.mbAdaptiveFrameField);
+        assertEquals(350, sps.width);
+        assertEquals(280, sps.height);
+        assertEquals(25.0f, sps.getFrameRate(), 0.001f);
+        assertEquals(-1, sps.maxNumReorderFrames);
+    }
+
+    @Test
+    public void testInvalidSpsId() throws Exception {
+        BitWriter w = new BitWriter();
+        w.bits(66, 8);
+        w.bits(0, 8);
+        w.bits(30, 8);
+        w.ue(32);
+        byte[] nal = w.toNal(0x67);
+        mExpected.expect(NalParser.InvalidStreamException.class);
+        new NalSps().parse(ByteBuffer.wrap(nal), 0, nal.length);
+    }
+
+    // Write RBSP bits, toNal() ends with the stop bit and inserts the emulation prevention bytes
+    static class BitWriter {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private int mCurrent = 0;
+        private int mBits = 0;
+
+        BitWriter bit(int b) {
+            mCurrent = (mCurrent << 1) | (b & 0x01);
+            if (++mBits == 8) {
+                mOut.write(mCurrent);
+                mCurrent = 0;
+                mBits = 0;
+            }
+            return this;
+        }
+
+        BitWriter bits(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                bit(value >>> i);
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            long x = (value & 0xFFFFFFFFL) + 1;
+            int len = 64 - Long.numberOfLeadingZeros(x);
+            for (int i = 0; i < len - 1; i++) {
+                bit(0);
+            }
+            for (int i = len - 1; i >= 0; i--) {
+                bit((int) (x >>> i));
+            }
+            return this;
+        }
+
+        BitWriter se(int value) {
+            return ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        byte[] toByteArray() {
+            while (mBits != 0) {
+                bit(0);
+            }
+            return mOut.toByteArray();
+        }
+
+        byte[] toNal(int header) {
+            bit(1);
+            byte[] rbsp = toByteArray();
+            ByteArrayOutputStream nal = new ByteArrayOutputStream();
+            nal.write(0);
+            nal.write(0);
+            nal.write(0);
+            nal.write(1);
+            nal.write(header);
+            int zeros = 0;
+            for (byte b : rbsp) {
+                if (zeros >= 2 && (b & 0xFF) <= 3) {
+                    nal.write(3);
+                    zeros = 0;
+                }
+                nal.write(b);
+                zeros = (b == 0) ? zeros + 1 : 0;
+            }
+            return nal.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.splashtop.demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PresentationSchedulerTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testSchedule() {
+        PresentationScheduler scheduler = new PresentationScheduler();
+        long now = 1000 * MS;
+        // Mapped by the first frame, the later ones by pts regardless of when released
+        assertEquals(now, scheduler.schedule(5000000, now));
+        assertEquals(now + 16667000, scheduler.schedule(5016667, now + 2 * MS));
+        assertEquals(now + 33334000, scheduler.schedule(5033334, now + 40 * MS));
+        // Released early, the render time still by pts
+        assertEquals(now + 50001000, scheduler.schedule(5050001, now + 20 * MS));
+        assertEquals(0, scheduler.getRebaseCount());
+    }
+
+    @Test
+    public void testLead() {
+        PresentationScheduler scheduler = new PresentationScheduler().setLead(20000);
+        long now = 1000 * MS;
+        assertEquals(now + 20 * MS, scheduler.schedule(100, now));
+        assertEquals(now + 30 * MS, scheduler.schedule(10100, now + 5 * MS));
+    }
+
+    @Test
+    public void testZeroPts() {
+        PresentationScheduler scheduler = new PresentationScheduler();
+        assertEquals(10 * MS, scheduler.schedule(0, 10 * MS));
+        assertEquals(11 * MS, scheduler.schedule(0, 11 * MS));
+        // Not counted as base
+        assertEquals(12 * MS, scheduler.schedule(500, 12 * MS));
+    }
+
+    @Test
+    public void testRebase() {
+        PresentationScheduler scheduler = new PresentationScheduler();
+        long now = 1000 * MS;
+        scheduler.schedule(1000000, now);
+        // Late but within the limit, left to catch up
+        assertEquals(now + 16667000, scheduler.schedule(1016667, now + 500 * MS));
+        // Paused, mapped again from the late frame
+        assertEquals(now + 1500 * MS, scheduler.schedule(1033334, now + 1500 * MS));
+        assertEquals(now + 1516667000, scheduler.schedule(1050001, now + 1501 * MS));
+        assertEquals(1, scheduler.getRebaseCount());
+
+        // Backward pts, e.g. after seek without reset
+        assertEquals(now + 1600 * MS, scheduler.schedule(100, now + 1600 * MS));
+        scheduler.reset();
+        assertEquals(now + 1700 * MS, scheduler.schedule(5000000, now + 1700 * MS));
+    }
+
+    @Test
+    public void testJitter() {
+        PresentationScheduler scheduler = new PresentationScheduler();
+        long now = 1000 * MS;
+        long[] deviationUs = {0, 300, -200, 1000, -400};
+        for (int i = 0; i < deviationUs.length; i++) {
+            long pts = 1000 + i * 16667;
+            long renderNs = scheduler.schedule(pts, now + i * MS);
+            assertEquals(deviationUs[i], scheduler.onRendered(pts, renderNs + deviationUs[i] * 1000));
+        }
+        assertEquals(0, scheduler.onRendered(1000, now)); // Counted once
+        assertEquals(0, scheduler.onRendered(12345, now)); // Never scheduled
+        assertEquals(5, scheduler.getJitterCount());
+        assertEquals(-400, scheduler.getJitterLastUs());
+        assertEquals(1000, scheduler.getJitterMaxUs());
+        assertEquals(380, scheduler.getJitterAverageUs());
+        assertEquals(507, scheduler.getJitterRmsUs()); // sqrt((0 + 90000 + 40000 + 1000000 + 160000) / 5)
+
+        assertEquals(0, scheduler.getSupersededCount());
+
+        scheduler.clear();
+        assertEquals(0, scheduler.getJitterCount());
+        assertEquals(0, scheduler.getJitterAverageUs());
+    }
+
+    @Test
+    public void testSuperseded() {
+        PresentationScheduler scheduler = new PresentationScheduler();
+        long now = 1000 * MS;
+        long[] renderNs = new long[6];
+        for (int i = 0; i < 6; i++) {
+            renderNs[i] = scheduler.schedule(1000 + i * 16667, now);
+        }
+        scheduler.drop(1000 + 2 * 16667); // Dropped by output, not superseded
+        scheduler.onRendered(1000, renderNs[0]);
+        // 1 and 3 never rendered before 4
+        scheduler.onRendered(1000 + 4 * 16667, renderNs[4]);
+        scheduler.onRendered(1000 + 5 * 16667, renderNs[5]);
+        assertEquals(2, scheduler.getSupersededCount());
+        assertEquals(3, scheduler.getJitterCount());
+    }
+}